@@ -4,6 +4,7 @@ package com.bytedance.android.aabresguard;
 import com.android.tools.build.bundletool.flags.FlagParser;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
 import com.bytedance.android.aabresguard.commands.CommandHelp;
+import com.bytedance.android.aabresguard.commands.ConvertMappingCommand;
 import com.bytedance.android.aabresguard.commands.DuplicatedResourcesMergerCommand;
 import com.bytedance.android.aabresguard.commands.FileFilterCommand;
 import com.bytedance.android.aabresguard.commands.ObfuscateBundleCommand;
@@ -59,6 +60,9 @@ public class AabResGuardMain {
                 case StringFilterCommand.COMMAND_NAME:
                     StringFilterCommand.fromFlags(flags).execute();
                     break;
+                case ConvertMappingCommand.COMMAND_NAME:
+                    ConvertMappingCommand.fromFlags(flags).execute();
+                    break;
                 case HELP_CMD:
                     if (flags.getSubCommand().isPresent()) {
                         help(flags.getSubCommand().get(), runtime);
@@ -91,7 +95,8 @@ public class AabResGuardMain {
                         ObfuscateBundleCommand.help(),
                         DuplicatedResourcesMergerCommand.help(),
                         FileFilterCommand.help(),
-                        StringFilterCommand.help()
+                        StringFilterCommand.help(),
+                        ConvertMappingCommand.help()
                 );
         System.out.println("Synopsis: aabResGuard <command> ...");
         System.out.println();
@@ -118,6 +123,9 @@ public class AabResGuardMain {
                 case StringFilterCommand.COMMAND_NAME:
                 commandHelp = StringFilterCommand.help();
                 break;
+            case ConvertMappingCommand.COMMAND_NAME:
+                commandHelp = ConvertMappingCommand.help();
+                break;
             default:
                 System.err.printf("Error: Unrecognized command '%s'.%n%n%n", commandName);
                 help();
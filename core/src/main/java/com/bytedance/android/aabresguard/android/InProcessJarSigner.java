@@ -0,0 +1,343 @@
+package com.bytedance.android.aabresguard.android;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
+
+/**
+ * Signs a bundle with the v1 (jar) scheme without forking jarsigner.
+ * <p>
+ * The digest of every entry is given by the writer of the bundle through {@link #addEntryDigest(String, byte[])},
+ * then {@link #generateSignatureFiles()} returns the manifest, the signature file and the PKCS#7 signature block,
+ * in the same layout as jarsigner with SHA-256 digests. Entries must be added in the order they are written.
+ * <p>
+ * The signature entries must come first for the verifiers reading the bundle as a stream, so their size is known
+ * from the entry names alone, see {@link #getMaxSignatureFileSizes(Collection)}, and their space can be reserved
+ * before the entries are digested.
+ */
+public class InProcessJarSigner {
+
+    public static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String CREATED_BY = "AabResGuard";
+    private static final int MAX_LINE_LENGTH = 72;
+    private static final byte[] NEW_LINE = {'\r', '\n'};
+    /**
+     * The DER encoding of a DSA or ECDSA signature is a few bytes longer or shorter from one signature to another.
+     */
+    private static final int SIGNATURE_BLOCK_MARGIN = 16;
+
+    private static final String OID_DATA = "1.2.840.113549.1.7.1";
+    private static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+    private static final String OID_SHA256 = "2.16.840.1.101.3.4.2.1";
+    private static final String OID_RSA = "1.2.840.113549.1.1.1";
+    private static final String OID_SHA256_WITH_ECDSA = "1.2.840.10045.4.3.2";
+    private static final String OID_SHA256_WITH_DSA = "2.16.840.1.101.3.4.3.2";
+
+    private final PrivateKey privateKey;
+    private final List<X509Certificate> certificates = new ArrayList<>();
+    private final String signerName;
+    private final Map<String, byte[]> entryDigests = new LinkedHashMap<>();
+
+    public InProcessJarSigner(JarSigner.Signature signature) throws IOException {
+        checkFileExistsAndReadable(signature.storeFile);
+        KeyStore keyStore = loadKeyStore(signature);
+        try {
+            privateKey = (PrivateKey) keyStore.getKey(signature.keyAlias, signature.keyPassword.toCharArray());
+            Certificate[] chain = keyStore.getCertificateChain(signature.keyAlias);
+            if (privateKey == null || chain == null) {
+                throw new IOException(String.format("Key %s not found in keystore %s.", signature.keyAlias, signature.storeFile));
+            }
+            for (Certificate certificate : chain) {
+                certificates.add((X509Certificate) certificate);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException(String.format("Failed to read key %s from keystore %s.", signature.keyAlias, signature.storeFile), e);
+        }
+        signerName = getSignerName(signature.keyAlias);
+    }
+
+    /**
+     * Creates the digest to compute the content of an entry with, it can be used on any thread.
+     */
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the digest of the uncompressed content.
+     */
+    public byte[] digest(InputStream content) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = content.read(buffer)) != -1) {
+            digest.update(buffer, 0, count);
+        }
+        return digest.digest();
+    }
+
+    public void addEntryDigest(String name, byte[] digest) {
+        entryDigests.put(name, digest);
+    }
+
+    /**
+     * Returns the max size of every signature entry of a bundle whose digested entries are {@code entryNames}, in the
+     * order they should be written. The manifest and the signature file have exactly this size.
+     */
+    public Map<String, Integer> getMaxSignatureFileSizes(Collection<String> entryNames) throws IOException {
+        // every digest has the same length, so the entries of the manifest have their final size.
+        byte[] emptyDigest = new byte[newDigest().getDigestLength()];
+        Map<String, byte[]> digests = new LinkedHashMap<>();
+        for (String name : entryNames) {
+            digests.put(name, emptyDigest);
+        }
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> file : generateSignatureFiles(digests).entrySet()) {
+            int margin = file.getKey().equals(getBlockName()) ? SIGNATURE_BLOCK_MARGIN : 0;
+            sizes.put(file.getKey(), file.getValue().length + margin);
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the signature entries of the digested entries, in the order they should be written at the beginning of
+     * the bundle.
+     */
+    public Map<String, byte[]> generateSignatureFiles() throws IOException {
+        return generateSignatureFiles(entryDigests);
+    }
+
+    private Map<String, byte[]> generateSignatureFiles(Map<String, byte[]> entryDigests) throws IOException {
+        byte[] manifest;
+        byte[] mainAttributes;
+        Map<String, byte[]> sections = new LinkedHashMap<>();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeAttribute(os, "Manifest-Version", "1.0");
+        writeAttribute(os, "Created-By", CREATED_BY);
+        os.write(NEW_LINE);
+        mainAttributes = os.toByteArray();
+        for (Map.Entry<String, byte[]> entry : entryDigests.entrySet()) {
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            writeAttribute(section, "Name", entry.getKey());
+            writeAttribute(section, DIGEST_ALGORITHM + "-Digest", base64(entry.getValue()));
+            section.write(NEW_LINE);
+            sections.put(entry.getKey(), section.toByteArray());
+            section.writeTo(os);
+        }
+        manifest = os.toByteArray();
+
+        os = new ByteArrayOutputStream();
+        writeAttribute(os, "Signature-Version", "1.0");
+        writeAttribute(os, "Created-By", CREATED_BY);
+        writeAttribute(os, DIGEST_ALGORITHM + "-Digest-Manifest", base64(newDigest().digest(manifest)));
+        writeAttribute(os, DIGEST_ALGORITHM + "-Digest-Manifest-Main-Attributes", base64(newDigest().digest(mainAttributes)));
+        os.write(NEW_LINE);
+        for (Map.Entry<String, byte[]> section : sections.entrySet()) {
+            writeAttribute(os, "Name", section.getKey());
+            writeAttribute(os, DIGEST_ALGORITHM + "-Digest", base64(newDigest().digest(section.getValue())));
+            os.write(NEW_LINE);
+        }
+        byte[] signatureFile = os.toByteArray();
+
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(MANIFEST_NAME, manifest);
+        files.put("META-INF/" + signerName + ".SF", signatureFile);
+        files.put(getBlockName(), generateSignatureBlock(signatureFile));
+        return files;
+    }
+
+    /**
+     * Encodes the signature of the signature file as a PKCS#7 SignedData without signed attributes.
+     */
+    private byte[] generateSignatureBlock(byte[] signatureFile) throws IOException {
+        String keyAlgorithm = privateKey.getAlgorithm();
+        byte[] signature;
+        try {
+            java.security.Signature signer = java.security.Signature.getInstance("SHA256with" + ("EC".equals(keyAlgorithm) ? "ECDSA" : keyAlgorithm));
+            signer.initSign(privateKey);
+            signer.update(signatureFile);
+            signature = signer.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to sign the bundle with the " + keyAlgorithm + " key.", e);
+        }
+        byte[] digestAlgorithm = sequence(oid(OID_SHA256), der(0x05));
+        byte[] signatureAlgorithm;
+        if ("RSA".equals(keyAlgorithm)) {
+            signatureAlgorithm = sequence(oid(OID_RSA), der(0x05));
+        } else if ("EC".equals(keyAlgorithm)) {
+            signatureAlgorithm = sequence(oid(OID_SHA256_WITH_ECDSA));
+        } else {
+            signatureAlgorithm = sequence(oid(OID_SHA256_WITH_DSA));
+        }
+
+        X509Certificate signerCertificate = certificates.get(0);
+        ByteArrayOutputStream encodedCertificates = new ByteArrayOutputStream();
+        try {
+            for (X509Certificate certificate : certificates) {
+                encodedCertificates.write(certificate.getEncoded());
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encode the signing certificates.", e);
+        }
+        byte[] signerInfo = sequence(
+                integer(BigInteger.ONE),
+                sequence(signerCertificate.getIssuerX500Principal().getEncoded(), integer(signerCertificate.getSerialNumber())),
+                digestAlgorithm,
+                signatureAlgorithm,
+                der(0x04, signature)
+        );
+        byte[] signedData = sequence(
+                integer(BigInteger.ONE),
+                der(0x31, digestAlgorithm),
+                sequence(oid(OID_DATA)),
+                der(0xA0, encodedCertificates.toByteArray()),
+                der(0x31, signerInfo)
+        );
+        return sequence(oid(OID_SIGNED_DATA), der(0xA0, signedData));
+    }
+
+    private String getBlockName() {
+        String keyAlgorithm = privateKey.getAlgorithm();
+        return "META-INF/" + signerName + "." + ("EC".equals(keyAlgorithm) || "DSA".equals(keyAlgorithm) ? keyAlgorithm : "RSA");
+    }
+
+    /**
+     * Same rule as jarsigner: the alias upper cased, truncated to 8 characters, with the characters not allowed in
+     * the name of the signature file replaced by '_'.
+     */
+    private static String getSignerName(String keyAlias) {
+        String name = keyAlias.length() > 8 ? keyAlias.substring(0, 8) : keyAlias;
+        StringBuilder builder = new StringBuilder(name.length());
+        for (char c : name.toUpperCase(Locale.US).toCharArray()) {
+            boolean allowed = (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            builder.append(allowed ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private static KeyStore loadKeyStore(JarSigner.Signature signature) throws IOException {
+        GeneralSecurityException failure = null;
+        for (String type : new String[]{KeyStore.getDefaultType(), "JKS", "PKCS12"}) {
+            try (InputStream is = Files.newInputStream(signature.storeFile)) {
+                KeyStore keyStore = KeyStore.getInstance(type);
+                keyStore.load(is, signature.storePassword.toCharArray());
+                return keyStore;
+            } catch (GeneralSecurityException e) {
+                failure = e;
+            } catch (IOException e) {
+                // a keystore of another type fails with an IOException, the wrong password too.
+                if (e.getCause() instanceof UnrecoverableKeyException) {
+                    throw e;
+                }
+                failure = new GeneralSecurityException(e);
+            }
+        }
+        throw new IOException("Failed to load keystore " + signature.storeFile, failure);
+    }
+
+    /**
+     * Writes the attribute as a manifest line, wrapped at 72 bytes with continuation lines starting with a space.
+     */
+    private static void writeAttribute(ByteArrayOutputStream os, String name, String value) {
+        byte[] line = (name + ": " + value).getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        int maxLength = MAX_LINE_LENGTH;
+        while (line.length - offset > maxLength) {
+            int end = offset + maxLength;
+            // do not split an UTF-8 character.
+            while ((line[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            os.write(line, offset, end - offset);
+            os.write(NEW_LINE, 0, NEW_LINE.length);
+            os.write(' ');
+            offset = end;
+            maxLength = MAX_LINE_LENGTH - 1;
+        }
+        os.write(line, offset, line.length - offset);
+        os.write(NEW_LINE, 0, NEW_LINE.length);
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static byte[] sequence(byte[]... elements) {
+        return der(0x30, elements);
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return der(0x02, value.toByteArray());
+    }
+
+    private static byte[] oid(String oid) {
+        String[] arcs = oid.split("\\.");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeBase128(os, Long.parseLong(arcs[0]) * 40 + Long.parseLong(arcs[1]));
+        for (int i = 2; i < arcs.length; i++) {
+            writeBase128(os, Long.parseLong(arcs[i]));
+        }
+        return der(0x06, os.toByteArray());
+    }
+
+    private static void writeBase128(ByteArrayOutputStream os, long value) {
+        int groups = 1;
+        for (long rest = value >>> 7; rest != 0; rest >>>= 7) {
+            groups++;
+        }
+        for (int i = groups - 1; i > 0; i--) {
+            os.write((int) ((value >>> (7 * i)) & 0x7F) | 0x80);
+        }
+        os.write((int) (value & 0x7F));
+    }
+
+    /**
+     * Encodes a DER element with the given tag, its content being the concatenation of {@code contents}.
+     */
+    private static byte[] der(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream(length + 6);
+        os.write(tag);
+        if (length < 0x80) {
+            os.write(length);
+        } else {
+            int lengthBytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            os.write(0x80 | lengthBytes);
+            for (int i = lengthBytes - 1; i >= 0; i--) {
+                os.write(length >>> (i * 8));
+            }
+        }
+        for (byte[] content : contents) {
+            os.write(content, 0, content.length);
+        }
+        return os.toByteArray();
+    }
+}
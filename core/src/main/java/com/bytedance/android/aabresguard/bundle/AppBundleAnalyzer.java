@@ -18,16 +18,26 @@ public class AppBundleAnalyzer {
 
     private static final Logger logger = Logger.getLogger(AppBundleAnalyzer.class.getName());
     private final Path bundlePath;
+    private final BundleSource bundleSource;
 
     public AppBundleAnalyzer(Path bundlePath) {
         checkFileExistsAndReadable(bundlePath);
         this.bundlePath = bundlePath;
+        this.bundleSource = null;
+    }
+
+    public AppBundleAnalyzer(BundleSource bundleSource) {
+        this.bundlePath = bundleSource.getBundlePath();
+        this.bundleSource = bundleSource;
     }
 
     public AppBundle analyze() throws IOException {
         TimeClock timeClock = new TimeClock();
-        ZipFile bundleZip = new ZipFile(bundlePath.toFile());
+        ZipFile bundleZip = bundleSource != null ? bundleSource.getZipFile() : new ZipFile(bundlePath.toFile());
         AppBundle appBundle = AppBundle.buildFromZip(bundleZip);
+        if (bundleSource != null) {
+            bundleSource.addSourceModuleEntries(appBundle);
+        }
         System.out.println(String.format("analyze bundle file done, const %s", timeClock.getCoast()));
         return appBundle;
     }
@@ -2,11 +2,31 @@ package com.bytedance.android.aabresguard.bundle;
 
 import com.android.tools.build.bundletool.io.AppBundleSerializer;
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.bytedance.android.aabresguard.android.InProcessJarSigner;
+import com.bytedance.android.aabresguard.utils.ThreadUtils;
 import com.bytedance.android.aabresguard.utils.TimeClock;
+import com.google.common.io.ByteSource;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
 
@@ -17,20 +37,337 @@ import static com.android.tools.build.bundletool.model.utils.files.FilePrecondit
 public class AppBundlePackager {
     private static final Logger logger = Logger.getLogger(AppBundlePackager.class.getName());
 
+    private static final String BUNDLE_CONFIG_PATH = "BundleConfig.pb";
+    private static final String METADATA_DIRECTORY = "BUNDLE-METADATA";
+    private static final String MANIFEST_PATH = "manifest/AndroidManifest.xml";
+    private static final String ASSETS_CONFIG_PATH = "assets.pb";
+    private static final String NATIVE_CONFIG_PATH = "native.pb";
+    private static final String RESOURCE_TABLE_PATH = "resources.pb";
+    private static final String APEX_CONFIG_PATH = "apex.pb";
+
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+
     private final Path output;
     private final AppBundle appBundle;
+    private final BundleSource bundleSource;
+
+    private int maxThreads = 1;
+    private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private InProcessJarSigner jarSigner;
+    private int rawCopyCount = 0;
+    private int compressCount = 0;
 
     public AppBundlePackager(AppBundle appBundle, Path output) {
+        this(null, appBundle, output);
+    }
+
+    /**
+     * The entries which are left untouched by the executors are copied from {@code bundleSource} without being
+     * decompressed, only the new entries are compressed. If {@code bundleSource} is null, the bundle is written
+     * by bundletool.
+     */
+    public AppBundlePackager(BundleSource bundleSource, AppBundle appBundle, Path output) {
         this.output = output;
         this.appBundle = appBundle;
+        this.bundleSource = bundleSource;
         checkFileDoesNotExist(output);
     }
 
+    /**
+     * Sets the number of threads compressing the entries, only used when the bundle source is set.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Sets the max size of compressed data waiting to be written, to cap the memory used by the compression
+     * threads when the writer can not keep up.
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Signs the bundle while it is written: the digest of every entry is computed when it is compressed or copied,
+     * so the bundle is not read again by jarsigner. The space of the signature entries is reserved at the beginning
+     * of the bundle, and they are written there once every entry is digested. Only used when the bundle source is
+     * set.
+     */
+    public void setJarSigner(InProcessJarSigner jarSigner) {
+        this.jarSigner = jarSigner;
+    }
+
     public void execute() throws IOException {
         TimeClock timeClock = new TimeClock();
-        AppBundleSerializer appBundleSerializer = new AppBundleSerializer();
-        appBundleSerializer.writeToDisk(appBundle, output);
+        if (bundleSource == null) {
+            AppBundleSerializer appBundleSerializer = new AppBundleSerializer();
+            appBundleSerializer.writeToDisk(appBundle, output);
+            System.out.println(String.format("package bundle done, coast: %s", timeClock.getCoast()));
+            return;
+        }
+        List<PendingEntry> entries = collectEntries();
+        try (BundleZipWriter writer = new BundleZipWriter(output)) {
+            if (jarSigner != null) {
+                reserveSignatureEntries(writer, entries);
+            }
+            if (maxThreads > 1 && getParallelTaskCount() > 1) {
+                writeParallel(writer, entries);
+            } else {
+                for (PendingEntry entry : entries) {
+                    writeEntry(writer, entry, null);
+                }
+            }
+            if (jarSigner != null) {
+                for (Map.Entry<String, byte[]> signatureEntry : jarSigner.generateSignatureFiles().entrySet()) {
+                    writer.fillReservedEntry(signatureEntry.getKey(), signatureEntry.getValue());
+                }
+            }
+        }
+        System.out.println(String.format(
+                "package bundle done, copy %s entries, compress %s entries, coast: %s",
+                rawCopyCount,
+                compressCount,
+                timeClock.getCoast()
+        ));
+    }
+
+    /**
+     * Reserves the signature entries first, as jarsigner writes them, so the verifiers reading the bundle as a
+     * stream find the manifest before the signed entries. Every entry but the directories is digested.
+     */
+    private void reserveSignatureEntries(BundleZipWriter writer, List<PendingEntry> entries) throws IOException {
+        List<String> names = new ArrayList<>(entries.size());
+        for (PendingEntry entry : entries) {
+            if (entry.rawEntry != null || entry.content != null) {
+                names.add(entry.path);
+            }
+        }
+        for (Map.Entry<String, Integer> signatureEntry : jarSigner.getMaxSignatureFileSizes(names).entrySet()) {
+            writer.reserveEntry(signatureEntry.getKey(), signatureEntry.getValue());
+        }
+    }
+
+    /**
+     * Lists the entries with the same layout as {@link AppBundleSerializer}.
+     */
+    private List<PendingEntry> collectEntries() {
+        List<PendingEntry> entries = new ArrayList<>();
+        entries.add(compressedBytes(BUNDLE_CONFIG_PATH, appBundle.getBundleConfig()::toByteArray));
+
+        for (Map.Entry<ZipPath, ByteSource> metadataEntry : appBundle.getBundleMetadata().getFileDataMap().entrySet()) {
+            entries.add(compressed(METADATA_DIRECTORY + "/" + metadataEntry.getKey().toString(), metadataEntry.getValue()::openStream));
+        }
+
+        for (BundleModule module : appBundle.getModules().values()) {
+            String moduleDir = module.getName().getName() + "/";
+            for (ModuleEntry entry : module.getEntries()) {
+                String path = moduleDir + entry.getPath().toString();
+                if (entry.isDirectory()) {
+                    entries.add(new PendingEntry(path, null, null));
+                    continue;
+                }
+                BundleSource.Entry sourceEntry = getUnchangedSourceEntry(entry, path);
+                if (sourceEntry != null) {
+                    entries.add(new PendingEntry(path, sourceEntry, null));
+                    rawCopyCount++;
+                } else {
+                    entries.add(compressed(path, entry::getContent));
+                }
+            }
+
+            // special module files are not represented as module entries.
+            entries.add(compressedBytes(moduleDir + MANIFEST_PATH, module.getAndroidManifest().getManifestRoot().getProto()::toByteArray));
+            module.getAssetsConfig().ifPresent(config -> entries.add(compressedBytes(moduleDir + ASSETS_CONFIG_PATH, config::toByteArray)));
+            module.getNativeConfig().ifPresent(config -> entries.add(compressedBytes(moduleDir + NATIVE_CONFIG_PATH, config::toByteArray)));
+            module.getResourceTable().ifPresent(table -> entries.add(compressedBytes(moduleDir + RESOURCE_TABLE_PATH, table::toByteArray)));
+            module.getApexConfig().ifPresent(config -> entries.add(compressedBytes(moduleDir + APEX_CONFIG_PATH, config::toByteArray)));
+        }
+        return entries;
+    }
+
+    private PendingEntry compressed(String path, ContentSupplier content) {
+        compressCount++;
+        return new PendingEntry(path, null, content);
+    }
+
+    private PendingEntry compressedBytes(String path, Supplier<byte[]> content) {
+        return compressed(path, () -> new ByteArrayInputStream(content.get()));
+    }
+
+    /**
+     * Returns the number of entries processed by the worker pool: the compressed ones, and the copied ones when
+     * they are digested for the signature.
+     */
+    private int getParallelTaskCount() {
+        return compressCount + (jarSigner != null ? rawCopyCount : 0);
+    }
+
+    /**
+     * Compresses the entries on a worker pool while this thread writes them in order.
+     * <p>
+     * At most {@code 2 * maxThreads} entries are processed ahead of the writer, and no new entry is submitted
+     * while the compressed data waiting to be written exceeds {@link #maxInFlightBytes}. When the bundle is signed,
+     * the entries copied from the input bundle are digested by the pool too, only their digests are added in order
+     * by this thread.
+     */
+    private void writeParallel(BundleZipWriter writer, List<PendingEntry> entries) throws IOException {
+        int maxPendingTasks = maxThreads * 2;
+        AtomicLong inFlightBytes = new AtomicLong();
+        ForkJoinPool pool = ThreadUtils.newForkJoinPool(maxThreads, getParallelTaskCount());
+        Deque<PendingEntry> queue = new ArrayDeque<>();
+        int pendingTasks = 0;
+        try {
+            for (PendingEntry entry : entries) {
+                boolean digestRawEntry = entry.rawEntry != null && jarSigner != null;
+                if (entry.content != null || digestRawEntry) {
+                    while (!queue.isEmpty() && (pendingTasks >= maxPendingTasks || inFlightBytes.get() >= maxInFlightBytes)) {
+                        if (writeEntry(writer, queue.poll(), inFlightBytes)) {
+                            pendingTasks--;
+                        }
+                    }
+                }
+                if (digestRawEntry) {
+                    entry.digestFuture = pool.submit(() -> digestRawEntry(entry.rawEntry));
+                    pendingTasks++;
+                } else if (entry.content != null) {
+                    entry.future = pool.submit(() -> {
+                        Deflater deflater = BundleZipWriter.newDeflater();
+                        MessageDigest digest = jarSigner != null ? jarSigner.newDigest() : null;
+                        try (InputStream is = openContent(entry, digest)) {
+                            BundleZipWriter.CompressedData data = BundleZipWriter.compress(is, deflater);
+                            inFlightBytes.addAndGet(data.getCompressedSize());
+                            if (digest != null) {
+                                entry.digest = digest.digest();
+                            }
+                            return data;
+                        } finally {
+                            deflater.end();
+                        }
+                    });
+                    pendingTasks++;
+                }
+                queue.add(entry);
+            }
+            while (!queue.isEmpty()) {
+                writeEntry(writer, queue.poll(), inFlightBytes);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the entry, returns true if it was compressed or digested by the worker pool.
+     */
+    private boolean writeEntry(BundleZipWriter writer, PendingEntry entry, AtomicLong inFlightBytes) throws IOException {
+        if (entry.future != null) {
+            BundleZipWriter.CompressedData data = ThreadUtils.get(entry.future);
+            // release the data once written, the entry list is kept until the end of packaging.
+            entry.future = null;
+            writer.addEntry(entry.path, data);
+            inFlightBytes.addAndGet(-data.getCompressedSize());
+            addEntryDigest(entry);
+            return true;
+        }
+        if (entry.rawEntry != null) {
+            writer.addRawEntry(entry.path, bundleSource, entry.rawEntry);
+            if (entry.digestFuture != null) {
+                entry.digest = ThreadUtils.get(entry.digestFuture);
+                entry.digestFuture = null;
+                addEntryDigest(entry);
+                return true;
+            }
+            if (jarSigner != null) {
+                entry.digest = digestRawEntry(entry.rawEntry);
+            }
+        } else if (entry.content != null) {
+            MessageDigest digest = jarSigner != null ? jarSigner.newDigest() : null;
+            try (InputStream is = openContent(entry, digest)) {
+                writer.addEntry(entry.path, is, true);
+            }
+            if (digest != null) {
+                entry.digest = digest.digest();
+            }
+        } else {
+            writer.addDirectory(entry.path);
+        }
+        addEntryDigest(entry);
+        return false;
+    }
+
+    /**
+     * Digests the uncompressed content of the input bundle entry, a stored entry is read from the mapping directly.
+     */
+    private byte[] digestRawEntry(BundleSource.Entry rawEntry) throws IOException {
+        if (rawEntry.getMethod() == BundleSource.METHOD_STORED) {
+            MessageDigest digest = jarSigner.newDigest();
+            digest.update(bundleSource.getStoredData(rawEntry));
+            return digest.digest();
+        }
+        try (InputStream is = bundleSource.openStream(rawEntry)) {
+            return jarSigner.digest(is);
+        }
+    }
+
+    private InputStream openContent(PendingEntry entry, MessageDigest digest) throws IOException {
+        InputStream is = entry.content.open();
+        return digest != null ? new DigestInputStream(is, digest) : is;
+    }
+
+    /**
+     * Gives the digest of the written entry to the signer, entries are written in order so the manifest follows
+     * the order of the bundle.
+     */
+    private void addEntryDigest(PendingEntry entry) {
+        if (entry.digest != null) {
+            jarSigner.addEntryDigest(entry.path, entry.digest);
+            entry.digest = null;
+        }
+    }
+
+    /**
+     * Only the entries read by bundletool from the bundle source, directly or moved by a {@link RenamedModuleEntry},
+     * are known to hold the bytes of an input bundle entry. Any other entry is compressed from its content, even if
+     * its path is found in the input bundle.
+     */
+    private BundleSource.Entry getUnchangedSourceEntry(ModuleEntry entry, String path) {
+        if (entry instanceof RenamedModuleEntry) {
+            path = ((RenamedModuleEntry) entry).getSourcePath();
+            entry = ((RenamedModuleEntry) entry).getRawEntry();
+        }
+        if (!bundleSource.isSourceModuleEntry(entry)) {
+            return null;
+        }
+        BundleSource.Entry sourceEntry = bundleSource.getEntry(path);
+        if (sourceEntry == null || sourceEntry.isDirectory()) {
+            return null;
+        }
+        if (sourceEntry.getMethod() != BundleSource.METHOD_STORED && sourceEntry.getMethod() != BundleSource.METHOD_DEFLATED) {
+            return null;
+        }
+        return sourceEntry;
+    }
+
+    private interface ContentSupplier {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * An entry of the output bundle: copied from the input bundle, compressed from its content, or a directory.
+     */
+    private static class PendingEntry {
+        private final String path;
+        private final BundleSource.Entry rawEntry;
+        private final ContentSupplier content;
+        private Future<BundleZipWriter.CompressedData> future;
+        private Future<byte[]> digestFuture;
+        private byte[] digest;
 
-        System.out.println(String.format("package bundle done, coast: %s", timeClock.getCoast()));
+        private PendingEntry(String path, BundleSource.Entry rawEntry, ContentSupplier content) {
+            this.path = path;
+            this.rawEntry = rawEntry;
+            this.content = content;
+        }
     }
 }
@@ -63,6 +63,44 @@ public class AppBundleUtils {
        return BufferedIo.inputStream(bundleZipFile, bundleConfigEntry);
     }
 
+    public static long getZipEntrySize(BundleSource bundleSource, ModuleEntry entry, BundleModule bundleModule) {
+        BundleSource.Entry sourceEntry = bundleSource.getEntry(entry, bundleModule);
+        return sourceEntry == null ? 0 : sourceEntry.getSize();
+    }
+
+    public static long getZipEntrySize(BundleSource bundleSource, ZipPath zipPath) {
+        BundleSource.Entry sourceEntry = bundleSource.getEntry(zipPath);
+        return sourceEntry == null ? 0 : sourceEntry.getSize();
+    }
+
+    public static String getEntryMd5(BundleSource bundleSource, ModuleEntry entry, BundleModule bundleModule) {
+        try (InputStream is = bundleSource.openStream(entry, bundleModule)) {
+            return bytesToHexString(DigestUtils.md5(is));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String getEntryMd5(BundleSource bundleSource, ZipPath zipPath) {
+        BundleSource.Entry sourceEntry = bundleSource.getEntry(zipPath);
+        if (sourceEntry == null) {
+            throw new RuntimeException("can not find entry " + zipPath + " in bundle");
+        }
+        try (InputStream is = bundleSource.openStream(sourceEntry)) {
+            return bytesToHexString(DigestUtils.md5(is));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static byte[] readByte(BundleSource bundleSource, ModuleEntry entry, BundleModule bundleModule) throws IOException {
+        return bundleSource.readBytes(entry, bundleModule);
+    }
+
+    public static InputStream readInputStream(BundleSource bundleSource, ModuleEntry entry, BundleModule bundleModule) throws IOException {
+        return bundleSource.openStream(entry, bundleModule);
+    }
+
     public static String bytesToHexString(byte[] src) {
         if (src.length <= 0) {
             return "";
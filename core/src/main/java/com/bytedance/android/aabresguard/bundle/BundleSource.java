@@ -0,0 +1,554 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.bytedance.android.aabresguard.utils.elf.ByteProvider;
+import com.bytedance.android.aabresguard.utils.elf.MappedByteProvider;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
+
+/**
+ * Read only view of the input bundle file, shared by all the executors of a command.
+ * <p>
+ * The bundle file is memory mapped and the zip central directory is parsed only once into an index keyed by
+ * the entry path ({@code module/path}). Stored entries are handed out as zero-copy {@link ByteBuffer} slices of
+ * the mapping, deflated entries are inflated from the mapping on demand.
+ * <p>
+ * The {@link ZipFile} required by bundletool to build the {@code AppBundle} is also owned by this source, so
+ * closing it releases every file descriptor opened for the input bundle.
+ */
+public class BundleSource implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD_TAG = 0x0001;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private final Path bundlePath;
+    private final FileChannel channel;
+    private final long length;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<ModuleEntry> sourceModuleEntries = Collections.newSetFromMap(new IdentityHashMap<>());
+    private ZipFile zipFile;
+
+    private BundleSource(Path bundlePath) throws IOException {
+        this.bundlePath = bundlePath;
+        this.channel = FileChannel.open(bundlePath, StandardOpenOption.READ);
+        this.length = channel.size();
+        for (long position = 0; position < length; position += MAX_SEGMENT_SIZE) {
+            long size = Math.min(MAX_SEGMENT_SIZE, length - position);
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * Opens the bundle file and reads its central directory.
+     */
+    public static BundleSource open(Path bundlePath) throws IOException {
+        checkFileExistsAndReadable(bundlePath);
+        BundleSource source = new BundleSource(bundlePath);
+        try {
+            source.readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+        return source;
+    }
+
+    public Path getBundlePath() {
+        return bundlePath;
+    }
+
+    /**
+     * Returns the {@link ZipFile} of the bundle, opened on first use and closed together with this source.
+     */
+    public synchronized ZipFile getZipFile() throws IOException {
+        if (zipFile == null) {
+            zipFile = new ZipFile(bundlePath.toFile());
+        }
+        return zipFile;
+    }
+
+    /**
+     * Records the module entries of the bundle built by bundletool from {@link #getZipFile()}, they still hold the
+     * content of the entry with the same path in this source.
+     */
+    synchronized void addSourceModuleEntries(AppBundle appBundle) {
+        for (BundleModule module : appBundle.getModules().values()) {
+            sourceModuleEntries.addAll(module.getEntries());
+        }
+    }
+
+    /**
+     * Returns true if the module entry is one of the entries read by bundletool from this source, and not an entry
+     * created later with the same path.
+     */
+    public synchronized boolean isSourceModuleEntry(ModuleEntry entry) {
+        return sourceModuleEntries.contains(entry);
+    }
+
+    /**
+     * Returns all the entries in central directory order.
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Returns the entry of the path, or null if the bundle does not contain it.
+     */
+    public Entry getEntry(String path) {
+        return entries.get(path);
+    }
+
+    public Entry getEntry(ZipPath zipPath) {
+        return getEntry(zipPath.toString());
+    }
+
+    public Entry getEntry(ModuleEntry entry, BundleModule bundleModule) {
+        return getEntry(getEntryPath(entry, bundleModule));
+    }
+
+    public static String getEntryPath(ModuleEntry entry, BundleModule bundleModule) {
+        return bundleModule.getName().getName() + "/" + entry.getPath().toString();
+    }
+
+    /**
+     * Returns the bytes of the entry as stored in the bundle file, without the local header.
+     * <p>
+     * The buffer is a read only slice of the mapping unless the entry crosses a mapped segment.
+     */
+    public ByteBuffer getRawData(Entry entry) throws IOException {
+        return slice(getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    /**
+     * Copies the bytes of the entry as stored in the bundle file to the target, without inflating them.
+     */
+    public void transferTo(Entry entry, WritableByteChannel target) throws IOException {
+        long position = getDataOffset(entry);
+        long remaining = entry.getCompressedSize();
+        while (remaining > 0) {
+            long count = channel.transferTo(position, remaining, target);
+            if (count <= 0) {
+                // some channels refuse to transfer, fall back to a buffer copy.
+                ByteBuffer buffer = slice(position, Math.min(remaining, 1024 * 1024));
+                count = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+            }
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Returns the uncompressed bytes of a {@link #METHOD_STORED} entry without copying them.
+     */
+    public ByteBuffer getStoredData(Entry entry) throws IOException {
+        if (entry.getMethod() != METHOD_STORED) {
+            throw new ZipException(String.format("entry %s is not stored", entry.getName()));
+        }
+        return getRawData(entry);
+    }
+
+    /**
+     * Returns a {@link ByteProvider} reading a {@link #METHOD_STORED} entry, such as a native library, directly from
+     * the mapping, so it can be parsed by {@link com.bytedance.android.aabresguard.utils.elf.ElfHeader} without
+     * being copied onto the heap.
+     */
+    public ByteProvider getByteProvider(Entry entry) throws IOException {
+        return new MappedByteProvider(getStoredData(entry), entry.getName());
+    }
+
+    /**
+     * Opens the uncompressed content of the entry, the caller is responsible for closing it.
+     */
+    public InputStream openStream(Entry entry) throws IOException {
+        InputStream raw = new ByteBufferInputStream(getRawData(entry));
+        switch (entry.getMethod()) {
+            case METHOD_STORED:
+                return raw;
+            case METHOD_DEFLATED:
+                return new EntryInflaterInputStream(raw, entry.getSize());
+            default:
+                throw new ZipException(String.format(
+                        "unsupported compression method %s of entry %s", entry.getMethod(), entry.getName()));
+        }
+    }
+
+    public InputStream openStream(ModuleEntry entry, BundleModule bundleModule) throws IOException {
+        return openStream(requireEntry(getEntryPath(entry, bundleModule)));
+    }
+
+    /**
+     * Reads the uncompressed content of the entry.
+     */
+    public byte[] readBytes(Entry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new IOException(String.format("entry %s is too large to be read into memory", entry.getName()));
+        }
+        byte[] bytes = new byte[(int) entry.getSize()];
+        if (entry.getMethod() == METHOD_STORED) {
+            getStoredData(entry).get(bytes);
+            return bytes;
+        }
+        try (InputStream is = openStream(entry)) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = is.read(bytes, offset, bytes.length - offset);
+                if (count < 0) {
+                    throw new EOFException(String.format("unexpected end of entry %s", entry.getName()));
+                }
+                offset += count;
+            }
+        }
+        return bytes;
+    }
+
+    public byte[] readBytes(ModuleEntry entry, BundleModule bundleModule) throws IOException {
+        return readBytes(requireEntry(getEntryPath(entry, bundleModule)));
+    }
+
+    private Entry requireEntry(String path) throws ZipException {
+        Entry entry = getEntry(path);
+        if (entry == null) {
+            throw new ZipException(String.format("can not find entry %s in bundle %s", path, bundlePath));
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the offset of the entry data, which is only known after reading the local header.
+     */
+    long getDataOffset(Entry entry) throws IOException {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset >= 0) {
+            return dataOffset;
+        }
+        ByteBuffer header = slice(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException(String.format("invalid local header of entry %s", entry.getName()));
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        dataOffset = entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        entry.dataOffset = dataOffset;
+        return dataOffset;
+    }
+
+    /**
+     * Returns a little endian view of the bundle file region.
+     */
+    ByteBuffer slice(long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || offset + size > length) {
+            throw new EOFException(String.format("invalid region [%s, %s) of %s", offset, offset + size, bundlePath));
+        }
+        int index = (int) (offset / MAX_SEGMENT_SIZE);
+        int position = (int) (offset % MAX_SEGMENT_SIZE);
+        ByteBuffer segment = segments.isEmpty() ? ByteBuffer.allocate(0) : segments.get(Math.min(index, segments.size() - 1));
+        if (position + size <= segment.capacity()) {
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(position);
+            buffer.limit((int) (position + size));
+            return buffer.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        // the region crosses two segments, fall back to a copy.
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("region [%s, %s) is too large", offset, offset + size));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long eocdOffset = findEndOfCentralDirectory();
+        ByteBuffer eocd = slice(eocdOffset, END_OF_CENTRAL_DIRECTORY_SIZE);
+        long count = eocd.getShort(10) & 0xFFFF;
+        long directorySize = eocd.getInt(12) & 0xFFFFFFFFL;
+        long directoryOffset = eocd.getInt(16) & 0xFFFFFFFFL;
+
+        long locatorOffset = eocdOffset - ZIP64_LOCATOR_SIZE;
+        if (locatorOffset >= 0 && slice(locatorOffset, ZIP64_LOCATOR_SIZE).getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64Offset = slice(locatorOffset, ZIP64_LOCATOR_SIZE).getLong(8);
+            ByteBuffer zip64 = slice(zip64Offset, 56);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("invalid zip64 end of central directory of " + bundlePath);
+            }
+            count = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+
+        ByteBuffer directory = slice(directoryOffset, directorySize);
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("invalid central directory of " + bundlePath);
+            }
+            int method = directory.getShort(position + 10) & 0xFFFF;
+            int time = directory.getShort(position + 12) & 0xFFFF;
+            int date = directory.getShort(position + 14) & 0xFFFF;
+            long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+            long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = directory.duplicate();
+            nameBuffer.position(position + CENTRAL_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // values stored in the zip64 extra field, in the order defined by the zip specification.
+            int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int tag = directory.getShort(extra) & 0xFFFF;
+                int dataSize = directory.getShort(extra + 2) & 0xFFFF;
+                if (tag == ZIP64_EXTRA_FIELD_TAG) {
+                    int value = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = directory.getLong(value);
+                        value += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = directory.getLong(value);
+                        value += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL) {
+                        localHeaderOffset = directory.getLong(value);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+
+            entries.put(name, new Entry(name, method, time, date, crc, compressedSize, size, localHeaderOffset));
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private long findEndOfCentralDirectory() throws IOException {
+        long start = Math.max(0, length - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+        ByteBuffer tail = slice(start, length - start);
+        for (int i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return start + i;
+            }
+        }
+        throw new ZipException("can not find the end of central directory of " + bundlePath);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        try {
+            if (zipFile != null) {
+                zipFile.close();
+                zipFile = null;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * A file of the bundle, as described by the zip central directory.
+     */
+    public static final class Entry {
+        private final String name;
+        private final int method;
+        private final int time;
+        private final int date;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+        private volatile long dataOffset = -1;
+
+        private Entry(String name, int method, int time, int date, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns the last modification time in MS-DOS format.
+         */
+        public int getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the last modification date in MS-DOS format.
+         */
+        public int getDate() {
+            return date;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private final long size;
+        private boolean eof;
+        private boolean closed;
+
+        private EntryInflaterInputStream(InputStream in, long size) {
+            super(in, new Inflater(true), (int) Math.max(512, Math.min(64 * 1024, size)));
+            this.size = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // the nowrap inflater may need an extra dummy byte to finish.
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                return 0;
+            }
+            long remaining = size - inf.getBytesWritten();
+            return remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(0, remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+    }
+}
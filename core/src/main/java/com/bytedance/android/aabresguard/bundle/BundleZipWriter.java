@@ -0,0 +1,405 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip writer used to package the bundle.
+ * <p>
+ * Besides compressing new content, it can copy an entry of the input bundle as is: the compressed bytes are
+ * transferred from the {@link BundleSource} and a fresh local header is generated from its central directory
+ * record, so nothing is inflated or deflated again. Zip64 records are written when needed.
+ * <p>
+ * The space of an entry whose content is only known at the end can be reserved, see
+ * {@link #reserveEntry(String, int)}, to keep it before the entries written next.
+ */
+public class BundleZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD_TAG = 0x0001;
+    /**
+     * Extra field filling the unused space of a reserved entry, same tag as the alignment padding of zipalign.
+     */
+    private static final int PADDING_EXTRA_FIELD_TAG = 0xD935;
+    private static final int MAX_PADDING_LENGTH = 0xFFFF;
+
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    /**
+     * 1980-01-01 00:00:00 in MS-DOS format, used for every generated entry so the output is reproducible.
+     */
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+
+    private final FileChannel channel;
+    private final List<Record> records = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final Map<String, Record> reservedRecords = new HashMap<>();
+    private final Deflater deflater = newDeflater();
+    private long position;
+
+    public BundleZipWriter(Path output) throws IOException {
+        this.channel = FileChannel.open(output, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Copies the entry of the input bundle under the given name, without decompressing it.
+     */
+    public void addRawEntry(String name, BundleSource source, BundleSource.Entry entry) throws IOException {
+        Record record = newRecord(name, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        record.time = entry.getTime();
+        record.date = entry.getDate();
+        writeLocalHeader(record);
+        source.transferTo(entry, channel);
+        position += entry.getCompressedSize();
+    }
+
+    /**
+     * Writes the content, compressed if {@code compress} is true.
+     */
+    public void addEntry(String name, InputStream content, boolean compress) throws IOException {
+        addEntry(name, compress(content, compress ? deflater : null));
+    }
+
+    public void addEntry(String name, byte[] content, boolean compress) throws IOException {
+        addEntry(name, new ByteArrayInputStream(content), compress);
+    }
+
+    /**
+     * Writes content compressed by {@link #compress(InputStream, Deflater)}.
+     */
+    public void addEntry(String name, CompressedData data) throws IOException {
+        addCompressedEntry(name, data.method, data.crc, data.size, data.data);
+    }
+
+    /**
+     * Writes an entry whose data has already been compressed with {@code method}.
+     */
+    public void addCompressedEntry(String name, int method, long crc, long size, byte[] data) throws IOException {
+        Record record = newRecord(name, method, crc, data.length, size);
+        writeLocalHeader(record);
+        write(ByteBuffer.wrap(data));
+    }
+
+    public void addDirectory(String name) throws IOException {
+        if (!name.endsWith("/")) {
+            name = name + "/";
+        }
+        writeLocalHeader(newRecord(name, BundleSource.METHOD_STORED, 0, 0, 0));
+    }
+
+    /**
+     * Reserves the space of a stored entry of at most {@code maxSize} bytes at the current position, its content is
+     * written later by {@link #fillReservedEntry(String, byte[])}.
+     */
+    public void reserveEntry(String name, int maxSize) throws IOException {
+        Record record = newRecord(name, BundleSource.METHOD_STORED, 0, 0, 0);
+        // the header always holds a padding extra field, a smaller one could not be filled.
+        record.reservedLength = 30 + record.name.length + 4 + maxSize;
+        reservedRecords.put(name, record);
+        write(allocate(record.reservedLength));
+    }
+
+    /**
+     * Writes the content of the reserved entry, the unused space is kept in the extra field of its local header.
+     */
+    public void fillReservedEntry(String name, byte[] content) throws IOException {
+        Record record = reservedRecords.get(name);
+        if (record == null) {
+            throw new ZipException("entry not reserved: " + name);
+        }
+        int paddingLength = record.reservedLength - 30 - record.name.length - content.length;
+        if (paddingLength < 4 || paddingLength > MAX_PADDING_LENGTH) {
+            throw new ZipException(String.format(
+                    "entry %s of %d bytes does not fit in its reserved space", name, content.length));
+        }
+        reservedRecords.remove(name);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        record.crc = crc.getValue();
+        record.compressedSize = content.length;
+        record.size = content.length;
+
+        ByteBuffer buffer = allocate(record.reservedLength);
+        putLocalHeader(buffer, record, false, paddingLength);
+        buffer.putShort((short) PADDING_EXTRA_FIELD_TAG);
+        buffer.putShort((short) (paddingLength - 4));
+        buffer.position(buffer.position() + paddingLength - 4);
+        buffer.put(content);
+        buffer.flip();
+        long offset = record.offset;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    /**
+     * Reads and compresses the content with the deflater, or stores it if the deflater is null.
+     * <p>
+     * This does not touch the writer, so entries can be compressed on other threads and written later.
+     */
+    public static CompressedData compress(InputStream content, Deflater deflater) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[8192];
+        int count;
+        if (deflater != null) {
+            deflater.reset();
+            try (DeflaterOutputStream dos = new DeflaterOutputStream(data, deflater, buffer.length)) {
+                while ((count = content.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    dos.write(buffer, 0, count);
+                    size += count;
+                }
+            }
+        } else {
+            while ((count = content.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+                data.write(buffer, 0, count);
+                size += count;
+            }
+        }
+        return new CompressedData(
+                deflater != null ? BundleSource.METHOD_DEFLATED : BundleSource.METHOD_STORED,
+                crc.getValue(), size, data.toByteArray());
+    }
+
+    /**
+     * Creates a deflater with the same settings as the one used by {@link #addEntry(String, InputStream, boolean)}.
+     */
+    public static Deflater newDeflater() {
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private Record newRecord(String name, int method, long crc, long compressedSize, long size) throws ZipException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+        Record record = new Record();
+        record.name = name.getBytes(StandardCharsets.UTF_8);
+        record.utf8 = record.name.length != name.length();
+        record.method = method;
+        record.crc = crc;
+        record.compressedSize = compressedSize;
+        record.size = size;
+        record.offset = position;
+        record.time = DOS_TIME;
+        record.date = DOS_DATE;
+        records.add(record);
+        return record;
+    }
+
+    private void writeLocalHeader(Record record) throws IOException {
+        boolean zip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+        ByteBuffer header = allocate(30 + record.name.length + (zip64 ? 20 : 0));
+        putLocalHeader(header, record, zip64, zip64 ? 20 : 0);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_FIELD_TAG);
+            header.putShort((short) 16);
+            header.putLong(record.size);
+            header.putLong(record.compressedSize);
+        }
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Puts the local header up to the name, the extra field of {@code extraLength} bytes is put by the caller.
+     */
+    private static void putLocalHeader(ByteBuffer header, Record record, boolean zip64, int extraLength) {
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) record.versionNeeded(zip64));
+        header.putShort((short) (record.utf8 ? FLAG_UTF8 : 0));
+        header.putShort((short) record.method);
+        header.putShort((short) record.time);
+        header.putShort((short) record.date);
+        header.putInt((int) record.crc);
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : record.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : record.size));
+        header.putShort((short) record.name.length);
+        header.putShort((short) extraLength);
+        header.put(record.name);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long directoryOffset = position;
+        for (Record record : records) {
+            boolean sizeZip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+            boolean offsetZip64 = record.offset >= ZIP64_MAGIC;
+            int extraLength = (sizeZip64 ? 16 : 0) + (offsetZip64 ? 8 : 0);
+            if (extraLength > 0) {
+                extraLength += 4;
+            }
+            ByteBuffer header = allocate(46 + record.name.length + extraLength);
+            header.putInt(CENTRAL_HEADER_SIGNATURE);
+            header.putShort((short) (extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFLATED));
+            header.putShort((short) record.versionNeeded(extraLength > 0));
+            header.putShort((short) (record.utf8 ? FLAG_UTF8 : 0));
+            header.putShort((short) record.method);
+            header.putShort((short) record.time);
+            header.putShort((short) record.date);
+            header.putInt((int) record.crc);
+            header.putInt((int) (sizeZip64 ? ZIP64_MAGIC : record.compressedSize));
+            header.putInt((int) (sizeZip64 ? ZIP64_MAGIC : record.size));
+            header.putShort((short) record.name.length);
+            header.putShort((short) extraLength);
+            header.putShort((short) 0); // comment length
+            header.putShort((short) 0); // disk number
+            header.putShort((short) 0); // internal attributes
+            header.putInt(0); // external attributes
+            header.putInt((int) (offsetZip64 ? ZIP64_MAGIC : record.offset));
+            header.put(record.name);
+            if (extraLength > 0) {
+                header.putShort((short) ZIP64_EXTRA_FIELD_TAG);
+                header.putShort((short) (extraLength - 4));
+                if (sizeZip64) {
+                    header.putLong(record.size);
+                    header.putLong(record.compressedSize);
+                }
+                if (offsetZip64) {
+                    header.putLong(record.offset);
+                }
+            }
+            header.flip();
+            write(header);
+        }
+        long directorySize = position - directoryOffset;
+        long count = records.size();
+
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT || directorySize >= ZIP64_MAGIC || directoryOffset >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64Offset = position;
+            ByteBuffer end = allocate(56 + 20);
+            end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            end.putLong(44); // size of the remaining record
+            end.putShort((short) VERSION_ZIP64);
+            end.putShort((short) VERSION_ZIP64);
+            end.putInt(0); // number of this disk
+            end.putInt(0); // disk of the central directory
+            end.putLong(count);
+            end.putLong(count);
+            end.putLong(directorySize);
+            end.putLong(directoryOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE);
+            end.putInt(0);
+            end.putLong(zip64Offset);
+            end.putInt(1); // total number of disks
+            end.flip();
+            write(end);
+        }
+        ByteBuffer end = allocate(22);
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : count));
+        end.putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : count));
+        end.putInt((int) (zip64 ? ZIP64_MAGIC : directorySize));
+        end.putInt((int) (zip64 ? ZIP64_MAGIC : directoryOffset));
+        end.putShort((short) 0); // comment length
+        end.flip();
+        write(end);
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the central directory and closes the output file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!reservedRecords.isEmpty()) {
+                throw new ZipException("reserved entries not filled: " + reservedRecords.keySet());
+            }
+            writeCentralDirectory();
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    /**
+     * Content of an entry ready to be written.
+     */
+    public static final class CompressedData {
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final byte[] data;
+
+        private CompressedData(int method, long crc, long size, byte[] data) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+
+        /**
+         * Returns the size of the uncompressed content.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return data.length;
+        }
+    }
+
+    private static class Record {
+        private byte[] name;
+        private boolean utf8;
+        private int method;
+        private int time;
+        private int date;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long offset;
+        private int reservedLength;
+
+        private int versionNeeded(boolean zip64) {
+            if (zip64) {
+                return VERSION_ZIP64;
+            }
+            return method == BundleSource.METHOD_STORED ? VERSION_STORED : VERSION_DEFLATED;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Module entry whose content is kept in a file instead of the heap, the file is only read when the entry is packaged.
+ */
+public class FileModuleEntry implements ModuleEntry {
+
+    private final ZipPath path;
+    private final File file;
+    private final boolean shouldCompress;
+
+    public FileModuleEntry(ZipPath path, File file) {
+        this(path, file, true);
+    }
+
+    private FileModuleEntry(ZipPath path, File file, boolean shouldCompress) {
+        this.path = path;
+        this.file = file;
+        this.shouldCompress = shouldCompress;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public InputStream getContent() {
+        try {
+            return new BufferedInputStream(new FileInputStream(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public ZipPath getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public boolean shouldCompress() {
+        return shouldCompress;
+    }
+
+    @Override
+    public ModuleEntry setCompression(boolean shouldCompress) {
+        return new FileModuleEntry(path, file, shouldCompress);
+    }
+}
@@ -0,0 +1,164 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.InMemoryModuleEntry;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.bytedance.android.aabresguard.utils.FileOperation;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the module entries holding the content rewritten by the executors, under a memory budget.
+ * <p>
+ * The rewritten entries live until the bundle is packaged, so keeping all of them on the heap makes the memory
+ * grow with the bundle. The content larger than {@link #setSpillThreshold(long)}, and any content once the
+ * entries kept in memory reach {@link #setMaxMemoryBytes(long)}, is written to a temporary directory instead and
+ * only read back by the packager. The directory is deleted when the store is closed, so the store must outlive the
+ * packaging.
+ */
+public class ModuleEntryStore implements Closeable {
+
+    private static final long DEFAULT_MAX_MEMORY_BYTES = 256 * 1024 * 1024;
+    private static final long DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    private long maxMemoryBytes = DEFAULT_MAX_MEMORY_BYTES;
+    private long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicInteger spilledCount = new AtomicInteger();
+    private File spillDir;
+
+    /**
+     * Returns a store which keeps every entry in memory.
+     */
+    public static ModuleEntryStore inMemory() {
+        ModuleEntryStore store = new ModuleEntryStore();
+        store.setMaxMemoryBytes(Long.MAX_VALUE);
+        store.setSpillThreshold(Long.MAX_VALUE);
+        return store;
+    }
+
+    /**
+     * Sets the max size of the content kept in memory by all the entries of the store.
+     */
+    public void setMaxMemoryBytes(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Sets the size from which the content of an entry is always written to disk.
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    public ModuleEntry create(String path, byte[] content) throws IOException {
+        if (content.length < spillThreshold && reserveMemory(content.length)) {
+            return InMemoryModuleEntry.ofFile(path, content);
+        }
+        File file = newSpillFile();
+        Files.write(file.toPath(), content);
+        return new FileModuleEntry(ZipPath.create(path), file);
+    }
+
+    /**
+     * Creates an entry whose content of {@code size} bytes is written by {@code writer}, straight to the spilled file
+     * when it does not fit in memory, so the content is never held on the heap in that case.
+     */
+    public ModuleEntry create(String path, long size, ContentWriter writer) throws IOException {
+        if (size < spillThreshold && size <= Integer.MAX_VALUE && reserveMemory(size)) {
+            byte[] content = new byte[(int) size];
+            FixedSizeOutputStream os = new FixedSizeOutputStream(content);
+            writer.write(os);
+            if (os.count != content.length) {
+                throw new IOException(String.format("entry %s is %d bytes, %d bytes expected", path, os.count, size));
+            }
+            return InMemoryModuleEntry.ofFile(path, content);
+        }
+        File file = newSpillFile();
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            writer.write(os);
+        }
+        return new FileModuleEntry(ZipPath.create(path), file);
+    }
+
+    public int getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    private boolean reserveMemory(long size) {
+        while (true) {
+            long current = memoryBytes.get();
+            if (current + size > maxMemoryBytes) {
+                return false;
+            }
+            if (memoryBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    private File newSpillFile() throws IOException {
+        return new File(getSpillDir(), spilledCount.incrementAndGet() + ".entry");
+    }
+
+    private synchronized File getSpillDir() throws IOException {
+        if (spillDir == null) {
+            spillDir = Files.createTempDirectory("aabresguard-entries").toFile();
+        }
+        return spillDir;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (spillDir != null) {
+            FileOperation.deleteDir(spillDir);
+            spillDir = null;
+        }
+    }
+
+    /**
+     * Writes the content of an entry.
+     */
+    public interface ContentWriter {
+        void write(OutputStream os) throws IOException;
+    }
+
+    /**
+     * Writes into an array of the expected size, so the content is not copied again once written.
+     */
+    private static class FixedSizeOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private int count;
+
+        private FixedSizeOutputStream(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.length - count) {
+                throw new IOException("content larger than " + buffer.length + " bytes");
+            }
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+    }
+}
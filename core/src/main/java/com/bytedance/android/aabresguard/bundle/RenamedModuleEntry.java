@@ -0,0 +1,61 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+
+import java.io.InputStream;
+
+/**
+ * Module entry which is moved to another path without changing its content.
+ * <p>
+ * The content is read from the raw entry, and the packager copies the input bundle entry at {@link #getSourcePath()}
+ * without decompressing it.
+ */
+public class RenamedModuleEntry implements ModuleEntry {
+
+    private final ZipPath path;
+    private final ModuleEntry rawEntry;
+    private final String sourcePath;
+
+    /**
+     * @param sourcePath the path of the raw entry in the input bundle, {@code module/path}.
+     */
+    public RenamedModuleEntry(ZipPath path, ModuleEntry rawEntry, String sourcePath) {
+        this.path = path;
+        this.rawEntry = rawEntry;
+        this.sourcePath = sourcePath;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public ModuleEntry getRawEntry() {
+        return rawEntry;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return rawEntry.getContent();
+    }
+
+    @Override
+    public ZipPath getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return rawEntry.isDirectory();
+    }
+
+    @Override
+    public boolean shouldCompress() {
+        return rawEntry.shouldCompress();
+    }
+
+    @Override
+    public ModuleEntry setCompression(boolean shouldCompress) {
+        return new RenamedModuleEntry(path, rawEntry.setCompression(shouldCompress), sourcePath);
+    }
+}
@@ -0,0 +1,153 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.aapt.Resources;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies targeted mutations to a {@link Resources.ResourceTable}.
+ * <p>
+ * The table is not rebuilt entry by entry: the entries are read from the immutable table, and only the entries which
+ * are changed are set into a single {@link Resources.ResourceTable.Builder}. The packages and types without any changed
+ * entry keep their original messages, and so do every other field of the table.
+ */
+public class ResourceTableEditor {
+
+    private final Resources.ResourceTable resourceTable;
+    private final Resources.ResourceTable.Builder tableBuilder;
+    private int updatedEntryCount = 0;
+
+    public ResourceTableEditor(Resources.ResourceTable resourceTable) {
+        this.resourceTable = resourceTable;
+        this.tableBuilder = resourceTable.toBuilder();
+    }
+
+    /**
+     * Visits every entry of the table in order and keeps the entry returned by the updater.
+     */
+    public ResourceTableEditor updateEntries(EntryUpdater updater) {
+        for (int i = 0; i < resourceTable.getPackageCount(); i++) {
+            Resources.Package resPackage = resourceTable.getPackage(i);
+            for (int j = 0; j < resPackage.getTypeCount(); j++) {
+                Resources.Type resType = resPackage.getType(j);
+                Resources.Type.Builder typeBuilder = null;
+                for (int k = 0; k < resType.getEntryCount(); k++) {
+                    Resources.Entry resEntry = resType.getEntry(k);
+                    Resources.Entry updatedEntry = updater.update(ResourceTableEntry.create(resPackage, resType, resEntry));
+                    if (updatedEntry == resEntry) {
+                        continue;
+                    }
+                    // the builders of the package and the type are only created when one of their entries changes.
+                    if (typeBuilder == null) {
+                        typeBuilder = tableBuilder.getPackageBuilder(i).getTypeBuilder(j);
+                    }
+                    typeBuilder.setEntry(k, updatedEntry);
+                    updatedEntryCount++;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Replaces the file paths of the config values, the mapper returns null to keep a path.
+     */
+    public ResourceTableEditor replaceFilePaths(FilePathMapper mapper) {
+        return updateEntries(entry -> updateConfigValues(entry.getEntry(), configValue -> {
+            if (!configValue.getValue().getItem().hasFile()) {
+                return configValue;
+            }
+            String path = configValue.getValue().getItem().getFile().getPath();
+            String newPath = mapper.map(entry, path);
+            if (newPath == null || newPath.equals(path)) {
+                return configValue;
+            }
+            return ResourcesTableOperation.replaceEntryPath(configValue, newPath);
+        }));
+    }
+
+    /**
+     * Removes the config values accepted by the filter.
+     */
+    public ResourceTableEditor removeConfigValues(ConfigValueFilter filter) {
+        return updateEntries(entry -> updateConfigValues(entry.getEntry(),
+                configValue -> filter.shouldRemove(entry, configValue) ? null : configValue));
+    }
+
+    /**
+     * Renames the entries, the renamer returns null to keep a name.
+     */
+    public ResourceTableEditor renameEntries(EntryRenamer renamer) {
+        return updateEntries(entry -> {
+            String name = renamer.rename(entry);
+            if (name == null || name.equals(entry.getEntry().getName())) {
+                return entry.getEntry();
+            }
+            return ResourcesTableOperation.updateEntryName(entry.getEntry(), name);
+        });
+    }
+
+    /**
+     * Returns the number of entries changed so far.
+     */
+    public int getUpdatedEntryCount() {
+        return updatedEntryCount;
+    }
+
+    public Resources.ResourceTable build() {
+        if (updatedEntryCount == 0) {
+            return resourceTable;
+        }
+        return tableBuilder.build();
+    }
+
+    /**
+     * Applies the updater to every config value of the entry, the updater returns null to remove a config value.
+     * The entry itself is returned when no config value is changed, so it is not copied.
+     */
+    public static Resources.Entry updateConfigValues(Resources.Entry entry, ConfigValueUpdater updater) {
+        List<Resources.ConfigValue> configValues = null;
+        for (int i = 0; i < entry.getConfigValueCount(); i++) {
+            Resources.ConfigValue configValue = entry.getConfigValue(i);
+            Resources.ConfigValue updatedConfigValue = updater.update(configValue);
+            if (configValues == null && updatedConfigValue != configValue) {
+                configValues = new ArrayList<>(entry.getConfigValueList().subList(0, i));
+            }
+            if (configValues != null && updatedConfigValue != null) {
+                configValues.add(updatedConfigValue);
+            }
+        }
+        if (configValues == null) {
+            return entry;
+        }
+        return ResourcesTableOperation.updateEntryConfigValueList(entry, configValues);
+    }
+
+    public interface EntryUpdater {
+        /**
+         * Returns the updated entry, or {@code entry.getEntry()} itself if it is not changed.
+         */
+        Resources.Entry update(ResourceTableEntry entry);
+    }
+
+    public interface ConfigValueUpdater {
+        /**
+         * Returns the updated config value, the config value itself if it is not changed, or null to remove it.
+         */
+        Resources.ConfigValue update(Resources.ConfigValue configValue);
+    }
+
+    public interface FilePathMapper {
+        String map(ResourceTableEntry entry, String path);
+    }
+
+    public interface ConfigValueFilter {
+        boolean shouldRemove(ResourceTableEntry entry, Resources.ConfigValue configValue);
+    }
+
+    public interface EntryRenamer {
+        String rename(ResourceTableEntry entry);
+    }
+}
@@ -24,6 +24,18 @@ public class ResourcesTableOperation {
         return entryBuilder.build();
     }
 
+    public static Resources.ConfigValue replaceEntryWithReference(Resources.ConfigValue configValue, int resourceId) {
+        Resources.ConfigValue.Builder entryBuilder = configValue.toBuilder();
+        entryBuilder.setValue(
+                configValue.getValue().toBuilder().setItem(
+                        Resources.Item.newBuilder().setRef(
+                                Resources.Reference.newBuilder().setId(resourceId).build()
+                        ).build()
+                ).build()
+        );
+        return entryBuilder.build();
+    }
+
     public static Resources.Entry updateEntryConfigValueList(Resources.Entry entry, List<Resources.ConfigValue> configValueList) {
         Resources.Entry.Builder entryBuilder = entry.toBuilder();
         entryBuilder.clearConfigValue();
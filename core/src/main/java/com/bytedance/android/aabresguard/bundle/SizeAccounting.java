@@ -0,0 +1,54 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+
+/**
+ * Accounts the entries of the input bundle removed by an executor.
+ * <p>
+ * Both the uncompressed and the compressed sizes are read from the central directory index of the bundle, so no
+ * entry is opened. The compressed size is what the entry really costs in the bundle and in the apks.
+ */
+public class SizeAccounting {
+
+    private final BundleSource bundleSource;
+
+    private int count = 0;
+    private long size = 0;
+    private long compressedSize = 0;
+
+    public SizeAccounting(BundleSource bundleSource) {
+        this.bundleSource = bundleSource;
+    }
+
+    /**
+     * Accounts the removed entry and returns its uncompressed size, 0 if it is not in the input bundle.
+     */
+    public synchronized long remove(ZipPath zipPath) {
+        count++;
+        BundleSource.Entry sourceEntry = bundleSource.getEntry(zipPath);
+        if (sourceEntry == null) {
+            return 0;
+        }
+        size += sourceEntry.getSize();
+        compressedSize += sourceEntry.getCompressedSize();
+        return sourceEntry.getSize();
+    }
+
+    public long remove(ModuleEntry entry, BundleModule bundleModule) {
+        return remove(ZipPath.create(BundleSource.getEntryPath(entry, bundleModule)));
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getCompressedSize() {
+        return compressedSize;
+    }
+}
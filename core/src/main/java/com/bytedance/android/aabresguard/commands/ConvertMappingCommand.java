@@ -0,0 +1,92 @@
+package com.bytedance.android.aabresguard.commands;
+
+import com.android.tools.build.bundletool.flags.Flag;
+import com.android.tools.build.bundletool.flags.ParsedFlags;
+import com.bytedance.android.aabresguard.model.BinaryResourcesMapping;
+import com.bytedance.android.aabresguard.model.ResourcesMapping;
+import com.bytedance.android.aabresguard.parser.ResourcesMappingParser;
+import com.bytedance.android.aabresguard.utils.TimeClock;
+import com.google.auto.value.AutoValue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
+
+/**
+ * Command converting a resources mapping file between the text and the binary formats.
+ */
+@AutoValue
+public abstract class ConvertMappingCommand {
+    public static final String COMMAND_NAME = "convert-mapping";
+
+    private static final Flag<Path> MAPPING_FLAG = Flag.path("mapping");
+    private static final Flag<Path> OUTPUT_FLAG = Flag.path("output");
+
+    public static CommandHelp help() {
+        return CommandHelp.builder()
+                .setCommandName(COMMAND_NAME)
+                .setCommandDescription(
+                        CommandHelp.CommandDescription.builder()
+                                .setShortDescription("Converts a resources mapping file between the text and the binary formats.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(MAPPING_FLAG.getName())
+                                .setExampleValue("resources-mapping.txt")
+                                .setDescription("Path of the mapping file to convert, its format is read from the file header.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(OUTPUT_FLAG.getName())
+                                .setExampleValue("resources-mapping" + BinaryResourcesMapping.FILE_EXTENSION)
+                                .setDescription("Path to where the converted mapping file should be created, it is " +
+                                        "written in the binary format if it ends with '" +
+                                        BinaryResourcesMapping.FILE_EXTENSION + "', in the text format otherwise.")
+                                .build())
+                .build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_ConvertMappingCommand.Builder();
+    }
+
+    public static ConvertMappingCommand fromFlags(ParsedFlags flags) {
+        return builder()
+                .setMappingPath(MAPPING_FLAG.getRequiredValue(flags))
+                .setOutputPath(OUTPUT_FLAG.getRequiredValue(flags))
+                .build();
+    }
+
+    public Path execute() throws IOException {
+        TimeClock timeClock = new TimeClock();
+        ResourcesMapping mapping = new ResourcesMappingParser(getMappingPath()).parse();
+        mapping.writeMappingToFile(getOutputPath());
+        System.out.println(String.format(
+                "convert mapping done, coast %s",
+                timeClock.getCoast()
+        ));
+        return getOutputPath();
+    }
+
+    public abstract Path getMappingPath();
+
+    public abstract Path getOutputPath();
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+        public abstract Builder setMappingPath(Path mappingPath);
+
+        public abstract Builder setOutputPath(Path outputPath);
+
+        abstract ConvertMappingCommand autoBuild();
+
+        public ConvertMappingCommand build() {
+            ConvertMappingCommand command = autoBuild();
+            checkFileExistsAndReadable(command.getMappingPath());
+            checkFileDoesNotExist(command.getOutputPath());
+            return command;
+        }
+    }
+}
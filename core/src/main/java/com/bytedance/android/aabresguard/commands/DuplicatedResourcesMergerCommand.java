@@ -4,10 +4,11 @@ import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.bytedance.android.aabresguard.android.InProcessJarSigner;
 import com.bytedance.android.aabresguard.android.JarSigner;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
 import com.bytedance.android.aabresguard.bundle.AppBundlePackager;
-import com.bytedance.android.aabresguard.bundle.AppBundleSigner;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 import com.bytedance.android.aabresguard.executors.DuplicatedResourcesMerger;
 import com.bytedance.android.aabresguard.utils.FileOperation;
 import com.bytedance.android.aabresguard.utils.TimeClock;
@@ -120,22 +121,18 @@ public abstract class DuplicatedResourcesMergerCommand {
     public Path execute() throws IOException, InterruptedException {
         TimeClock timeClock = new TimeClock();
 
-        AppBundle appBundle = new AppBundleAnalyzer(getBundlePath()).analyze();
-        // merge duplicated resources file
-        DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(getBundlePath(), appBundle, getOutputPath().getParent());
-        appBundle = merger.merge();
-        // package bundle
-        AppBundlePackager packager = new AppBundlePackager(appBundle, getOutputPath());
-        packager.execute();
-        // sign bundle
-        if (!getDisableSign().isPresent() || !getDisableSign().get()) {
-            AppBundleSigner signer = new AppBundleSigner(getOutputPath());
-            getStoreFile().ifPresent(storeFile -> {
-                signer.setBundleSignature(new JarSigner.Signature(
-                        storeFile, getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
-                ));
-            });
-            signer.execute();
+        try (BundleSource bundleSource = BundleSource.open(getBundlePath())) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            // merge duplicated resources file
+            DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(bundleSource, appBundle, getOutputPath().getParent());
+            appBundle = merger.merge();
+            // package bundle, it is signed while it is written
+            AppBundlePackager packager = new AppBundlePackager(bundleSource, appBundle, getOutputPath());
+            JarSigner.Signature signature = getSignature();
+            if (signature != null) {
+                packager.setJarSigner(new InProcessJarSigner(signature));
+            }
+            packager.execute();
         }
 
         long rawSize = FileOperation.getFileSizes(getBundlePath().toFile());
@@ -157,6 +154,21 @@ public abstract class DuplicatedResourcesMergerCommand {
 
     public abstract Path getOutputPath();
 
+    /**
+     * Returns the signature of the output bundle, the debug one if no keystore is set, or null if it is not signed.
+     */
+    private JarSigner.Signature getSignature() {
+        if (getDisableSign().isPresent() && getDisableSign().get()) {
+            return null;
+        }
+        if (getStoreFile().isPresent()) {
+            return new JarSigner.Signature(
+                    getStoreFile().get(), getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
+            );
+        }
+        return JarSigner.Signature.DEBUG_SIGNATURE;
+    }
+
     public abstract Optional<Path> getStoreFile();
 
     public abstract Optional<String> getStorePassword();
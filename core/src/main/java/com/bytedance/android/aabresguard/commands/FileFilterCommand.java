@@ -4,10 +4,11 @@ import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.bytedance.android.aabresguard.android.InProcessJarSigner;
 import com.bytedance.android.aabresguard.android.JarSigner;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
 import com.bytedance.android.aabresguard.bundle.AppBundlePackager;
-import com.bytedance.android.aabresguard.bundle.AppBundleSigner;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 import com.bytedance.android.aabresguard.executors.BundleFileFilter;
 import com.bytedance.android.aabresguard.model.xml.FileFilterConfig;
 import com.bytedance.android.aabresguard.parser.FileFilterXmlParser;
@@ -148,22 +149,18 @@ public abstract class FileFilterCommand {
     public Path execute() throws IOException, DocumentException, InterruptedException {
         TimeClock timeClock = new TimeClock();
 
-        AppBundle appBundle = new AppBundleAnalyzer(getBundlePath()).analyze();
-        // filter bundle files
-        BundleFileFilter filter = new BundleFileFilter(getBundlePath(), appBundle, getFileFilterRules());
-        AppBundle filteredAppBundle = filter.filter();
-        // package bundle
-        AppBundlePackager packager = new AppBundlePackager(filteredAppBundle, getOutputPath());
-        packager.execute();
-        // sign bundle
-        if (!getDisableSign().isPresent() || !getDisableSign().get()) {
-            AppBundleSigner signer = new AppBundleSigner(getOutputPath());
-            getStoreFile().ifPresent(storeFile -> {
-                signer.setBundleSignature(new JarSigner.Signature(
-                        storeFile, getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
-                ));
-            });
-            signer.execute();
+        try (BundleSource bundleSource = BundleSource.open(getBundlePath())) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            // filter bundle files
+            BundleFileFilter filter = new BundleFileFilter(bundleSource, appBundle, getFileFilterRules());
+            AppBundle filteredAppBundle = filter.filter();
+            // package bundle, it is signed while it is written
+            AppBundlePackager packager = new AppBundlePackager(bundleSource, filteredAppBundle, getOutputPath());
+            JarSigner.Signature signature = getSignature();
+            if (signature != null) {
+                packager.setJarSigner(new InProcessJarSigner(signature));
+            }
+            packager.execute();
         }
 
         long rawSize = FileOperation.getFileSizes(getBundlePath().toFile());
@@ -189,6 +186,21 @@ public abstract class FileFilterCommand {
 
     public abstract Optional<Boolean> getDisableSign();
 
+    /**
+     * Returns the signature of the output bundle, the debug one if no keystore is set, or null if it is not signed.
+     */
+    private JarSigner.Signature getSignature() {
+        if (getDisableSign().isPresent() && getDisableSign().get()) {
+            return null;
+        }
+        if (getStoreFile().isPresent()) {
+            return new JarSigner.Signature(
+                    getStoreFile().get(), getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
+            );
+        }
+        return JarSigner.Signature.DEBUG_SIGNATURE;
+    }
+
     public abstract Optional<Path> getStoreFile();
 
     public abstract Optional<String> getStorePassword();
@@ -8,15 +8,20 @@ import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.bytedance.android.aabresguard.android.InProcessJarSigner;
 import com.bytedance.android.aabresguard.android.JarSigner;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
 import com.bytedance.android.aabresguard.bundle.AppBundlePackager;
-import com.bytedance.android.aabresguard.bundle.AppBundleSigner;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
+import com.bytedance.android.aabresguard.bundle.ModuleEntryStore;
 import com.bytedance.android.aabresguard.executors.BundleFileFilter;
+import com.bytedance.android.aabresguard.executors.BundlePipeline;
 import com.bytedance.android.aabresguard.executors.BundleStringFilter;
 import com.bytedance.android.aabresguard.executors.DuplicatedResourcesMerger;
 import com.bytedance.android.aabresguard.executors.ResourcesObfuscator;
+import com.bytedance.android.aabresguard.model.BinaryResourcesMapping;
 import com.bytedance.android.aabresguard.model.xml.AabResGuardConfig;
+import com.bytedance.android.aabresguard.obfuscation.ObfuscationCache;
 import com.bytedance.android.aabresguard.parser.AabResGuardXmlParser;
 import com.bytedance.android.aabresguard.utils.FileOperation;
 import com.bytedance.android.aabresguard.utils.TimeClock;
@@ -49,6 +54,12 @@ public abstract class ObfuscateBundleCommand {
     private static final Flag<Path> MAPPING_FLAG = Flag.path("mapping");
 
     private static final Flag<Boolean> MERGE_DUPLICATED_RES_FLAG = Flag.booleanFlag("merge-duplicated-res");
+    private static final Flag<Boolean> MERGE_DUPLICATED_RES_CROSS_MODULE_FLAG = Flag.booleanFlag("merge-duplicated-res-cross-module");
+    private static final Flag<Integer> MAX_THREADS_FLAG = Flag.positiveInteger("max-threads");
+    private static final Flag<Boolean> FUSED_PIPELINE_FLAG = Flag.booleanFlag("fused-pipeline");
+    private static final Flag<Integer> OBFUSCATION_SEED_FLAG = Flag.positiveInteger("obfuscation-seed");
+    private static final Flag<Path> OBFUSCATION_CACHE_DIR_FLAG = Flag.path("obfuscation-cache-dir");
+    private static final Flag<Integer> OBFUSCATION_CACHE_MAX_SIZE_FLAG = Flag.positiveInteger("obfuscation-cache-max-size");
 
     private static final Flag<Boolean> DISABLE_SIGN_FLAG = Flag.booleanFlag("disable-sign");
     private static final Flag<Path> STORE_FILE_FLAG = Flag.path("storeFile");
@@ -88,7 +99,8 @@ public abstract class ObfuscateBundleCommand {
                                 .setFlagName(MAPPING_FLAG.getName())
                                 .setExampleValue("resources-mapping.txt")
                                 .setOptional(true)
-                                .setDescription("The mapping file path for resource increment obfuscation.")
+                                .setDescription("The mapping file path for resource increment obfuscation, in the " +
+                                        "text or the binary format.")
                                 .build())
                 .addFlag(
                         CommandHelp.FlagDescription.builder()
@@ -97,6 +109,56 @@ public abstract class ObfuscateBundleCommand {
                                 .setOptional(true)
                                 .setDescription("If set, the duplicate resource files will be removed.")
                                 .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(MERGE_DUPLICATED_RES_CROSS_MODULE_FLAG.getName())
+                                .setExampleValue("merge-duplicated-res-cross-module=true")
+                                .setOptional(true)
+                                .setDescription("If set, the resources of the feature modules duplicated in the base " +
+                                        "module are replaced by references to the base resources, only used when " +
+                                        MERGE_DUPLICATED_RES_FLAG.getName() + " is set.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(MAX_THREADS_FLAG.getName())
+                                .setExampleValue("8")
+                                .setOptional(true)
+                                .setDescription("Max number of threads used to process the bundle, default is 1.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(FUSED_PIPELINE_FLAG.getName())
+                                .setExampleValue("fused-pipeline=true")
+                                .setOptional(true)
+                                .setDescription("If set, every module goes through all the enabled steps in a single " +
+                                        "pass instead of one pass per step.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(OBFUSCATION_SEED_FLAG.getName())
+                                .setExampleValue("1234")
+                                .setOptional(true)
+                                .setDescription("If set, the pixels, xml namespaces and so sections inserted into the obfuscated " +
+                                        "resources are derived from this seed and the file paths, so that the same " +
+                                        "bundle is always obfuscated the same way.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(OBFUSCATION_CACHE_DIR_FLAG.getName())
+                                .setExampleValue("build/aabresguard-cache")
+                                .setOptional(true)
+                                .setDescription("If set, the obfuscated content of the resources is cached in this " +
+                                        "directory, so the resources unchanged since a previous build are not " +
+                                        "obfuscated again.")
+                                .build())
+                .addFlag(
+                        CommandHelp.FlagDescription.builder()
+                                .setFlagName(OBFUSCATION_CACHE_MAX_SIZE_FLAG.getName())
+                                .setExampleValue("512")
+                                .setOptional(true)
+                                .setDescription("Max size in MB of the obfuscation cache, the least recently used " +
+                                        "entries are removed after the build, default is 512.")
+                                .build())
                 .addFlag(
                         CommandHelp.FlagDescription.builder()
                                 .setFlagName(DISABLE_SIGN_FLAG.getName())
@@ -160,6 +222,12 @@ public abstract class ObfuscateBundleCommand {
         builder.setOutputPath(OUTPUT_FILE_FLAG.getRequiredValue(flags));
 
         MERGE_DUPLICATED_RES_FLAG.getValue(flags).ifPresent(builder::setMergeDuplicatedResources);
+        MERGE_DUPLICATED_RES_CROSS_MODULE_FLAG.getValue(flags).ifPresent(builder::setMergeDuplicatedResourcesCrossModule);
+        MAX_THREADS_FLAG.getValue(flags).ifPresent(builder::setMaxThreads);
+        FUSED_PIPELINE_FLAG.getValue(flags).ifPresent(builder::setFusedPipeline);
+        OBFUSCATION_SEED_FLAG.getValue(flags).ifPresent(builder::setObfuscationSeed);
+        OBFUSCATION_CACHE_DIR_FLAG.getValue(flags).ifPresent(builder::setObfuscationCacheDir);
+        OBFUSCATION_CACHE_MAX_SIZE_FLAG.getValue(flags).ifPresent(builder::setObfuscationCacheMaxSize);
 
         DISABLE_SIGN_FLAG.getValue(flags).ifPresent(builder::setDisableSign);
         STORE_FILE_FLAG.getValue(flags).ifPresent(builder::setStoreFile);
@@ -172,63 +240,91 @@ public abstract class ObfuscateBundleCommand {
     public Path execute() throws IOException, InterruptedException {
         TimeClock timeClock = new TimeClock();
 
-        AppBundle appBundle = new AppBundleAnalyzer(getBundlePath()).analyze();
-        // filter file
-        if (getFilterFile().isPresent() && getFilterFile().get()) {
-            Set<String> fileFilterRules = new HashSet<>();
-            if (getFileFilterRules().isPresent()) {
-                fileFilterRules = getFileFilterRules().get();
+        // the rewritten entries above the memory budget are spilled to disk until the bundle is packaged.
+        try (BundleSource bundleSource = BundleSource.open(getBundlePath());
+             ModuleEntryStore entryStore = new ModuleEntryStore();
+             ObfuscationCache obfuscationCache = openObfuscationCache()) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            // the executors become the stages of a single pass, which is executed after all of them are added.
+            BundlePipeline fusedPipeline = getFusedPipeline().isPresent() && getFusedPipeline().get()
+                    ? new BundlePipeline(appBundle) : null;
+            // filter file
+            if (getFilterFile().isPresent() && getFilterFile().get()) {
+                Set<String> fileFilterRules = new HashSet<>();
+                if (getFileFilterRules().isPresent()) {
+                    fileFilterRules = getFileFilterRules().get();
+                }
+                BundleFileFilter filter = new BundleFileFilter(bundleSource, appBundle, fileFilterRules);
+                if (fusedPipeline != null) {
+                    fusedPipeline.addStage(filter);
+                } else {
+                    appBundle = filter.filter();
+                }
             }
-            BundleFileFilter filter = new BundleFileFilter(getBundlePath(), appBundle, fileFilterRules);
-            appBundle = filter.filter();
-        }
 
-        // remove unused strings, need execute before obfuscate
-        if (getRemoveStr().isPresent() && getRemoveStr().get()) {
-            File unusedFile = new File("");
-            if (getUnusedStrPath().isPresent()) {
-                File file = new File(getUnusedStrPath().get());
-                if (file.exists()) {
-                    unusedFile = file;
+            // remove unused strings, need execute before obfuscate
+            if (getRemoveStr().isPresent() && getRemoveStr().get()) {
+                File unusedFile = new File("");
+                if (getUnusedStrPath().isPresent()) {
+                    File file = new File(getUnusedStrPath().get());
+                    if (file.exists()) {
+                        unusedFile = file;
+                    } else {
+                        System.out.println("unusedFile is not exists!");
+                    }
+                }
+                Set<String> languageWhiteList = new HashSet<>();
+                if (getLanguageWhiteList().isPresent()) {
+                    languageWhiteList = getLanguageWhiteList().get();
+                }
+                BundleStringFilter filter =
+                        new BundleStringFilter(bundleSource, appBundle, unusedFile.getPath(), languageWhiteList);
+                if (fusedPipeline != null) {
+                    fusedPipeline.addStage(filter);
                 } else {
-                    System.out.println("unusedFile is not exists!");
+                    appBundle = filter.filter();
                 }
             }
-            Set<String> languageWhiteList = new HashSet<>();
-            if (getLanguageWhiteList().isPresent()) {
-                languageWhiteList = getLanguageWhiteList().get();
-            }
-            BundleStringFilter filter =
-                    new BundleStringFilter(getBundlePath(), appBundle, unusedFile.getPath(), languageWhiteList);
-            appBundle = filter.filter();
-        }
 
-        // merge duplicated resources
-        if (getMergeDuplicatedResources().isPresent() && getMergeDuplicatedResources().get()) {
-            DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(getBundlePath(), appBundle, getOutputPath().getParent());
-            appBundle = merger.merge();
-        }
-        // obfuscate bundle
-        if (getEnableObfuscate()) {
-            Path mappingPath = null;
-            if (getMappingPath().isPresent()) {
-                mappingPath = getMappingPath().get();
+            // merge duplicated resources
+            if (getMergeDuplicatedResources().isPresent() && getMergeDuplicatedResources().get()) {
+                DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(bundleSource, appBundle, getOutputPath().getParent());
+                getMaxThreads().ifPresent(merger::setMaxThreads);
+                getMergeDuplicatedResourcesCrossModule().ifPresent(merger::setCrossModule);
+                if (fusedPipeline != null) {
+                    fusedPipeline.addStage(merger);
+                } else {
+                    appBundle = merger.merge();
+                }
             }
-            ResourcesObfuscator obfuscator = new ResourcesObfuscator(getBundlePath(), appBundle, getWhiteList(), getFilterContent(),getOutputPath().getParent(), mappingPath);
-            appBundle = obfuscator.obfuscate();
-        }
-        // package bundle
-        AppBundlePackager packager = new AppBundlePackager(appBundle, getOutputPath());
-        packager.execute();
-        // sign bundle
-        if (!getDisableSign().isPresent() || !getDisableSign().get()) {
-            AppBundleSigner signer = new AppBundleSigner(getOutputPath());
-            getStoreFile().ifPresent(storeFile -> {
-                signer.setBundleSignature(new JarSigner.Signature(
-                        storeFile, getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
-                ));
-            });
-            signer.execute();
+            // obfuscate bundle
+            if (getEnableObfuscate()) {
+                Path mappingPath = null;
+                if (getMappingPath().isPresent()) {
+                    mappingPath = getMappingPath().get();
+                }
+                ResourcesObfuscator obfuscator = new ResourcesObfuscator(bundleSource, appBundle, getWhiteList(), getFilterContent(),getOutputPath().getParent(), mappingPath);
+                getMaxThreads().ifPresent(obfuscator::setMaxThreads);
+                obfuscator.setEntryStore(entryStore);
+                getObfuscationSeed().ifPresent(obfuscator::setObfuscationSeed);
+                obfuscator.setObfuscationCache(obfuscationCache);
+                if (fusedPipeline != null) {
+                    fusedPipeline.addStage(obfuscator);
+                } else {
+                    appBundle = obfuscator.obfuscate();
+                }
+            }
+            if (fusedPipeline != null) {
+                appBundle = fusedPipeline.execute();
+            }
+            // package bundle, it is signed while it is written
+            AppBundlePackager packager = new AppBundlePackager(bundleSource, appBundle, getOutputPath());
+            getMaxThreads().ifPresent(packager::setMaxThreads);
+            JarSigner.Signature signature = getSignature();
+            if (signature != null) {
+                packager.setJarSigner(new InProcessJarSigner(signature));
+            }
+            packager.execute();
         }
 
         long rawSize = FileOperation.getFileSizes(getBundlePath().toFile());
@@ -254,6 +350,33 @@ public abstract class ObfuscateBundleCommand {
 
     public abstract Optional<Path> getMappingPath();
 
+    /**
+     * Returns the cache of the obfuscated content, or null if no cache directory is set.
+     */
+    private ObfuscationCache openObfuscationCache() throws IOException {
+        if (!getObfuscationCacheDir().isPresent()) {
+            return null;
+        }
+        ObfuscationCache cache = new ObfuscationCache(getObfuscationCacheDir().get());
+        getObfuscationCacheMaxSize().ifPresent(maxSize -> cache.setMaxSizeBytes(maxSize * 1024L * 1024L));
+        return cache;
+    }
+
+    /**
+     * Returns the signature of the output bundle, the debug one if no keystore is set, or null if it is not signed.
+     */
+    private JarSigner.Signature getSignature() {
+        if (getDisableSign().isPresent() && getDisableSign().get()) {
+            return null;
+        }
+        if (getStoreFile().isPresent()) {
+            return new JarSigner.Signature(
+                    getStoreFile().get(), getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
+            );
+        }
+        return JarSigner.Signature.DEBUG_SIGNATURE;
+    }
+
     public abstract Optional<Path> getStoreFile();
 
     public abstract Optional<String> getStorePassword();
@@ -264,6 +387,18 @@ public abstract class ObfuscateBundleCommand {
 
     public abstract Optional<Boolean> getMergeDuplicatedResources();
 
+    public abstract Optional<Boolean> getMergeDuplicatedResourcesCrossModule();
+
+    public abstract Optional<Integer> getMaxThreads();
+
+    public abstract Optional<Boolean> getFusedPipeline();
+
+    public abstract Optional<Integer> getObfuscationSeed();
+
+    public abstract Optional<Path> getObfuscationCacheDir();
+
+    public abstract Optional<Integer> getObfuscationCacheMaxSize();
+
     public abstract Optional<Boolean> getDisableSign();
 
     public abstract Set<String> getWhiteList();
@@ -307,6 +442,18 @@ public abstract class ObfuscateBundleCommand {
 
         public abstract Builder setMergeDuplicatedResources(Boolean mergeDuplicatedResources);
 
+        public abstract Builder setMergeDuplicatedResourcesCrossModule(Boolean mergeDuplicatedResourcesCrossModule);
+
+        public abstract Builder setMaxThreads(Integer maxThreads);
+
+        public abstract Builder setFusedPipeline(Boolean fusedPipeline);
+
+        public abstract Builder setObfuscationSeed(Integer obfuscationSeed);
+
+        public abstract Builder setObfuscationCacheDir(Path obfuscationCacheDir);
+
+        public abstract Builder setObfuscationCacheMaxSize(Integer obfuscationCacheMaxSize);
+
         public abstract Builder setDisableSign(Boolean disableSign);
 
         public abstract Builder setStoreFile(Path storeFile);
@@ -342,10 +489,10 @@ public abstract class ObfuscateBundleCommand {
             if (command.getMappingPath().isPresent()) {
                 File file = command.getMappingPath().get().toFile();
                 checkFileExistsAndReadable(file.toPath());
-                if (!file.getName().endsWith(".txt")) {
+                if (!file.getName().endsWith(".txt") && !BinaryResourcesMapping.isBinaryMappingPath(file.toPath())) {
                     throw CommandExecutionException.builder()
-                            .withMessage("Wrong properties: %s must end with '.txt'.",
-                                    MAPPING_FLAG)
+                            .withMessage("Wrong properties: %s must end with '.txt' or '%s'.",
+                                    MAPPING_FLAG, BinaryResourcesMapping.FILE_EXTENSION)
                             .build();
                 }
             }
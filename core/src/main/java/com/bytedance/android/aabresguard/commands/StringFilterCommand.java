@@ -4,10 +4,11 @@ import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.bytedance.android.aabresguard.android.InProcessJarSigner;
 import com.bytedance.android.aabresguard.android.JarSigner;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
 import com.bytedance.android.aabresguard.bundle.AppBundlePackager;
-import com.bytedance.android.aabresguard.bundle.AppBundleSigner;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 import com.bytedance.android.aabresguard.executors.BundleStringFilter;
 import com.bytedance.android.aabresguard.model.xml.StringFilterConfig;
 import com.bytedance.android.aabresguard.parser.StringFilterXmlParser;
@@ -116,31 +117,29 @@ public abstract class StringFilterCommand {
     public Path execute() throws IOException, DocumentException, InterruptedException {
         TimeClock timeClock = new TimeClock();
 
-        AppBundle appBundle = new AppBundleAnalyzer(getBundlePath()).analyze();
-        // parse config.xml
-        StringFilterXmlParser parser = new StringFilterXmlParser(getConfigPath());
-        StringFilterConfig config = parser.parse();
-        if (!config.isActive()) {
-            throw CommandExecutionException.builder()
-                    .withMessage("parser attribute filter#isactive can not be 'false' in %s command",
-                            COMMAND_NAME)
-                    .build();
+        try (BundleSource bundleSource = BundleSource.open(getBundlePath())) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            // parse config.xml
+            StringFilterXmlParser parser = new StringFilterXmlParser(getConfigPath());
+            StringFilterConfig config = parser.parse();
+            if (!config.isActive()) {
+                throw CommandExecutionException.builder()
+                        .withMessage("parser attribute filter#isactive can not be 'false' in %s command",
+                                COMMAND_NAME)
+                        .build();
+            }
+            // filter bundle strings
+            BundleStringFilter filter =
+                    new BundleStringFilter(bundleSource, appBundle, config.getPath(), config.getLanguageWhiteList());
+            AppBundle filteredAppBundle = filter.filter();
+            // package bundle, it is signed while it is written
+            AppBundlePackager packager = new AppBundlePackager(bundleSource, filteredAppBundle, getOutputPath());
+            JarSigner.Signature signature = getSignature();
+            if (signature != null) {
+                packager.setJarSigner(new InProcessJarSigner(signature));
+            }
+            packager.execute();
         }
-        // filter bundle strings
-        BundleStringFilter filter =
-                new BundleStringFilter(getBundlePath(), appBundle, config.getPath(), config.getLanguageWhiteList());
-        AppBundle filteredAppBundle = filter.filter();
-        // package bundle
-        AppBundlePackager packager = new AppBundlePackager(filteredAppBundle, getOutputPath());
-        packager.execute();
-        // sign bundle
-        AppBundleSigner signer = new AppBundleSigner(getOutputPath());
-        getStoreFile().ifPresent(storeFile -> {
-            signer.setBundleSignature(new JarSigner.Signature(
-                    storeFile, getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
-            ));
-        });
-        signer.execute();
 
         long rawSize = FileOperation.getFileSizes(getBundlePath().toFile());
         long filteredSize = FileOperation.getFileSizes(getOutputPath().toFile());
@@ -163,6 +162,18 @@ public abstract class StringFilterCommand {
 
     public abstract Path getConfigPath();
 
+    /**
+     * Returns the signature of the output bundle, the debug one if no keystore is set.
+     */
+    private JarSigner.Signature getSignature() {
+        if (getStoreFile().isPresent()) {
+            return new JarSigner.Signature(
+                    getStoreFile().get(), getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()
+            );
+        }
+        return JarSigner.Signature.DEBUG_SIGNATURE;
+    }
+
     public abstract Optional<Path> getStoreFile();
 
     public abstract Optional<String> getStorePassword();
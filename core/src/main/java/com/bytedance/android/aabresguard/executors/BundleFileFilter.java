@@ -4,41 +4,35 @@ import com.android.bundle.Files;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleMetadata;
 import com.android.tools.build.bundletool.model.BundleModule;
-import com.android.tools.build.bundletool.model.BundleModuleName;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ZipPath;
-import com.bytedance.android.aabresguard.bundle.AppBundleUtils;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 import com.bytedance.android.aabresguard.bundle.NativeLibrariesOperation;
+import com.bytedance.android.aabresguard.bundle.SizeAccounting;
+import com.bytedance.android.aabresguard.utils.RuleMatcher;
 import com.bytedance.android.aabresguard.utils.TimeClock;
-import com.bytedance.android.aabresguard.utils.Utils;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.rmi.UnexpectedException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipFile;
 
 import static com.android.tools.build.bundletool.model.AppBundle.METADATA_DIRECTORY;
-import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 import static com.bytedance.android.aabresguard.utils.FileOperation.getNetFileSizeDescription;
 
 /**
  * Created by YangJing on 2019/10/12 .
  * Email: yangjing.yeoh@bytedance.com
  */
-public class BundleFileFilter {
+public class BundleFileFilter implements BundlePipeline.Stage {
 
     private static final Logger logger = Logger.getLogger(BundleFileFilter.class.getName());
     private static final Set<String> FILE_SIGN = new HashSet<>(
@@ -48,48 +42,57 @@ public class BundleFileFilter {
                     "META-INF/*.MF"
             )
     );
-    private final ZipFile bundleZipFile;
     private final AppBundle rawAppBundle;
-    private final Set<String> filterRules;
+    private final RuleMatcher filterRuleMatcher;
+    private final SizeAccounting sizeAccounting;
+    private TimeClock timeClock;
 
-    private int filterTotalSize = 0;
-    private int filterTotalCount = 0;
-
-    public BundleFileFilter(Path bundlePath, AppBundle rawAppBundle, Set<String> filterRules) throws IOException {
-        checkFileExistsAndReadable(bundlePath);
-        this.bundleZipFile = new ZipFile(bundlePath.toFile());
+    public BundleFileFilter(BundleSource bundleSource, AppBundle rawAppBundle, Set<String> filterRules) {
+        this.sizeAccounting = new SizeAccounting(bundleSource);
         this.rawAppBundle = rawAppBundle;
         if (filterRules == null) {
             filterRules = new HashSet<>();
         }
-        this.filterRules = filterRules;
-
         filterRules.addAll(FILE_SIGN);
+        this.filterRuleMatcher = new RuleMatcher(filterRules);
     }
 
     public AppBundle filter() throws IOException {
-        TimeClock timeClock = new TimeClock();
+        return new BundlePipeline(rawAppBundle).addStage(this).execute();
+    }
 
-        // filter bundle module file
-        Map<BundleModuleName, BundleModule> bundleModules = new HashMap<>();
-        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
-            bundleModules.put(entry.getKey(), filterBundleModule(entry.getValue()));
-        }
-        AppBundle appBundle = rawAppBundle.toBuilder()
-                .setBundleMetadata(filterMetaData())
-                .setModules(ImmutableMap.copyOf(bundleModules))
-                .build();
+    @Override
+    public void begin() {
+        timeClock = new TimeClock();
+    }
+
+    @Override
+    public BundleModule transform(BundleModule bundleModule) throws IOException {
+        return filterBundleModule(bundleModule);
+    }
+
+    @Override
+    public void complete(AppBundle.Builder appBundleBuilder) {
+        appBundleBuilder.setBundleMetadata(filterMetaData());
         System.out.println(String.format(
                 "filter bundle files done, coast %s" +
                         "-----------------------------------------\n" +
                         "Reduce file count: %s\n" +
                         "Reduce file size: %s\n" +
+                        "Reduce compressed size: %s\n" +
                         "-----------------------------------------",
                 timeClock.getCoast(),
-                filterTotalCount,
-                getNetFileSizeDescription(filterTotalSize)
+                sizeAccounting.getCount(),
+                getNetFileSizeDescription(sizeAccounting.getSize()),
+                getNetFileSizeDescription(sizeAccounting.getCompressedSize())
         ));
-        return appBundle;
+    }
+
+    /**
+     * Returns the sizes of the files removed by {@link #filter()}.
+     */
+    public SizeAccounting getSizeAccounting() {
+        return sizeAccounting;
     }
 
     private BundleModule filterBundleModule(BundleModule bundleModule) throws IOException {
@@ -102,14 +105,13 @@ public class BundleFileFilter {
                         checkFilteredEntry(entry, filterRule);
                         System.out.println(String.format("[filter] metadata file is filtered, path: %s", entry.getPath()));
                         filteredModuleEntries.add(entry);
-                        filterTotalSize += AppBundleUtils.getZipEntrySize(bundleZipFile, entry, bundleModule);
+                        sizeAccounting.remove(entry, bundleModule);
                         return false;
                     }
                     return true;
                 })
                 .collect(Collectors.toList());
         builder.setRawEntries(entries);
-        filterTotalCount += filteredModuleEntries.size();
         // update pb
         Files.NativeLibraries nativeLibraries = updateLibDirectory(bundleModule, filteredModuleEntries);
         if (nativeLibraries != null) {
@@ -160,8 +162,7 @@ public class BundleFileFilter {
                     ZipPath entryZipPath = ZipPath.create(AppBundle.METADATA_DIRECTORY + "/" + entry.getKey());
                     if (getMatchedFilterRule(entryZipPath) != null) {
                         System.out.println(String.format("[filter] metadata file is filtered, path: %s", entryZipPath));
-                        filterTotalCount += 1;
-                        filterTotalSize += AppBundleUtils.getZipEntrySize(bundleZipFile, entryZipPath);
+                        sizeAccounting.remove(entryZipPath);
                         return false;
                     }
                     return true;
@@ -178,12 +179,6 @@ public class BundleFileFilter {
     }
 
     private String getMatchedFilterRule(ZipPath zipPath) {
-        for (String rule : filterRules) {
-            Pattern filterPattern = Pattern.compile(Utils.convertToPatternString(rule));
-            if (filterPattern.matcher(zipPath.toString()).matches()) {
-                return rule;
-            }
-        }
-        return null;
+        return filterRuleMatcher.getMatchedRule(zipPath.toString());
     }
 }
@@ -0,0 +1,87 @@
+package com.bytedance.android.aabresguard.executors;
+
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the executors as stages of a single pass over the modules of a bundle.
+ * <p>
+ * Every module goes through all the stages before the next module is read, and the bundle is only rebuilt once at
+ * the end, instead of once per executor. The base module is always transformed first, so the stages can rely on it
+ * when they transform the feature modules.
+ */
+public class BundlePipeline {
+
+    private final AppBundle rawAppBundle;
+    private final List<Stage> stages = new ArrayList<>();
+
+    public BundlePipeline(AppBundle rawAppBundle) {
+        this.rawAppBundle = rawAppBundle;
+    }
+
+    public BundlePipeline addStage(Stage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    public AppBundle execute() throws IOException {
+        for (Stage stage : stages) {
+            stage.begin();
+        }
+
+        BundleModuleName baseModuleName = rawAppBundle.getBaseModule().getName();
+        Map<BundleModuleName, BundleModule> transformedModules = new LinkedHashMap<>();
+        transformedModules.put(baseModuleName, transform(rawAppBundle.getBaseModule()));
+        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
+            if (!entry.getKey().equals(baseModuleName)) {
+                transformedModules.put(entry.getKey(), transform(entry.getValue()));
+            }
+        }
+
+        // keep the module order of the raw bundle
+        ImmutableMap.Builder<BundleModuleName, BundleModule> modules = ImmutableMap.builder();
+        for (BundleModuleName moduleName : rawAppBundle.getModules().keySet()) {
+            modules.put(moduleName, transformedModules.get(moduleName));
+        }
+        AppBundle.Builder builder = rawAppBundle.toBuilder().setModules(modules.build());
+        for (Stage stage : stages) {
+            stage.complete(builder);
+        }
+        return builder.build();
+    }
+
+    private BundleModule transform(BundleModule bundleModule) throws IOException {
+        for (Stage stage : stages) {
+            bundleModule = stage.transform(bundleModule);
+        }
+        return bundleModule;
+    }
+
+    public interface Stage {
+
+        /**
+         * Called once before the first module is transformed.
+         */
+        default void begin() throws IOException {
+        }
+
+        /**
+         * Transforms one module, the modules are transformed one by one.
+         */
+        BundleModule transform(BundleModule bundleModule) throws IOException;
+
+        /**
+         * Called once after every module is transformed, the bundle level fields can be updated here.
+         */
+        default void complete(AppBundle.Builder appBundleBuilder) throws IOException {
+        }
+    }
+}
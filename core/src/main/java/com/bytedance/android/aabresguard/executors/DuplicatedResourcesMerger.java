@@ -3,13 +3,16 @@ package com.bytedance.android.aabresguard.executors;
 import com.android.aapt.Resources;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleModule;
-import com.android.tools.build.bundletool.model.BundleModuleName;
 import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
 import com.bytedance.android.aabresguard.bundle.AppBundleUtils;
-import com.bytedance.android.aabresguard.bundle.ResourcesTableBuilder;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
+import com.bytedance.android.aabresguard.bundle.ResourceTableEditor;
 import com.bytedance.android.aabresguard.bundle.ResourcesTableOperation;
+import com.bytedance.android.aabresguard.bundle.SizeAccounting;
+import com.bytedance.android.aabresguard.utils.ThreadUtils;
 import com.bytedance.android.aabresguard.utils.TimeClock;
 
 import java.io.BufferedWriter;
@@ -19,69 +22,109 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipFile;
 
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
-import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 import static com.bytedance.android.aabresguard.utils.FileOperation.getNetFileSizeDescription;
-import static com.google.common.collect.ImmutableList.toImmutableList;
 
 /**
  * Created by YangJing on 2019/10/10 .
  * Email: yangjing.yeoh@bytedance.com
  */
-public class DuplicatedResourcesMerger {
+public class DuplicatedResourcesMerger implements BundlePipeline.Stage {
     public static final String SUFFIX_FILE_DUPLICATED_LOGGER = "-duplicated.txt";
+    public static final String SUFFIX_FILE_CROSS_MODULE_DUPLICATED_LOGGER = "-cross-module-duplicated.txt";
     private static final Logger logger = Logger.getLogger(DuplicatedResourcesMerger.class.getName());
     private final Path outputLogLocationDir;
-    private final ZipFile bundleZipFile;
+    private final BundleSource bundleSource;
     private final AppBundle rawAppBundle;
 
     private Map<String, ZipPath> md5FileList = new HashMap<>();
     private Map<ZipPath, String> duplicatedFileList = new HashMap<>();
-    private int mergeDuplicatedTotalSize = 0;
-    private int mergeDuplicatedTotalCount = 0;
+    private final SizeAccounting sizeAccounting;
+    private int maxThreads = 1;
+    private boolean crossModule = false;
+    private BundleModule mergedBaseModule;
+    private Map<ZipPath, String> crossModuleMd5Map = new HashMap<>();
+    private TimeClock timeClock;
 
-    public DuplicatedResourcesMerger(Path bundlePath, AppBundle appBundle, Path outputLogLocationDir) throws IOException {
-        checkFileExistsAndReadable(bundlePath);
+    public DuplicatedResourcesMerger(BundleSource bundleSource, AppBundle appBundle, Path outputLogLocationDir) {
         this.outputLogLocationDir = outputLogLocationDir;
 
-        bundleZipFile = new ZipFile(bundlePath.toFile());
+        this.bundleSource = bundleSource;
+        this.sizeAccounting = new SizeAccounting(bundleSource);
         rawAppBundle = appBundle;
     }
 
-    @SuppressWarnings("UnstableApiUsage")
+    /**
+     * Sets the worker count used to hash the resource files, files are hashed one by one when it is 1.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * If set, the resources of the feature modules which are duplicated in the base module are merged too.
+     */
+    public void setCrossModule(boolean crossModule) {
+        this.crossModule = crossModule;
+    }
+
     public AppBundle merge() throws IOException {
-        TimeClock timeClock = new TimeClock();
+        return new BundlePipeline(rawAppBundle).addStage(this).execute();
+    }
 
-        List<BundleModule> mergedBundleModuleList = new ArrayList<>();
-        for (Map.Entry<BundleModuleName, BundleModule> moduleEntry : rawAppBundle.getModules().entrySet()) {
-            mergedBundleModuleList.add(mergeBundleModule(moduleEntry.getValue()));
+    @Override
+    public void begin() {
+        timeClock = new TimeClock();
+    }
+
+    @Override
+    public BundleModule transform(BundleModule bundleModule) throws IOException {
+        BundleModule mergedModule = mergeBundleModule(bundleModule);
+        if (!crossModule) {
+            return mergedModule;
         }
-        AppBundle mergedAppBundle = AppBundle.buildFromModules(
-                mergedBundleModuleList.stream().collect(toImmutableList()),
-                rawAppBundle.getBundleConfig(),
-                rawAppBundle.getBundleMetadata()
-        );
+        // the base module is always transformed before the feature modules.
+        if (mergedModule.getName().equals(rawAppBundle.getBaseModule().getName())) {
+            mergedBaseModule = mergedModule;
+            return mergedModule;
+        }
+        return mergeCrossModuleResources(mergedModule);
+    }
 
+    @Override
+    public void complete(AppBundle.Builder appBundleBuilder) {
         System.out.println(String.format(
                 "merge duplicated resources done, coast %s\n" +
                         "-----------------------------------------\n" +
                         "Reduce file count: %s\n" +
                         "Reduce file size: %s\n" +
+                        "Reduce compressed size: %s\n" +
                         "-----------------------------------------",
                 timeClock.getCoast(),
-                mergeDuplicatedTotalCount,
-                getNetFileSizeDescription(mergeDuplicatedTotalSize)
+                sizeAccounting.getCount(),
+                getNetFileSizeDescription(sizeAccounting.getSize()),
+                getNetFileSizeDescription(sizeAccounting.getCompressedSize())
         ));
-        return mergedAppBundle;
+    }
+
+    /**
+     * Returns the sizes of the files removed by {@link #merge()}.
+     */
+    public SizeAccounting getSizeAccounting() {
+        return sizeAccounting;
     }
 
     /**
@@ -99,14 +142,22 @@ public class DuplicatedResourcesMerger {
         md5FileList.clear();
         duplicatedFileList.clear();
 
+        List<ModuleEntry> resourceEntries = bundleModule.getEntries().stream()
+                .filter(entry -> entry.getPath().startsWith(BundleModule.RESOURCES_DIRECTORY))
+                .collect(Collectors.toList());
+        Iterator<String> md5Iterator = hashEntries(bundleModule, resourceEntries).iterator();
+
+        // the first file of the module entry order is always the one kept.
         List<ModuleEntry> mergedModuleEntry = new ArrayList<>();
         for (ModuleEntry entry : bundleModule.getEntries()) {
             if (!entry.getPath().startsWith(BundleModule.RESOURCES_DIRECTORY)) {
                 mergedModuleEntry.add(entry);
                 continue;
             }
-            String md5 = AppBundleUtils.getEntryMd5(bundleZipFile, entry, bundleModule);
-            if (md5FileList.containsKey(md5)) {
+            String md5 = md5Iterator.next();
+            if (md5 == null) {
+                mergedModuleEntry.add(entry);
+            } else if (md5FileList.containsKey(md5)) {
                 duplicatedFileList.put(entry.getPath(), md5);
             } else {
                 md5FileList.put(md5, entry.getPath());
@@ -122,34 +173,200 @@ public class DuplicatedResourcesMerger {
                 .build();
     }
 
+    /**
+     * Returns the md5 of the entries in the order of {@code entries}, or null for the entries whose content is unique.
+     * <p>
+     * Files with a different size or crc32 can not be duplicated. Both are read from the central directory of the
+     * bundle, so only the files sharing them with another file of the module are inflated and hashed.
+     */
+    private List<String> hashEntries(BundleModule bundleModule, List<ModuleEntry> entries) throws IOException {
+        List<String> buckets = new ArrayList<>(entries.size());
+        Map<String, Integer> bucketSizes = new HashMap<>();
+        for (ModuleEntry entry : entries) {
+            BundleSource.Entry sourceEntry = bundleSource.getEntry(entry, bundleModule);
+            String bucket = sourceEntry == null ? null : sourceEntry.getSize() + ":" + sourceEntry.getCrc();
+            buckets.add(bucket);
+            if (bucket != null) {
+                bucketSizes.merge(bucket, 1, Integer::sum);
+            }
+        }
+        List<ModuleEntry> candidates = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            String bucket = buckets.get(i);
+            if (bucket == null || bucketSizes.get(bucket) > 1) {
+                candidates.add(entries.get(i));
+            }
+        }
+
+        List<String> candidateMd5List = hashAll(candidates.stream()
+                .map(entry -> (Callable<String>) () -> AppBundleUtils.getEntryMd5(bundleSource, entry, bundleModule))
+                .collect(Collectors.toList()));
+        System.out.println(String.format(
+                "[merge duplicated] %s hashed %s of %s resource files",
+                bundleModule.getName().getName(),
+                candidates.size(),
+                entries.size()
+        ));
+
+        Iterator<String> candidateMd5Iterator = candidateMd5List.iterator();
+        List<String> md5List = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            String bucket = buckets.get(i);
+            md5List.add(bucket == null || bucketSizes.get(bucket) > 1 ? candidateMd5Iterator.next() : null);
+        }
+        return md5List;
+    }
+
+    /**
+     * Runs the hash tasks on a pool bounded by {@link #maxThreads}, the results are in the order of {@code tasks}.
+     */
+    private List<String> hashAll(List<Callable<String>> tasks) throws IOException {
+        if (maxThreads > 1 && tasks.size() > 1) {
+            return ThreadUtils.invokeAll(maxThreads, tasks);
+        }
+        List<String> results = new ArrayList<>(tasks.size());
+        for (Callable<String> task : tasks) {
+            try {
+                results.add(task.call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Merges the resources of the feature module which are duplicated in the base module.
+     * <p>
+     * A split apk can only open its own files, so a feature resource can not point to a file of the base module.
+     * Instead, a feature resource with the same type and the same file content for every configuration as a base
+     * resource becomes a reference to it, both resolve to the same configuration on any device. The feature files
+     * which are no longer used by the resource table are removed.
+     */
+    private BundleModule mergeCrossModuleResources(BundleModule featureModule) throws IOException {
+        if (mergedBaseModule == null || !mergedBaseModule.getResourceTable().isPresent()
+                || !featureModule.getResourceTable().isPresent()) {
+            return featureModule;
+        }
+
+        // only the files whose size and crc32 are found both in the base module and in the feature module are hashed,
+        // the base files are hashed once for all the feature modules.
+        Map<ZipPath, String> baseBuckets = getFileBuckets(mergedBaseModule);
+        Map<ZipPath, String> featureBuckets = getFileBuckets(featureModule);
+        Set<String> sharedBuckets = new HashSet<>(baseBuckets.values());
+        sharedBuckets.retainAll(featureBuckets.values());
+        if (sharedBuckets.isEmpty()) {
+            return featureModule;
+        }
+        List<ZipPath> candidates = Stream.concat(baseBuckets.entrySet().stream(), featureBuckets.entrySet().stream())
+                .filter(entry -> sharedBuckets.contains(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .filter(path -> !crossModuleMd5Map.containsKey(path))
+                .collect(Collectors.toList());
+        List<String> md5List = hashAll(candidates.stream()
+                .map(path -> (Callable<String>) () -> AppBundleUtils.getEntryMd5(bundleSource, path))
+                .collect(Collectors.toList()));
+        for (int i = 0; i < candidates.size(); i++) {
+            crossModuleMd5Map.put(candidates.get(i), md5List.get(i));
+        }
+
+        // the first base resource of the table is kept for every content.
+        Map<List<Object>, ResourceTableEntry> baseResources = new HashMap<>();
+        for (ResourceTableEntry entry : ResourcesUtils.entries(mergedBaseModule.getResourceTable().get()).collect(Collectors.toList())) {
+            List<Object> contentKey = getContentKey(mergedBaseModule, entry, crossModuleMd5Map);
+            if (contentKey != null) {
+                baseResources.putIfAbsent(contentKey, entry);
+            }
+        }
+        return mergeFeatureModule(featureModule, baseResources, crossModuleMd5Map);
+    }
+
+    private BundleModule mergeFeatureModule(BundleModule bundleModule,
+                                            Map<List<Object>, ResourceTableEntry> baseResources,
+                                            Map<ZipPath, String> fileMd5Map) throws IOException {
+        File logFile = new File(outputLogLocationDir.toFile(), bundleModule.getName().getName() + SUFFIX_FILE_CROSS_MODULE_DUPLICATED_LOGGER);
+        checkFileDoesNotExist(logFile.toPath());
+
+        Resources.ResourceTable table = bundleModule.getResourceTable().get();
+        Map<String, String> referencedResources = new LinkedHashMap<>();
+        Resources.ResourceTable mergedTable = new ResourceTableEditor(table).updateEntries(entry -> {
+            ResourceTableEntry baseEntry = baseResources.get(getContentKey(bundleModule, entry, fileMd5Map));
+            if (baseEntry == null) {
+                return entry.getEntry();
+            }
+            int baseResourceId = baseEntry.getResourceId().getFullResourceId();
+            referencedResources.put(AppBundleUtils.getResourceFullName(entry), AppBundleUtils.getResourceFullName(baseEntry));
+            return ResourceTableEditor.updateConfigValues(entry.getEntry(),
+                    configValue -> ResourcesTableOperation.replaceEntryWithReference(configValue, baseResourceId));
+        }).build();
+        if (referencedResources.isEmpty()) {
+            return bundleModule;
+        }
+
+        Set<ZipPath> removedFiles = new HashSet<>(ResourcesUtils.getAllFileReferences(table));
+        removedFiles.removeAll(ResourcesUtils.getAllFileReferences(mergedTable));
+        List<ModuleEntry> mergedModuleEntry = bundleModule.getEntries().stream()
+                .filter(entry -> !removedFiles.contains(entry.getPath()))
+                .collect(Collectors.toList());
+        generateCrossModuleDuplicatedLog(logFile, bundleModule, referencedResources, removedFiles);
+
+        return bundleModule.toBuilder()
+                .setResourceTable(mergedTable)
+                .setRawEntries(mergedModuleEntry)
+                .build();
+    }
+
+    /**
+     * Returns the size and crc32 of every file referenced by the resource table of the module, by bundle path.
+     */
+    private Map<ZipPath, String> getFileBuckets(BundleModule bundleModule) {
+        Map<ZipPath, String> buckets = new HashMap<>();
+        for (ZipPath path : ResourcesUtils.getAllFileReferences(bundleModule.getResourceTable().get())) {
+            ZipPath bundlePath = ZipPath.create(bundleModule.getName().getName() + "/" + path.toString());
+            BundleSource.Entry sourceEntry = bundleSource.getEntry(bundlePath);
+            if (sourceEntry != null) {
+                buckets.put(bundlePath, sourceEntry.getSize() + ":" + sourceEntry.getCrc());
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns the type and the md5 of the file of every configuration of the resource, or null if one of its values
+     * is not a hashed file.
+     */
+    private static List<Object> getContentKey(BundleModule bundleModule, ResourceTableEntry entry, Map<ZipPath, String> fileMd5Map) {
+        if (entry.getEntry().getConfigValueCount() == 0) {
+            return null;
+        }
+        Map<Resources.Configuration, String> contents = new HashMap<>();
+        for (Resources.ConfigValue configValue : entry.getEntry().getConfigValueList()) {
+            if (!configValue.getValue().getItem().hasFile()) {
+                return null;
+            }
+            String md5 = fileMd5Map.get(ZipPath.create(
+                    bundleModule.getName().getName() + "/" + configValue.getValue().getItem().getFile().getPath()));
+            if (md5 == null) {
+                return null;
+            }
+            contents.put(configValue.getConfig(), md5);
+        }
+        return Arrays.asList(entry.getType().getName(), contents);
+    }
+
     /**
      * merge resourcesTable, remove duplicated resources.
      */
     private Resources.ResourceTable mergeResourcesTable(Resources.ResourceTable resourceTable) {
-        ResourcesTableBuilder resourcesTableBuilder = new ResourcesTableBuilder();
-        ResourcesUtils.entries(resourceTable).forEach(entry -> {
-            ResourcesTableBuilder.PackageBuilder packageBuilder = resourcesTableBuilder.addPackage(entry.getPackage());
-            // replace the duplicated path
-            List<Resources.ConfigValue> configValues = getDuplicatedMergedConfigValues(entry.getEntry());
-            Resources.Entry mergedEntry = ResourcesTableOperation.updateEntryConfigValueList(entry.getEntry(), configValues);
-            packageBuilder.addResource(entry.getType(), mergedEntry);
-        });
-        return resourcesTableBuilder.build();
-    }
-
-    private List<Resources.ConfigValue> getDuplicatedMergedConfigValues(Resources.Entry entry) {
-        return Stream.of(entry.getConfigValueList())
-                .flatMap(Collection::stream)
-                .map(configValue -> {
-                    if (!configValue.getValue().getItem().hasFile()) {
-                        return configValue;
-                    }
-                    ZipPath zipPath = ZipPath.create(configValue.getValue().getItem().getFile().getPath());
-                    if (duplicatedFileList.containsKey(zipPath)) {
-                        zipPath = md5FileList.get(duplicatedFileList.get(zipPath));
-                    }
-                    return ResourcesTableOperation.replaceEntryPath(configValue, zipPath.toString());
-                }).collect(Collectors.toList());
+        return new ResourceTableEditor(resourceTable)
+                .replaceFilePaths((entry, path) -> {
+                    // replace the duplicated path
+                    String md5 = duplicatedFileList.get(ZipPath.create(path));
+                    return md5 == null ? null : md5FileList.get(md5).toString();
+                })
+                .build();
     }
 
     private void generateDuplicatedLog(File logFile, BundleModule bundleModule) throws IOException {
@@ -162,7 +379,7 @@ public class DuplicatedResourcesMerger {
             ZipPath keepPath = md5FileList.get(entry.getValue());
             System.out.println(String.format("[merge duplicated] found duplicated file, path: %s", bundleModule.getName().getName() + "/" + entry.getKey().toString()));
             ModuleEntry moduleEntry = bundleModule.getEntry(entry.getKey()).get();
-            long fileSize = AppBundleUtils.getZipEntrySize(bundleZipFile, moduleEntry, bundleModule);
+            long fileSize = sizeAccounting.remove(moduleEntry, bundleModule);
             duplicatedSize += fileSize;
             writer.write(
                     "\t" + entry.getKey().toString()
@@ -182,7 +399,39 @@ public class DuplicatedResourcesMerger {
                 String.valueOf(duplicatedFileList.size()),
                 getNetFileSizeDescription(duplicatedSize)
         ));
-        mergeDuplicatedTotalSize += duplicatedSize;
-        mergeDuplicatedTotalCount += duplicatedFileList.size();
+    }
+
+    private void generateCrossModuleDuplicatedLog(File logFile, BundleModule bundleModule,
+                                                  Map<String, String> referencedResources,
+                                                  Set<ZipPath> removedFiles) throws IOException {
+        int duplicatedSize = 0;
+        int duplicatedCount = 0;
+        try (Writer writer = new BufferedWriter(new FileWriter(logFile, false))) {
+            writer.write("res reference mapping:\n");
+            for (Map.Entry<String, String> entry : referencedResources.entrySet()) {
+                writer.write("\t" + entry.getKey() + " -> " + entry.getValue() + "\n");
+            }
+            writer.write("res filter path:\n");
+            for (ModuleEntry moduleEntry : bundleModule.getEntries()) {
+                if (!removedFiles.contains(moduleEntry.getPath())) {
+                    continue;
+                }
+                System.out.println(String.format("[merge duplicated] found cross module duplicated file, path: %s", bundleModule.getName().getName() + "/" + moduleEntry.getPath().toString()));
+                long fileSize = sizeAccounting.remove(moduleEntry, bundleModule);
+                duplicatedSize += fileSize;
+                duplicatedCount++;
+                writer.write("\t" + moduleEntry.getPath().toString() + " (size " + getNetFileSizeDescription(fileSize) + ")\n");
+            }
+            writer.write(
+                    "removed: count(" + duplicatedCount + "), totalSize("
+                            + getNetFileSizeDescription(duplicatedSize) + ")"
+            );
+        }
+        System.out.println(String.format(
+                "[merge duplicated] %s cross module duplicated count %s, total size: %s",
+                bundleModule.getName().getName(),
+                duplicatedCount,
+                getNetFileSizeDescription(duplicatedSize)
+        ));
     }
 }
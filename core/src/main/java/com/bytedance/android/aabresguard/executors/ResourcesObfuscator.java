@@ -4,7 +4,6 @@ import static com.android.tools.build.bundletool.model.utils.files.FilePrecondit
 import static com.bytedance.android.aabresguard.bundle.AppBundleUtils.getEntryNameByResourceName;
 import static com.bytedance.android.aabresguard.bundle.AppBundleUtils.getTypeNameByResourceName;
 import static com.bytedance.android.aabresguard.bundle.ResourcesTableOperation.checkConfiguration;
-import static com.bytedance.android.aabresguard.bundle.ResourcesTableOperation.updateEntryConfigValueList;
 import static com.bytedance.android.aabresguard.utils.FileOperation.getFilePrefixByFileName;
 import static com.bytedance.android.aabresguard.utils.FileOperation.getNameFromZipFilePath;
 import static com.bytedance.android.aabresguard.utils.FileOperation.getParentFromZipFilePath;
@@ -12,52 +11,39 @@ import static com.bytedance.android.aabresguard.utils.FileOperation.getParentFro
 import com.android.aapt.Resources;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleModule;
-import com.android.tools.build.bundletool.model.BundleModuleName;
-import com.android.tools.build.bundletool.model.InMemoryModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleEntry;
-import com.android.tools.build.bundletool.model.ResourceTableEntry;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
 import com.android.tools.build.bundletool.model.utils.xmlproto.XmlProtoElementBuilder;
 import com.android.tools.build.bundletool.model.utils.xmlproto.XmlProtoNode;
 import com.bytedance.android.aabresguard.bundle.AppBundleUtils;
-import com.bytedance.android.aabresguard.bundle.ResourcesTableBuilder;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
+import com.bytedance.android.aabresguard.bundle.ModuleEntryStore;
+import com.bytedance.android.aabresguard.bundle.RenamedModuleEntry;
+import com.bytedance.android.aabresguard.bundle.ResourceTableEditor;
 import com.bytedance.android.aabresguard.bundle.ResourcesTableOperation;
+import com.bytedance.android.aabresguard.model.BinaryResourcesMapping;
 import com.bytedance.android.aabresguard.model.ResourcesMapping;
-import com.bytedance.android.aabresguard.obfuscation.ResGuardStringBuilder;
+import com.bytedance.android.aabresguard.obfuscation.ImagePixelObfuscator;
+import com.bytedance.android.aabresguard.obfuscation.ObfuscationCache;
+import com.bytedance.android.aabresguard.obfuscation.ResGuardNameAllocator;
 import com.bytedance.android.aabresguard.parser.ResourcesMappingParser;
 import com.bytedance.android.aabresguard.utils.ConsoleColors;
 import com.bytedance.android.aabresguard.utils.FileOperation;
 import com.bytedance.android.aabresguard.utils.FileUtils;
-import com.bytedance.android.aabresguard.utils.OS;
-import com.bytedance.android.aabresguard.utils.OSDetection;
-import com.bytedance.android.aabresguard.utils.ResourceCopier;
+import com.bytedance.android.aabresguard.utils.RuleMatcher;
+import com.bytedance.android.aabresguard.utils.ThreadUtils;
 import com.bytedance.android.aabresguard.utils.TimeClock;
-import com.bytedance.android.aabresguard.utils.Utils;
-import com.bytedance.android.aabresguard.utils.elf.ByteArrayProvider;
-import com.bytedance.android.aabresguard.utils.elf.ElfHeader;
-import com.bytedance.android.aabresguard.utils.elf.ElfSectionHeader;
-import com.bytedance.android.aabresguard.utils.elf.RethrowContinuesFactory;
-import com.bytedance.android.aabresguard.utils.ninepatch.GraphicsUtilities;
-import com.google.common.collect.ImmutableMap;
+import com.bytedance.android.aabresguard.utils.elf.ByteProvider;
+import com.bytedance.android.aabresguard.utils.elf.ElfException;
+import com.bytedance.android.aabresguard.utils.elf.ElfSectionInjector;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.IOUtils;
 
-import java.awt.Color;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -66,45 +52,54 @@ import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.ZipFile;
-
-import javax.imageio.ImageIO;
-
 
 /**
  * Created by YangJing on 2019/10/14 .
  * Email: yangjing.yeoh@bytedance.com
  */
-public class ResourcesObfuscator {
+public class ResourcesObfuscator implements BundlePipeline.Stage {
     public static final String RESOURCE_ANDROID_PREFIX = "android:";
     public static final String FILE_MAPPING_NAME = "resources-mapping.txt";
+    public static final String FILE_BINARY_MAPPING_NAME = "resources-mapping" + BinaryResourcesMapping.FILE_EXTENSION;
+    private static final String SO_SECTION_NAME = ".mywaw";
+    private static final String CACHE_KIND_RES = "res";
+    private static final String CACHE_KIND_RAW = "raw";
     private static final Logger logger = Logger.getLogger(ResourcesObfuscator.class.getName());
 
     private final AppBundle rawAppBundle;
-    private final Set<String> whiteListRules;
+    private final RuleMatcher whiteListMatcher;
     private final Set<String> filterContentRules;
     private final Path outputMappingPath;
-    private final ZipFile bundleZipFile;
+    private final Path outputBinaryMappingPath;
+    private final BundleSource bundleSource;
     private ResourcesMapping resourcesMapping;
-
-    public ResourcesObfuscator(Path bundlePath, AppBundle rawAppBundle, Set<String> whiteListRules, Set<String> filterContentRules, Path outputLogLocationDir, Path mappingPath) throws IOException {
+    private int maxThreads = 1;
+    private ModuleEntryStore entryStore = ModuleEntryStore.inMemory();
+    private ImagePixelObfuscator imagePixelObfuscator = new ImagePixelObfuscator(null);
+    private Long obfuscationSeed;
+    private ObfuscationCache obfuscationCache;
+    private Map<String, ResGuardNameAllocator> typeEntryMapping;
+    private TimeClock timeClock;
+
+    public ResourcesObfuscator(BundleSource bundleSource, AppBundle rawAppBundle, Set<String> whiteListRules, Set<String> filterContentRules, Path outputLogLocationDir, Path mappingPath) throws IOException {
         if (mappingPath != null && mappingPath.toFile().exists()) {
-            resourcesMapping = new ResourcesMappingParser(mappingPath).parse();
+            // the records of the previous build are not kept, they are written again for the obfuscated resources.
+            resourcesMapping = new ResourcesMappingParser(mappingPath).parse().copyRules();
         } else {
             resourcesMapping = new ResourcesMapping();
         }
 
-        this.bundleZipFile = new ZipFile(bundlePath.toFile());
+        this.bundleSource = bundleSource;
 
         outputMappingPath = new File(outputLogLocationDir.toFile(), FILE_MAPPING_NAME).toPath();
         checkFileDoesNotExist(outputMappingPath);
+        outputBinaryMappingPath = new File(outputLogLocationDir.toFile(), FILE_BINARY_MAPPING_NAME).toPath();
+        checkFileDoesNotExist(outputBinaryMappingPath);
 
         this.rawAppBundle = rawAppBundle;
-        this.whiteListRules = whiteListRules;
+        this.whiteListMatcher = new RuleMatcher(whiteListRules);
         this.filterContentRules = filterContentRules;
     }
 
@@ -112,30 +107,75 @@ public class ResourcesObfuscator {
         return outputMappingPath;
     }
 
+    /**
+     * Returns the path of the mapping in the binary format, which is faster to load for the next incremental build.
+     */
+    public Path getOutputBinaryMappingPath() {
+        return outputBinaryMappingPath;
+    }
+
+    /**
+     * Sets the worker count used to rewrite the entries of a module, entries are rewritten one by one when it is 1.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Sets the store holding the rewritten entries, every entry is kept in memory by default.
+     */
+    public void setEntryStore(ModuleEntryStore entryStore) {
+        this.entryStore = entryStore;
+    }
+
+    /**
+     * Sets the seed of the pixels, xml namespaces and so sections inserted by the obfuscation, so that the same bundle
+     * is always obfuscated the same way whatever the worker count. They are random on every build when it is not set.
+     */
+    public void setObfuscationSeed(long seed) {
+        this.obfuscationSeed = seed;
+        this.imagePixelObfuscator = new ImagePixelObfuscator(seed);
+    }
+
+    /**
+     * Sets the cache of the obfuscated content, the content of every entry is obfuscated again when it is not set.
+     */
+    public void setObfuscationCache(ObfuscationCache obfuscationCache) {
+        this.obfuscationCache = obfuscationCache;
+    }
+
     public AppBundle obfuscate() throws IOException {
-        TimeClock timeClock = new TimeClock();
+        return new BundlePipeline(rawAppBundle).addStage(this).execute();
+    }
+
+    @Override
+    public void begin() {
+        timeClock = new TimeClock();
 
         checkResMappingRules();
-        Map<BundleModuleName, BundleModule> obfuscatedModules = new HashMap<>();
         // generate type entry mapping from mapping rule
-        Map<String, Set<String>> typeEntryMapping = generateObfuscatedEntryFilesFromMapping();
-
-        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
-            BundleModule bundleModule = entry.getValue();
-            BundleModuleName bundleModuleName = entry.getKey();
-            // generate obfuscation resources mapping
-            generateResourceMappingRule(bundleModule, typeEntryMapping);
-            // obfuscate module entries
-            Map<String, String> obfuscateModuleEntriesMap = obfuscateModuleEntries(bundleModule, typeEntryMapping);
-            // obfuscate bundle module
-            BundleModule obfuscatedModule = obfuscateBundleModule(bundleModule, obfuscateModuleEntriesMap);
-            obfuscatedModules.put(bundleModuleName, obfuscatedModule);
-        }
+        typeEntryMapping = generateObfuscatedEntryFilesFromMapping();
+    }
 
-        AppBundle appBundle = rawAppBundle.toBuilder()
-                .setModules(ImmutableMap.copyOf(obfuscatedModules))
-                .build();
+    /**
+     * The names are shared by all modules, so the modules must be transformed in the same order on every build to
+     * keep the mapping stable.
+     */
+    @Override
+    public BundleModule transform(BundleModule bundleModule) throws IOException {
+        // generate obfuscation resources mapping
+        generateResourceMappingRule(bundleModule, typeEntryMapping);
+        // obfuscate module entries
+        Map<String, String> obfuscateModuleEntriesMap = obfuscateModuleEntries(bundleModule, typeEntryMapping);
+        // obfuscate bundle module
+        ResourcesMapping moduleMapping = new ResourcesMapping();
+        BundleModule obfuscatedModule = obfuscateBundleModule(bundleModule, obfuscateModuleEntriesMap, moduleMapping);
+        resourcesMapping.merge(moduleMapping);
+        return obfuscatedModule;
+    }
 
+    @Override
+    public void complete(AppBundle.Builder appBundleBuilder) throws IOException {
         System.out.println(String.format(
                 "obfuscate resources done, coast %s",
                 timeClock.getCoast()
@@ -143,29 +183,32 @@ public class ResourcesObfuscator {
 
         // write mapping rules to file.
         resourcesMapping.writeMappingToFile(outputMappingPath);
+        resourcesMapping.writeMappingToFile(outputBinaryMappingPath);
+    }
 
-        return appBundle;
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    private Map<String, Set<String>> generateObfuscatedEntryFilesFromMapping() {
-        Map<String, Set<String>> typeEntryMapping = new HashMap<>();
+    private Map<String, ResGuardNameAllocator> generateObfuscatedEntryFilesFromMapping() {
+        Map<String, ResGuardNameAllocator> typeEntryMapping = new HashMap<>();
         // generate obfuscated entry path from incremental mapping
         for (String path : resourcesMapping.getEntryFilesMapping().values()) {
             String parentPath = getParentFromZipFilePath(path);
             String name = getFilePrefixByFileName(getNameFromZipFilePath(path));
-            Set<String> entryList = typeEntryMapping.get(parentPath);
-            if (entryList == null) entryList = new HashSet<>();
-            entryList.add(name);
-            typeEntryMapping.put(parentPath, entryList);
+            typeEntryMapping.computeIfAbsent(parentPath, key -> new ResGuardNameAllocator()).markUsed(name);
         }
         // generate obfuscated entry name from incremental mapping
         for (String entry : resourcesMapping.getResourceMapping().values()) {
             String name = getEntryNameByResourceName(entry);
             String type = getTypeNameByResourceName(entry);
-            Set<String> entryList = typeEntryMapping.get(type);
-            if (entryList == null) entryList = new HashSet<>();
-            entryList.add(name);
-            typeEntryMapping.put(type, entryList);
+            typeEntryMapping.computeIfAbsent(type, key -> new ResGuardNameAllocator()).markUsed(name);
         }
         return typeEntryMapping;
     }
@@ -173,12 +216,12 @@ public class ResourcesObfuscator {
     /**
      * Reads resourceTable and generate obfuscate mapping.
      */
-    private void generateResourceMappingRule(BundleModule bundleModule, Map<String, Set<String>> typeEntryMapping) {
+    private void generateResourceMappingRule(BundleModule bundleModule, Map<String, ResGuardNameAllocator> typeEntryMapping) {
         if (!bundleModule.getResourceTable().isPresent()) {
             return;
         }
-        ResGuardStringBuilder guardStringBuilder = new ResGuardStringBuilder();
-        guardStringBuilder.reset(null);
+        ResGuardNameAllocator dirNameAllocator = new ResGuardNameAllocator();
+        dirNameAllocator.markUsed(resourcesMapping.getPathMappingNameList());
 
         Resources.ResourceTable table = bundleModule.getResourceTable().get();
         // generate resource directory mapping
@@ -188,19 +231,14 @@ public class ResourcesObfuscator {
                 .filter(Objects::nonNull)
                 .filter(path -> !resourcesMapping.getDirMapping().containsKey(path.toString()))
                 .forEach(path -> {
-                    guardStringBuilder.reset(null);
-                    String name = guardStringBuilder.getReplaceString(resourcesMapping.getPathMappingNameList());
+                    String name = dirNameAllocator.next();
                     resourcesMapping.putDirMapping(path.toString(), BundleModule.RESOURCES_DIRECTORY.toString() + "/" + name);
                 });
         // generate resource mapping
         ResourcesUtils.entries(table).forEach(entry -> {
             String resourceId = entry.getResourceId().toString();
             String resourceName = AppBundleUtils.getResourceFullName(entry);
-            Set<String> obfuscationList = typeEntryMapping.get(entry.getType().getName());
-            if (obfuscationList == null) {
-                obfuscationList = new HashSet<>();
-            }
-            guardStringBuilder.reset(null);
+            ResGuardNameAllocator obfuscationList = typeEntryMapping.computeIfAbsent(entry.getType().getName(), key -> new ResGuardNameAllocator());
             if (resourcesMapping.getResourceMapping().containsKey(resourceName)) {
                 if (!shouldBeObfuscated(resourceName)) {
                     System.out.println(String.format(
@@ -208,10 +246,10 @@ public class ResourcesObfuscator {
                             resourceName,
                             resourceId
                     ));
-                    resourcesMapping.getResourceMapping().remove(resourceName);
+                    resourcesMapping.removeResourceMapping(resourceName);
                 } else {
                     String obfuscateResourceName = resourcesMapping.getResourceMapping().get(resourceName);
-                    obfuscationList.add(AppBundleUtils.getEntryNameByResourceName(obfuscateResourceName));
+                    obfuscationList.markUsed(AppBundleUtils.getEntryNameByResourceName(obfuscateResourceName));
                 }
             } else {
                 if (!shouldBeObfuscated(resourceName)) {
@@ -221,37 +259,31 @@ public class ResourcesObfuscator {
                             resourceId
                     ));
                 } else {
-                    String name = guardStringBuilder.getReplaceString(obfuscationList);
-                    obfuscationList.add(name);
+                    String name = obfuscationList.next();
                     String obfuscatedResourceName = AppBundleUtils.getResourceFullName(entry.getPackage().getPackageName(), entry.getType().getName(), name);
                     resourcesMapping.putResourceMapping(resourceName, obfuscatedResourceName);
                 }
             }
-            typeEntryMapping.put(entry.getType().getName(), obfuscationList);
         });
     }
 
     /**
      * Obfuscate module entries and return the mapping rules.
      */
-    private Map<String, String> obfuscateModuleEntries(BundleModule bundleModule, Map<String, Set<String>> typeMappingMap) {
-        ResGuardStringBuilder guardStringBuilder = new ResGuardStringBuilder();
-        guardStringBuilder.reset(null);
+    private Map<String, String> obfuscateModuleEntries(BundleModule bundleModule, Map<String, ResGuardNameAllocator> typeMappingMap) {
         Map<String, String> obfuscateEntries = new HashMap<>();
+        // reverse index of obfuscateEntries, to find the collisions without scanning the values
+        Set<String> obfuscatedPaths = new HashSet<>();
 
         bundleModule.getEntries().stream()
                 .filter(entry -> entry.getPath().startsWith(BundleModule.RESOURCES_DIRECTORY))
                 .forEach(entry -> {
-                    guardStringBuilder.reset(null);
                     String entryDir = entry.getPath().getParent().toString();
                     String obfuscateDir = resourcesMapping.getDirMapping().get(entryDir);
                     if (obfuscateDir == null) {
                         throw new RuntimeException(String.format("can not find resource directory: %s", entryDir));
                     }
-                    Set<String> mapping = typeMappingMap.get(obfuscateDir);
-                    if (mapping == null) {
-                        mapping = new HashSet<>();
-                    }
+                    ResGuardNameAllocator mapping = typeMappingMap.computeIfAbsent(obfuscateDir, key -> new ResGuardNameAllocator());
 
                     String bundleRawPath = bundleModule.getName().getName() + "/" + entry.getPath().toString();
                     String bundleObfuscatedPath = resourcesMapping.getEntryFilesMapping().get(bundleRawPath);
@@ -264,20 +296,18 @@ public class ResourcesObfuscator {
                             return;
                         } else {
                             String fileSuffix = FileOperation.getFileSuffix(entry.getPath());
-                            String obfuscatedName = guardStringBuilder.getReplaceString(mapping);
-                            mapping.add(obfuscatedName);
+                            String obfuscatedName = mapping.next();
                             bundleObfuscatedPath = obfuscateDir + "/" + obfuscatedName + fileSuffix;
                             resourcesMapping.putEntryFileMapping(bundleRawPath, bundleObfuscatedPath);
                         }
                     }
-                    if (obfuscateEntries.values().contains(bundleObfuscatedPath)) {
+                    if (!obfuscatedPaths.add(bundleObfuscatedPath)) {
                         throw new IllegalArgumentException(
                                 String.format("Multiple entries with same key: %s -> %s",
                                         bundleRawPath, bundleObfuscatedPath)
                         );
                     }
                     obfuscateEntries.put(bundleRawPath, bundleObfuscatedPath);
-                    typeMappingMap.put(obfuscateDir, mapping);
                 });
         return obfuscateEntries;
     }
@@ -289,20 +319,33 @@ public class ResourcesObfuscator {
      *
      * @param bundleModule       存储了所有文件信息
      * @param obfuscatedEntryMap 需要混淆的资源文件信息  key-资源路径，value-混淆之后的相对路径
+     * @param moduleMapping      收集当前 module 的混淆记录
      */
-    private BundleModule obfuscateBundleModule(BundleModule bundleModule, Map<String, String> obfuscatedEntryMap) throws IOException {
+    private BundleModule obfuscateBundleModule(BundleModule bundleModule, Map<String, String> obfuscatedEntryMap, ResourcesMapping moduleMapping) throws IOException {
         BundleModule.Builder builder = bundleModule.toBuilder();
 
-        // obfuscate module entries
-        List<ModuleEntry> obfuscateEntries = new ArrayList<>();
+        // obfuscate module entries, every entry collects its own records which are merged in entry order.
+        List<Callable<ObfuscatedEntry>> tasks = new ArrayList<>();
         for (ModuleEntry entry : bundleModule.getEntries()) {
             String bundleRawPath = bundleModule.getName().getName() + "/" + entry.getPath().toString();
             String obfuscatedPath = obfuscatedEntryMap.get(bundleRawPath);
             if (obfuscatedPath != null) {
-                byte[] orgByte = AppBundleUtils.readByte(bundleZipFile, entry, bundleModule);
-                byte[] obfuscatorByte = obfuscatorResContent(bundleRawPath, obfuscatedPath, orgByte);
-                ModuleEntry obfuscatedEntry = InMemoryModuleEntry.ofFile(obfuscatedPath, obfuscatorByte);
-                obfuscateEntries.add(obfuscatedEntry);
+                String extension = FileUtils.getFileExtensionFromUrl(bundleRawPath).toLowerCase();
+                if (!shouldBeFilterContent(bundleRawPath) || !(isObfuscateImage(extension) || isObfuscateXml(extension))) {
+                    // only the path changes, the content is not read and is copied as is by the packager.
+                    tasks.add(() -> new ObfuscatedEntry(new RenamedModuleEntry(ZipPath.create(obfuscatedPath), entry, bundleRawPath), null));
+                    continue;
+                }
+                tasks.add(() -> {
+                    ResourcesMapping entryMapping = new ResourcesMapping();
+                    byte[] orgByte = AppBundleUtils.readByte(bundleSource, entry, bundleModule);
+                    byte[] obfuscatorByte = obfuscateContentCached(CACHE_KIND_RES, bundleRawPath, obfuscatedPath, orgByte, entryMapping,
+                            () -> obfuscatorResContent(bundleRawPath, obfuscatedPath, orgByte, entryMapping));
+                    ModuleEntry obfuscatedEntry = obfuscatorByte == orgByte
+                            ? new RenamedModuleEntry(ZipPath.create(obfuscatedPath), entry, bundleRawPath)
+                            : entryStore.create(obfuscatedPath, obfuscatorByte);
+                    return new ObfuscatedEntry(obfuscatedEntry, entryMapping);
+                });
             } else {
                 //如果不是资源文件会走到这儿来
                 // root
@@ -310,32 +353,101 @@ public class ResourcesObfuscator {
                 // lib
                 // dex
                 String extension = FileUtils.getFileExtensionFromUrl(bundleRawPath).toLowerCase();
-                if (isObfuscateFile(extension) && shouldBeFilterContent(bundleRawPath)) {
-                    byte[] orgByte = AppBundleUtils.readByte(bundleZipFile, entry, bundleModule);
-
-                    byte[] obfuscatorByte = obfuscatorRawContent(bundleRawPath, orgByte);
-                    ModuleEntry obfuscatedEntry = InMemoryModuleEntry.ofFile(entry.getPath().toString(), obfuscatorByte);
-                    obfuscateEntries.add(obfuscatedEntry);
+                BundleSource.Entry storedSo = isObfuscateSo(extension) && shouldBeFilterContent(bundleRawPath)
+                        ? getStoredSourceEntry(entry, bundleRawPath)
+                        : null;
+                if (storedSo != null) {
+                    // the stored library is read from the mapping and streamed to the entry store, it is not cached.
+                    tasks.add(() -> new ObfuscatedEntry(obfuscateStoredSo(entry, bundleRawPath, storedSo), null));
+                } else if (isObfuscateFile(extension) && shouldBeFilterContent(bundleRawPath)) {
+                    tasks.add(() -> {
+                        ResourcesMapping entryMapping = new ResourcesMapping();
+                        byte[] orgByte = AppBundleUtils.readByte(bundleSource, entry, bundleModule);
+                        byte[] obfuscatorByte = obfuscateContentCached(CACHE_KIND_RAW, bundleRawPath, bundleRawPath, orgByte, entryMapping,
+                                () -> obfuscatorRawContent(bundleRawPath, orgByte, entryMapping));
+                        ModuleEntry obfuscatedEntry = obfuscatorByte == orgByte
+                                ? entry
+                                : entryStore.create(entry.getPath().toString(), obfuscatorByte);
+                        return new ObfuscatedEntry(obfuscatedEntry, entryMapping);
+                    });
                 } else {
-                    obfuscateEntries.add(entry);
+                    tasks.add(() -> new ObfuscatedEntry(entry, null));
                 }
             }
         }
+        List<ObfuscatedEntry> results;
+        if (maxThreads > 1 && tasks.size() > 1) {
+            results = ThreadUtils.invokeBounded(maxThreads, maxThreads * 2, tasks);
+        } else {
+            results = new ArrayList<>(tasks.size());
+            for (Callable<ObfuscatedEntry> task : tasks) {
+                results.add(call(task));
+            }
+        }
+        List<ModuleEntry> obfuscateEntries = new ArrayList<>(results.size());
+        for (ObfuscatedEntry result : results) {
+            obfuscateEntries.add(result.entry);
+            if (result.mapping != null) {
+                moduleMapping.merge(result.mapping);
+            }
+        }
         builder.setRawEntries(obfuscateEntries);
 
         // obfuscate resourceTable
-        Resources.ResourceTable obfuscatedResTable = obfuscateResourceTable(bundleModule, obfuscatedEntryMap);
+        Resources.ResourceTable obfuscatedResTable = obfuscateResourceTable(bundleModule, obfuscatedEntryMap, moduleMapping);
         if (obfuscatedResTable != null) {
             builder.setResourceTable(obfuscatedResTable);
         }
         return builder.build();
     }
 
-    private byte[] obfuscatorRawContent(String bundleRawPath, byte[] orgByte) {
+    /**
+     * Returns the content obfuscated by {@code obfuscation}, or the one of a previous build from the cache.
+     * <p>
+     * The key holds everything the obfuscation depends on besides the content: the kind of obfuscation, the extension,
+     * whether the file is a nine patch, and the seed with the path when the seed is set. The mapping record is cached
+     * with the content and added again under the key of the current paths.
+     *
+     * @param kind {@link #CACHE_KIND_RES} or {@link #CACHE_KIND_RAW}, the resources and the other files are obfuscated
+     *             differently.
+     */
+    private byte[] obfuscateContentCached(String kind, String bundleRawPath, String obfuscatedPath, byte[] orgByte,
+                                          ResourcesMapping entryMapping, Callable<byte[]> obfuscation) throws IOException {
+        if (obfuscationCache == null) {
+            return call(obfuscation);
+        }
+        String key = obfuscationCache.newKey(
+                orgByte,
+                kind,
+                FileUtils.getFileExtensionFromUrl(bundleRawPath).toLowerCase(),
+                String.valueOf(FileUtils.getFileName(bundleRawPath).endsWith(".9.png")),
+                obfuscationSeed != null ? obfuscationSeed + ":" + bundleRawPath : ""
+        );
+        String recordKey = ResourcesMapping.getRecordKey(bundleRawPath, obfuscatedPath);
+        ObfuscationCache.Entry cached = obfuscationCache.get(key);
+        if (cached != null) {
+            if (cached.getImageRecord() != null) {
+                entryMapping.putImageRecord(recordKey, cached.getImageRecord());
+            }
+            if (cached.getXmlRecord() != null) {
+                entryMapping.putXmlRecord(recordKey, cached.getXmlRecord());
+            }
+            return cached.getContent() != null ? cached.getContent() : orgByte;
+        }
+        byte[] obfuscatedByte = call(obfuscation);
+        obfuscationCache.put(key, new ObfuscationCache.Entry(
+                obfuscatedByte == orgByte ? null : obfuscatedByte,
+                entryMapping.getImageRecord(recordKey),
+                entryMapping.getXmlRecord(recordKey)
+        ));
+        return obfuscatedByte;
+    }
+
+    private byte[] obfuscatorRawContent(String bundleRawPath, byte[] orgByte, ResourcesMapping moduleMapping) {
         try {
             String extension = FileUtils.getFileExtensionFromUrl(bundleRawPath).toLowerCase();
             if (isObfuscateImage(extension)) {
-                return obfuscatorRandomPixel(bundleRawPath, bundleRawPath, orgByte, extension);
+                return imagePixelObfuscator.obfuscate(bundleRawPath, bundleRawPath, orgByte, extension, moduleMapping);
             } else if (isObfuscateSo(extension)) {
                 return obfuscateSo(bundleRawPath, orgByte);
             }
@@ -353,16 +465,16 @@ public class ResourcesObfuscator {
      * @return
      * @throws IOException
      */
-    private byte[] obfuscatorResContent(String bundleRawPath, String obfuscatedPath, byte[] orgByte) throws IOException {
+    private byte[] obfuscatorResContent(String bundleRawPath, String obfuscatedPath, byte[] orgByte, ResourcesMapping moduleMapping) throws IOException {
         try {
             if (!shouldBeFilterContent(bundleRawPath)) {
                 return orgByte;
             }
             String extension = FileUtils.getFileExtensionFromUrl(bundleRawPath).toLowerCase();
             if (isObfuscateImage(extension)) {
-                return obfuscatorRandomPixel(bundleRawPath, obfuscatedPath, orgByte, extension);
+                return imagePixelObfuscator.obfuscate(bundleRawPath, obfuscatedPath, orgByte, extension, moduleMapping);
             } else if (isObfuscateXml(extension)) {
-                return obfuscatorXml(bundleRawPath, obfuscatedPath, orgByte);
+                return obfuscatorXml(bundleRawPath, obfuscatedPath, orgByte, moduleMapping);
             }
         } catch (Exception e) {
             //
@@ -379,101 +491,26 @@ public class ResourcesObfuscator {
      * @return
      * @throws IOException
      */
-    private byte[] obfuscatorXml(String rawPath, String obfuscatedPath, byte[] orgByte) throws IOException {
+    private byte[] obfuscatorXml(String rawPath, String obfuscatedPath, byte[] orgByte, ResourcesMapping moduleMapping) throws IOException {
         try {
             Resources.XmlNode xmlNode = Resources.XmlNode.parseFrom(orgByte);
             XmlProtoNode xml = new XmlProtoNode(xmlNode);
             XmlProtoElementBuilder element = xml.toBuilder().getElement();
 
-            String prefix = "magic_minify" + new Random().nextInt(9999);
+            String prefix = "magic_minify" + imagePixelObfuscator.newRandom(rawPath).nextInt(9999);
             String RES_AUTO_NS = "http://schemas.android.com/apk/res-auto";
             byte[] afterByte = xml.toBuilder().setElement(element.addNamespaceDeclaration(prefix, RES_AUTO_NS))
                     .build()
                     .getProto()
                     .toByteArray();
-            resourcesMapping.putXmlMapping(rawPath, obfuscatedPath, prefix + ":" + RES_AUTO_NS, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(afterByte));
-            return afterByte;
-        } catch (Exception e) {
-            resourcesMapping.putXmlMapping(rawPath, obfuscatedPath, e.getMessage(), DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(orgByte));
-            return orgByte;
-        }
-    }
-
-
-    /**
-     * 混淆图片随机像素点
-     *
-     * @param rawPath
-     * @param orgByte
-     * @param extension
-     * @return
-     */
-    private byte[] obfuscatorRandomPixel(String rawPath, String obfuscatedPath, byte[] orgByte, String extension) {
-        try {
-            String fileName = FileUtils.getFileName(rawPath);
-            //如果是点9图不混淆
-            if (fileName.endsWith(".9.png")) {
-                return orgByte;
-            }
-
-            InputStream inputStream = new ByteArrayInputStream(orgByte);
-            BufferedImage imgsrc = GraphicsUtilities.loadCompatibleImage(inputStream); // ImageIO.read(inputStream);
-
-            int width = imgsrc.getWidth();
-            int height = imgsrc.getHeight();
-            //随机处理一个像素点
-            if (width <= 5 || height <= 5) {
-                return orgByte;
-            }
-            int w = Math.min(new Random().nextInt(width) + 2, width - 1);
-            int h = Math.min(new Random().nextInt(height) + 2, height - 1);
-            int pixel = imgsrc.getRGB(w, h);
-            Color color = new Color(pixel);
-            int red = color.getRed() + 1;
-            if (red > 255) {
-                red = 255;
-            }
-
-            int green = color.getGreen() - 1;
-            if (green < 0) {
-                green = 0;
-            }
-
-            int blue = color.getBlue() + 1;
-            if (blue > 255) {
-                blue = 255;
-            }
-            color = new Color(red, green, blue);
-            imgsrc.setRGB(w, h, color.getRGB());
-
-            byte[] afterByte = bufferedImageToByteArray(imgsrc, extension);
-            resourcesMapping.putImageMapping(rawPath, obfuscatedPath, w, h, width, height, color, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(afterByte));
+            moduleMapping.putXmlMapping(rawPath, obfuscatedPath, prefix + ":" + RES_AUTO_NS, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(afterByte));
             return afterByte;
         } catch (Exception e) {
-            try {
-                InputStream inputStream = new ByteArrayInputStream(orgByte);
-                BufferedImage imgsrc = ImageIO.read(inputStream);
-                resourcesMapping.putImageMapping(rawPath, obfuscatedPath, -1, -1, imgsrc.getWidth(), imgsrc.getHeight(), null, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(orgByte));
-            } catch (Exception ex) {
-                resourcesMapping.putImageMapping(rawPath, obfuscatedPath, -1, -1, -1, -1, null, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(orgByte));
-            }
+            moduleMapping.putXmlMapping(rawPath, obfuscatedPath, e.getMessage(), DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(orgByte));
             return orgByte;
         }
     }
 
-    /**
-     * 将BufferedImage转换为byte[]
-     *
-     * @param image
-     * @return
-     */
-    private byte[] bufferedImageToByteArray(BufferedImage image, String extension) throws IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        ImageIO.write(image, extension, os);
-        byte[] b = os.toByteArray();
-        os.close();
-        return b;
-    }
 
     private boolean isObfuscateFile(String extension) {
         return isObfuscateImage(extension) || isObfuscateXml(extension) || isObfuscateSo(extension);
@@ -495,18 +532,18 @@ public class ResourcesObfuscator {
     /**
      * Obfuscate resourceTable.
      */
-    private Resources.ResourceTable obfuscateResourceTable(BundleModule bundleModule, Map<String, String> obfuscatedEntryMap) {
+    private Resources.ResourceTable obfuscateResourceTable(BundleModule bundleModule, Map<String, String> obfuscatedEntryMap, ResourcesMapping moduleMapping) {
         if (!bundleModule.getResourceTable().isPresent()) {
             return null;
         }
         Resources.ResourceTable resourceTable = bundleModule.getResourceTable().get();
 
-        ResourcesTableBuilder resourcesTableBuilder = new ResourcesTableBuilder();
-        ResourcesUtils.entries(resourceTable).map(entry -> {
+        // only the renamed entries and the entries with obfuscated files are copied.
+        return new ResourceTableEditor(resourceTable).updateEntries(entry -> {
             String resourceName = AppBundleUtils.getResourceFullName(entry);
             String resourceId = entry.getResourceId().toString();
             String obfuscatedResName = resourcesMapping.getResourceMapping().get(resourceName);
-            resourcesMapping.addResourceNameAndId(resourceName, resourceId);
+            moduleMapping.addResourceNameAndId(resourceName, resourceId);
 
             Resources.Entry obfuscatedEntry = entry.getEntry();
             if (obfuscatedResName != null) {
@@ -516,35 +553,24 @@ public class ResourcesObfuscator {
             }
 
             // update config values
-            List<Resources.ConfigValue> configValues = Stream.of(obfuscatedEntry)
-                    .map(Resources.Entry::getConfigValueList)
-                    .flatMap(Collection::stream)
-                    .map(configValue -> {
-                        if (!configValue.getValue().getItem().hasFile()) {
-                            return configValue;
-                        }
-                        String rawPath = configValue.getValue().getItem().getFile().getPath();
-                        String bundleRawPath = bundleModule.getName().getName() + "/" + rawPath;
-                        String obfuscatedPath = obfuscatedEntryMap.get(bundleRawPath);
-                        if (obfuscatedPath != null) {
-                            resourcesMapping.addResourcePathAndId(bundleRawPath, resourceId);
-                            resourcesMapping.putEntryFileMapping(bundleRawPath, obfuscatedPath);
-                            return ResourcesTableOperation.replaceEntryPath(configValue, obfuscatedPath);
-                        }
-                        return configValue;
-                    })
-                    .collect(Collectors.toList());
-            if (configValues.size() > 0) {
-                obfuscatedEntry = updateEntryConfigValueList(obfuscatedEntry, configValues);
-            }
-
-            return ResourceTableEntry.create(entry.getPackage(), entry.getType(), obfuscatedEntry);
-        }).forEach(entry -> {
-            checkConfiguration(entry.getEntry());
-            resourcesTableBuilder.addPackage(entry.getPackage()).addResource(entry.getType(), entry.getEntry());
-        });
+            obfuscatedEntry = ResourceTableEditor.updateConfigValues(obfuscatedEntry, configValue -> {
+                if (!configValue.getValue().getItem().hasFile()) {
+                    return configValue;
+                }
+                String rawPath = configValue.getValue().getItem().getFile().getPath();
+                String bundleRawPath = bundleModule.getName().getName() + "/" + rawPath;
+                String obfuscatedPath = obfuscatedEntryMap.get(bundleRawPath);
+                if (obfuscatedPath != null) {
+                    moduleMapping.addResourcePathAndId(bundleRawPath, resourceId);
+                    moduleMapping.putEntryFileMapping(bundleRawPath, obfuscatedPath);
+                    return ResourcesTableOperation.replaceEntryPath(configValue, obfuscatedPath);
+                }
+                return configValue;
+            });
 
-        return resourcesTableBuilder.build();
+            checkConfiguration(obfuscatedEntry);
+            return obfuscatedEntry;
+        }).build();
     }
 
     private void checkResMappingRules() {
@@ -565,13 +591,7 @@ public class ResourcesObfuscator {
         if (resourceName.startsWith(RESOURCE_ANDROID_PREFIX)) {
             return false;
         }
-        for (String rule : whiteListRules) {
-            Pattern filterPattern = Pattern.compile(Utils.convertToPatternString(rule));
-            if (filterPattern.matcher(resourceName).matches()) {
-                return false;
-            }
-        }
-        return true;
+        return !whiteListMatcher.matches(resourceName);
     }
 
     /**
@@ -590,7 +610,7 @@ public class ResourcesObfuscator {
     }
 
     /**
-     * 混淆so库
+     * 混淆so库，在 ELF 文件中插入一个不加载的随机字符串 section
      *
      * @param rawPath
      * @param bytes
@@ -598,109 +618,72 @@ public class ResourcesObfuscator {
      * @throws IOException
      */
     private byte[] obfuscateSo(String rawPath, byte[] bytes) throws IOException {
-        //创建一个临时目录
-        String relativePath = new File(rawPath).getParent();
-        File orgSoFile = new File("org_so/" + relativePath);
-        if (orgSoFile.exists()) {
-            orgSoFile.delete();
-        }
-        orgSoFile.mkdirs();
-
-        //生成一个临时的so文件
-        String soName = FileUtils.getFileName(rawPath);
-        File soFile = new File(orgSoFile, soName);
-        FileOutputStream fos = new FileOutputStream(soFile);
-        IOUtils.write(bytes, fos);
-
+        String sectionContent = newSoSectionContent(rawPath);
         try {
-            //拷贝llvm命令，获取objcopy命令路径
-            String sourceResourcesPath = "llvm/";
-            String destinationDir = "llvm";
-            ResourceCopier.copyResourcesFromJar(sourceResourcesPath, destinationDir);
-
-            String cmdName = "";
-            if (OSDetection.isWindows()) {
-                cmdName = "windows" + File.separator + "llvm-objcopy.exe";
-            } else if (OSDetection.isMacOSX()) {
-                cmdName = "macosx" + File.separator + "llvm-objcopy";
-            }
-
-            Path objCopyPath = Paths.get(destinationDir, cmdName);
-            String cmdPath = objCopyPath.toFile().getAbsolutePath();
-            ConsoleColors.redPrintln("cmdPath:" + cmdPath);
-
-            executionCommand(cmdPath);
-
-            //生成写入so库ELFHeader随机字符串
-            Path outPutFile = Paths.get(destinationDir, "output.txt");
-            String outPutFileContent = UUID.randomUUID() + ":" + String.valueOf(System.currentTimeMillis());
-            Files.write(outPutFile, outPutFileContent.getBytes(), StandardOpenOption.CREATE);
-            String outputFileString = outPutFile.toFile().getAbsolutePath();
-            ConsoleColors.redPrintln("outputFileString:" + outputFileString);
+            byte[] obfuscatedBytes = new ElfSectionInjector(bytes).addSection(SO_SECTION_NAME, sectionContent.getBytes());
+            printObfuscateSO(rawPath, sectionContent);
+            return obfuscatedBytes;
+        } catch (ElfException e) {
+            ConsoleColors.redPrintln("obfuscate so failed: " + rawPath + ", " + e.getMessage());
+        }
+        return bytes;
+    }
 
-            String keyStr = ".mywaw";
+    /**
+     * Returns the input bundle entry of a so library left untouched by the previous stages and stored without
+     * compression, or null.
+     */
+    private BundleSource.Entry getStoredSourceEntry(ModuleEntry entry, String bundleRawPath) {
+        if (!bundleSource.isSourceModuleEntry(entry)) {
+            return null;
+        }
+        BundleSource.Entry sourceEntry = bundleSource.getEntry(bundleRawPath);
+        return sourceEntry != null && sourceEntry.getMethod() == BundleSource.METHOD_STORED ? sourceEntry : null;
+    }
 
-            //插入随机字符串之后so生成的目录
-            File obfuscatorSoFile = new File("obfuscator_so/" + relativePath);
-            if (obfuscatorSoFile.exists()) {
-                obfuscatorSoFile.delete();
-            }
-            obfuscatorSoFile.mkdirs();
-            String obfuscatorSoFileString = obfuscatorSoFile.getAbsolutePath() + "/" + soFile.getName();
-            ConsoleColors.redPrintln("obfuscatorSoFileString:" + obfuscatorSoFileString);
-
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    cmdPath,
-                    "--add-section",
-                    keyStr + "=" + "" + outputFileString,
-                    "--set-section-flags", keyStr + "=noload,readonly",
-                    soFile.getAbsolutePath(),
-                    obfuscatorSoFileString
-            );
-
-            Process process = processBuilder.start();
-            int exitCode = process.waitFor();
-            ConsoleColors.greenPrintln("result:" + soFile.getAbsolutePath() + ":" + exitCode);
-            if (exitCode == 0) {
-                printObfuscateSO(obfuscatorSoFileString);
-                //如果混淆成功就替换原始的字节数组
-                return Files.readAllBytes(Paths.get(obfuscatorSoFileString));
+    /**
+     * Same as {@link #obfuscateSo(String, byte[])} for a stored library: the ELF file is parsed from the memory
+     * mapped bundle, and the original bytes are copied from the mapping to the new entry without being loaded onto
+     * the heap first.
+     */
+    private ModuleEntry obfuscateStoredSo(ModuleEntry entry, String rawPath, BundleSource.Entry sourceEntry) throws IOException {
+        String sectionContent = newSoSectionContent(rawPath);
+        try (ByteProvider provider = bundleSource.getByteProvider(sourceEntry)) {
+            ElfSectionInjector.InjectedSection section;
+            try {
+                section = new ElfSectionInjector(provider).prepareSection(SO_SECTION_NAME, sectionContent.getBytes());
+            } catch (ElfException | IOException e) {
+                ConsoleColors.redPrintln("obfuscate so failed: " + rawPath + ", " + e.getMessage());
+                return entry;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            ModuleEntry obfuscatedEntry = entryStore.create(entry.getPath().toString(), section.getLength(), section::writeTo);
+            printObfuscateSO(rawPath, sectionContent);
+            return obfuscatedEntry;
         }
-        return bytes;
     }
 
-    private static void printObfuscateSO(String path) {
-        try {
-            ElfHeader elfHeader = ElfHeader.createElfHeader(RethrowContinuesFactory.INSTANCE, new ByteArrayProvider(Files.readAllBytes(Paths.get(path))));
-            elfHeader.parse();
-
-            ElfSectionHeader header = elfHeader.getSection(".mywaw");
-            ConsoleColors.normalPrintln("addSection is :" + header.getNameAsString() + ",data:" + new String(header.getData()) + ",flags:" + header.getFlags() + ",type:" + header.getTypeAsString());
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Returns the content of the section inserted into the so file, derived from the seed and the path when it is set.
+     */
+    private String newSoSectionContent(String rawPath) {
+        if (obfuscationSeed == null) {
+            return UUID.randomUUID() + ":" + System.currentTimeMillis();
         }
+        Random random = imagePixelObfuscator.newRandom(rawPath);
+        return new UUID(random.nextLong(), random.nextLong()).toString();
     }
 
-    private static void executionCommand(String filePath) {
-        try {
-            File file = new File(filePath);
-            if (file.canRead() && file.exists()) {
-                boolean result = file.setExecutable(true);
-                if (!result) {
-                    ConsoleColors.redPrintln("cmd can not executable");
-                    if (OSDetection.isMacOSX()) {
-                        OS.exec(new String[]{"chomd", "755", filePath});
-                        ConsoleColors.redPrintln("cmd can not executable 755 suc");
-                    }
-                }
-            } else {
-                ConsoleColors.redPrintln("cmd can not read");
-            }
-        } catch (Exception e) {
-            ConsoleColors.redPrintln("cmd 755 " + e.getMessage());
+    private static void printObfuscateSO(String rawPath, String sectionContent) {
+        ConsoleColors.normalPrintln(rawPath + " addSection is :" + SO_SECTION_NAME + ",data:" + sectionContent + ",flags:0,type:SHT_PROGBITS");
+    }
+
+    private static class ObfuscatedEntry {
+        private final ModuleEntry entry;
+        private final ResourcesMapping mapping;
+
+        private ObfuscatedEntry(ModuleEntry entry, ResourcesMapping mapping) {
+            this.entry = entry;
+            this.mapping = mapping;
         }
     }
 }
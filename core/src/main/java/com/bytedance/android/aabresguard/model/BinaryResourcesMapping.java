@@ -0,0 +1,168 @@
+package com.bytedance.android.aabresguard.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Binary form of the resources mapping file, loaded without any text parsing.
+ * <p>
+ * Layout, all the integers are unsigned varints:
+ * <pre>
+ * magic "ARGM", version
+ * string count, then every string as its UTF-8 length and bytes
+ * for every section: pair count, then every pair as the indices of its key and value in the string table
+ * </pre>
+ * The sections are, in this order: dir, resource, entry file, resource id, entry file id, image, xml mapping. Each
+ * string is stored once, so the file is also much smaller than the text one.
+ */
+public class BinaryResourcesMapping {
+
+    public static final String FILE_EXTENSION = ".bin";
+    private static final byte[] MAGIC = {'A', 'R', 'G', 'M'};
+    private static final int VERSION = 1;
+
+    /**
+     * Returns true if the file starts with the header of the binary format.
+     */
+    public static boolean isBinaryMappingFile(Path mappingPath) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        try (FileChannel channel = FileChannel.open(mappingPath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read the whole header
+            }
+            return !buffer.hasRemaining() && Arrays.equals(header, MAGIC);
+        }
+    }
+
+    public static boolean isBinaryMappingPath(Path mappingPath) {
+        return mappingPath.getFileName().toString().endsWith(FILE_EXTENSION);
+    }
+
+    public static ResourcesMapping read(Path mappingPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(mappingPath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    static ResourcesMapping read(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary resources mapping file.");
+        }
+        int version = readVarint(buffer);
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported resources mapping version %d, expected %d.", version, VERSION));
+        }
+
+        String[] strings = new String[readVarint(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarint(buffer)];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        ResourcesMapping mapping = new ResourcesMapping();
+        readSection(buffer, strings, mapping::putDirMapping);
+        readSection(buffer, strings, mapping::putResourceMapping);
+        readSection(buffer, strings, mapping::putEntryFileMapping);
+        readSection(buffer, strings, mapping::addResourceNameAndId);
+        readSection(buffer, strings, mapping::addResourcePathAndId);
+        readSection(buffer, strings, mapping::putImageRecord);
+        readSection(buffer, strings, mapping::putXmlRecord);
+        return mapping;
+    }
+
+    public static void write(ResourcesMapping mapping, Path mappingPath) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(mappingPath))) {
+            write(mapping, os);
+        }
+    }
+
+    static void write(ResourcesMapping mapping, OutputStream os) throws IOException {
+        List<Map<String, String>> sections = Arrays.asList(
+                mapping.getDirMapping(),
+                mapping.getResourceMapping(),
+                mapping.getEntryFilesMapping(),
+                mapping.getResourcesNameToIdMapping(),
+                mapping.getResourcesPathToIdMapping(),
+                mapping.getImageMapping(),
+                mapping.getXmlMapping()
+        );
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndices = new HashMap<>();
+        ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+        for (Map<String, String> section : sections) {
+            writeVarint(sectionBytes, section.size());
+            for (Map.Entry<String, String> entry : section.entrySet()) {
+                writeVarint(sectionBytes, indexOf(entry.getKey(), strings, stringIndices));
+                writeVarint(sectionBytes, indexOf(entry.getValue(), strings, stringIndices));
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.write(MAGIC);
+        writeVarint(out, VERSION);
+        writeVarint(out, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        sectionBytes.writeTo(out);
+        out.flush();
+    }
+
+    private static void readSection(ByteBuffer buffer, String[] strings, BiConsumer<String, String> consumer) {
+        int count = readVarint(buffer);
+        for (int i = 0; i < count; i++) {
+            String key = strings[readVarint(buffer)];
+            String value = strings[readVarint(buffer)];
+            consumer.accept(key, value);
+        }
+    }
+
+    private static int indexOf(String string, List<String> strings, Map<String, Integer> stringIndices) {
+        return stringIndices.computeIfAbsent(string, key -> {
+            strings.add(key);
+            return strings.size() - 1;
+        });
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in resources mapping file.");
+    }
+
+    private static void writeVarint(OutputStream os, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            os.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        os.write(value);
+    }
+}
@@ -6,7 +6,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -18,22 +20,36 @@ import java.util.stream.Collectors;
  */
 public class ResourcesMapping {
 
-    private Map<String, String> dirMapping = new HashMap<>();
-    private Map<String, String> resourceMapping = new HashMap<>();
-    private Map<String, String> entryFilesMapping = new HashMap<>();
+    public static final String HEADER_DIR_MAPPING = "res dir mapping:";
+    public static final String HEADER_RESOURCE_MAPPING = "res id mapping:";
+    public static final String HEADER_ENTRY_FILES_MAPPING = "res entries path mapping:";
+    public static final String HEADER_IMAGE_MAPPING = "res image mapping :";
+    public static final String HEADER_XML_MAPPING = "res xmlMapping mapping :";
+    /**
+     * Separator of the key and the value in the image and xml mapping sections.
+     */
+    public static final String RECORD_SEPARATOR = "  -> ";
+
+    private Map<String, String> dirMapping = new LinkedHashMap<>();
+    private Map<String, String> resourceMapping = new LinkedHashMap<>();
+    /**
+     * Reverse index of {@link #resourceMapping}, obfuscated resource -> raw resource.
+     */
+    private Map<String, String> obfuscatedResourceMapping = new HashMap<>();
+    private Map<String, String> entryFilesMapping = new LinkedHashMap<>();
 
-    private Map<String, String> resourcesNameToIdMapping = new HashMap<>();
-    private Map<String, String> resourcesPathToIdMapping = new HashMap<>();
+    private Map<String, String> resourcesNameToIdMapping = new LinkedHashMap<>();
+    private Map<String, String> resourcesPathToIdMapping = new LinkedHashMap<>();
 
     /**
      * 图片随机加像素点
      */
-    private Map<String, String> imageMapping = new HashMap<>();
+    private Map<String, String> imageMapping = new LinkedHashMap<>();
 
     /**
      * xml文件随机加命名空间
      */
-    private Map<String, String> xmlMapping = new HashMap<>();
+    private Map<String, String> xmlMapping = new LinkedHashMap<>();
 
     public ResourcesMapping() {
     }
@@ -47,8 +63,12 @@ public class ResourcesMapping {
         return dirMapping;
     }
 
+    /**
+     * Returns a read only view, the mapping is updated by {@link #putResourceMapping(String, String)} and
+     * {@link #removeResourceMapping(String)} to keep the reverse index in sync.
+     */
     public Map<String, String> getResourceMapping() {
-        return resourceMapping;
+        return Collections.unmodifiableMap(resourceMapping);
     }
 
     public Map<String, String> getEntryFilesMapping() {
@@ -60,13 +80,24 @@ public class ResourcesMapping {
     }
 
     public void putResourceMapping(String rawResource, String obfuscateResource) {
-        if (resourceMapping.values().contains(obfuscateResource)) {
+        if (obfuscatedResourceMapping.containsKey(obfuscateResource)) {
             throw new IllegalArgumentException(
                     String.format("Multiple entries: %s -> %s",
                             rawResource, obfuscateResource)
             );
         }
-        resourceMapping.put(rawResource, obfuscateResource);
+        String oldObfuscateResource = resourceMapping.put(rawResource, obfuscateResource);
+        if (oldObfuscateResource != null) {
+            obfuscatedResourceMapping.remove(oldObfuscateResource);
+        }
+        obfuscatedResourceMapping.put(obfuscateResource, rawResource);
+    }
+
+    public void removeResourceMapping(String rawResource) {
+        String obfuscateResource = resourceMapping.remove(rawResource);
+        if (obfuscateResource != null) {
+            obfuscatedResourceMapping.remove(obfuscateResource);
+        }
     }
 
     public void putEntryFileMapping(String rawPath, String obfuscatedPath) {
@@ -82,14 +113,14 @@ public class ResourcesMapping {
             green = color.getGreen();
             blue = color.getBlue();
         }
-        imageMapping.put(rawPath + "(" + obfuscatedPath + ")", "(" + x + "," + y + ") of (w:" + width + ",h:" + height + ")" +
+        imageMapping.put(getRecordKey(rawPath, obfuscatedPath), "(" + x + "," + y + ") of (w:" + width + ",h:" + height + ")" +
                 "->rgb:(" + red + "," + green + "," + blue + ")," +
                 "md5:" + orgMd5 + " -> " + afterMd5 + "," +
                 "result:" + !Objects.equals(orgMd5, afterMd5));
     }
 
     public void putXmlMapping(String rawPath, String obfuscatedPath, String namespace, String orgMd5, String afterMd5) {
-        xmlMapping.put(rawPath + "(" + obfuscatedPath + ")", namespace + ",md5:" + orgMd5 + " -> " + afterMd5 + (",result:" + !Objects.equals(orgMd5, afterMd5)));
+        xmlMapping.put(getRecordKey(rawPath, obfuscatedPath), namespace + ",md5:" + orgMd5 + " -> " + afterMd5 + (",result:" + !Objects.equals(orgMd5, afterMd5)));
     }
 
     public List<String> getPathMappingNameList() {
@@ -111,73 +142,148 @@ public class ResourcesMapping {
     }
 
     /**
-     * Write mapping rules to file.
+     * Appends the records of another mapping in their insertion order.
+     * <p>
+     * Used to join mappings collected per module, so the result does not depend on which module finished first.
+     */
+    public void merge(ResourcesMapping mapping) {
+        dirMapping.putAll(mapping.dirMapping);
+        mapping.resourceMapping.forEach((rawResource, obfuscateResource) -> {
+            if (!obfuscateResource.equals(resourceMapping.get(rawResource))) {
+                putResourceMapping(rawResource, obfuscateResource);
+            }
+        });
+        entryFilesMapping.putAll(mapping.entryFilesMapping);
+        resourcesNameToIdMapping.putAll(mapping.resourcesNameToIdMapping);
+        resourcesPathToIdMapping.putAll(mapping.resourcesPathToIdMapping);
+        imageMapping.putAll(mapping.imageMapping);
+        xmlMapping.putAll(mapping.xmlMapping);
+    }
+
+    /**
+     * Returns a mapping with the obfuscation rules only, without the records of the build which wrote this mapping.
+     */
+    public ResourcesMapping copyRules() {
+        ResourcesMapping rules = new ResourcesMapping();
+        rules.dirMapping.putAll(dirMapping);
+        resourceMapping.forEach(rules::putResourceMapping);
+        rules.entryFilesMapping.putAll(entryFilesMapping);
+        return rules;
+    }
+
+    Map<String, String> getResourcesNameToIdMapping() {
+        return resourcesNameToIdMapping;
+    }
+
+    Map<String, String> getResourcesPathToIdMapping() {
+        return resourcesPathToIdMapping;
+    }
+
+    Map<String, String> getImageMapping() {
+        return imageMapping;
+    }
+
+    Map<String, String> getXmlMapping() {
+        return xmlMapping;
+    }
+
+    /**
+     * Returns the key of the image and xml mapping records of the file.
+     */
+    public static String getRecordKey(String rawPath, String obfuscatedPath) {
+        return rawPath + "(" + obfuscatedPath + ")";
+    }
+
+    public String getImageRecord(String key) {
+        return imageMapping.get(key);
+    }
+
+    public String getXmlRecord(String key) {
+        return xmlMapping.get(key);
+    }
+
+    /**
+     * Adds a line of the image mapping section as it is written in the mapping file.
+     */
+    public void putImageRecord(String key, String value) {
+        imageMapping.put(key, value);
+    }
+
+    /**
+     * Adds a line of the xml mapping section as it is written in the mapping file.
+     */
+    public void putXmlRecord(String key, String value) {
+        xmlMapping.put(key, value);
+    }
+
+    /**
+     * Write mapping rules to file, in the binary format if the file name ends with
+     * {@link BinaryResourcesMapping#FILE_EXTENSION}, in the text format otherwise.
      */
     public void writeMappingToFile(Path mappingPath) throws IOException {
-        Writer writer = new BufferedWriter(new FileWriter(mappingPath.toFile(), false));
-
-        // write resources dir
-        writer.write("res dir mapping:\n");
-        for (Map.Entry<String, String> entry : dirMapping.entrySet()) {
-            writer.write(String.format(
-                    "\t%s -> %s\n",
-                    entry.getKey(),
-                    entry.getValue()
-            ));
+        if (BinaryResourcesMapping.isBinaryMappingPath(mappingPath)) {
+            BinaryResourcesMapping.write(this, mappingPath);
+            return;
         }
-        writer.write("\n\n");
-        writer.flush();
-
-        // write resources name
-        writer.write("res id mapping:\n");
-        for (Map.Entry<String, String> entry : resourceMapping.entrySet()) {
-            writer.write(String.format(
-                    "\t%s : %s -> %s\n",
-                    resourcesNameToIdMapping.get(entry.getKey()),
-                    entry.getKey(),
-                    entry.getValue()
-            ));
-        }
-        writer.write("\n\n");
-        writer.flush();
-
-        // write resources entries path
-        writer.write("res entries path mapping:\n");
-        for (Map.Entry<String, String> entry : entryFilesMapping.entrySet()) {
-            writer.write(String.format(
-                    "\t%s : %s -> %s\n",
-                    resourcesPathToIdMapping.get(entry.getKey()),
-                    entry.getKey(),
-                    entry.getValue()
-            ));
-        }
-        writer.write("\n\n");
-        writer.flush();
-
-        // write image mapping
-        writer.write("res image mapping :\n");
-        for (Map.Entry<String, String> entry : imageMapping.entrySet()) {
-            writer.write(String.format(
-                    "\t%s  -> %s\n",
-                    entry.getKey(),
-                    entry.getValue()
-            ));
-        }
-        writer.write("\n\n");
-        writer.flush();
-
-        // write xml mapping
-        writer.write("res xmlMapping mapping :\n");
-        for (Map.Entry<String, String> entry : xmlMapping.entrySet()) {
-            writer.write(String.format(
-                    "\t%s  -> %s\n",
-                    entry.getKey(),
-                    entry.getValue()
-            ));
+        try (Writer writer = new BufferedWriter(new FileWriter(mappingPath.toFile(), false))) {
+            // write resources dir
+            writer.write(HEADER_DIR_MAPPING + "\n");
+            for (Map.Entry<String, String> entry : dirMapping.entrySet()) {
+                writeLine(writer, entry.getKey(), " -> ", entry.getValue());
+            }
+            writer.write("\n\n");
+
+            // write resources name
+            writer.write(HEADER_RESOURCE_MAPPING + "\n");
+            for (Map.Entry<String, String> entry : resourceMapping.entrySet()) {
+                writeIdLine(writer, resourcesNameToIdMapping.get(entry.getKey()), entry.getKey(), entry.getValue());
+            }
+            writer.write("\n\n");
+
+            // write resources entries path
+            writer.write(HEADER_ENTRY_FILES_MAPPING + "\n");
+            for (Map.Entry<String, String> entry : entryFilesMapping.entrySet()) {
+                writeIdLine(writer, resourcesPathToIdMapping.get(entry.getKey()), entry.getKey(), entry.getValue());
+            }
+            writer.write("\n\n");
+
+            // write image mapping
+            writer.write(HEADER_IMAGE_MAPPING + "\n");
+            for (Map.Entry<String, String> entry : imageMapping.entrySet()) {
+                writeLine(writer, entry.getKey(), RECORD_SEPARATOR, entry.getValue());
+            }
+            writer.write("\n\n");
+
+            // write xml mapping
+            writer.write(HEADER_XML_MAPPING + "\n");
+            for (Map.Entry<String, String> entry : xmlMapping.entrySet()) {
+                writeLine(writer, entry.getKey(), RECORD_SEPARATOR, entry.getValue());
+            }
+            writer.write("\n\n");
         }
-        writer.write("\n\n");
-        writer.flush();
+    }
 
-        writer.close();
+    /**
+     * Writes {@code \tkey<separator>value}.
+     */
+    private static void writeLine(Writer writer, String key, String separator, String value) throws IOException {
+        writer.write('\t');
+        writer.write(key);
+        writer.write(separator);
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    /**
+     * Writes {@code \tid : key -> value}, a missing id is written as "null".
+     */
+    private static void writeIdLine(Writer writer, String id, String key, String value) throws IOException {
+        writer.write('\t');
+        writer.write(String.valueOf(id));
+        writer.write(" : ");
+        writer.write(key);
+        writer.write(" -> ");
+        writer.write(value);
+        writer.write('\n');
     }
 }
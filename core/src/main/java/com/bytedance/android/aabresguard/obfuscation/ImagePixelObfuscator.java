@@ -0,0 +1,125 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import com.bytedance.android.aabresguard.model.ResourcesMapping;
+import com.bytedance.android.aabresguard.utils.FileUtils;
+import com.bytedance.android.aabresguard.utils.ninepatch.GraphicsUtilities;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 混淆图片随机像素点.
+ * <p>
+ * A png only gets a new ancillary chunk from {@link PngChunkObfuscator}, which keeps its pixels and compression. The
+ * other images, and the png files which can not be parsed, are decoded, get the color of one pixel shifted and are
+ * encoded again. It holds no state, so the images can be obfuscated concurrently. When a seed is set, the result of
+ * every file only depends on the seed and the file path, so it is the same whatever the order in which the files are
+ * obfuscated.
+ */
+public class ImagePixelObfuscator {
+
+    private final Long seed;
+
+    /**
+     * @param seed the seed of the obfuscation of every file, or null to obfuscate them randomly on every build.
+     */
+    public ImagePixelObfuscator(Long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns a random generator for the file, seeded from {@link #seed} and the path when the seed is set.
+     */
+    public Random newRandom(String rawPath) {
+        if (seed == null) {
+            return new Random();
+        }
+        return new Random(seed * 31 + rawPath.hashCode());
+    }
+
+    /**
+     * Returns the obfuscated image, or {@code orgByte} itself if it can not be obfuscated.
+     */
+    public byte[] obfuscate(String rawPath, String obfuscatedPath, byte[] orgByte, String extension, ResourcesMapping mapping) {
+        try {
+            String fileName = FileUtils.getFileName(rawPath);
+            //如果是点9图不混淆
+            if (fileName.endsWith(".9.png")) {
+                return orgByte;
+            }
+            //png只修改chunk，不重新编码
+            if (PngChunkObfuscator.isPng(orgByte)) {
+                byte[] afterByte = obfuscatePngChunk(rawPath, obfuscatedPath, orgByte, mapping);
+                if (afterByte != null) {
+                    return afterByte;
+                }
+            }
+
+            InputStream inputStream = new ByteArrayInputStream(orgByte);
+            BufferedImage imgsrc = GraphicsUtilities.loadCompatibleImage(inputStream); // ImageIO.read(inputStream);
+
+            int width = imgsrc.getWidth();
+            int height = imgsrc.getHeight();
+            //随机处理一个像素点
+            if (width <= 5 || height <= 5) {
+                return orgByte;
+            }
+            Random random = newRandom(rawPath);
+            int w = Math.min(random.nextInt(width) + 2, width - 1);
+            int h = Math.min(random.nextInt(height) + 2, height - 1);
+            int pixel = imgsrc.getRGB(w, h);
+            Color color = new Color(pixel);
+            int red = Math.min(color.getRed() + 1, 255);
+            int green = Math.max(color.getGreen() - 1, 0);
+            int blue = Math.min(color.getBlue() + 1, 255);
+            color = new Color(red, green, blue);
+            imgsrc.setRGB(w, h, color.getRGB());
+
+            byte[] afterByte = encode(imgsrc, extension);
+            mapping.putImageMapping(rawPath, obfuscatedPath, w, h, width, height, color, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(afterByte));
+            return afterByte;
+        } catch (Exception e) {
+            try {
+                InputStream inputStream = new ByteArrayInputStream(orgByte);
+                BufferedImage imgsrc = ImageIO.read(inputStream);
+                mapping.putImageMapping(rawPath, obfuscatedPath, -1, -1, imgsrc.getWidth(), imgsrc.getHeight(), null, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(orgByte));
+            } catch (Exception ex) {
+                mapping.putImageMapping(rawPath, obfuscatedPath, -1, -1, -1, -1, null, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(orgByte));
+            }
+            return orgByte;
+        }
+    }
+
+    /**
+     * Returns the png with an obfuscation chunk, or null if it is malformed and must be decoded instead.
+     */
+    private byte[] obfuscatePngChunk(String rawPath, String obfuscatedPath, byte[] orgByte, ResourcesMapping mapping) {
+        PngChunkObfuscator chunkObfuscator = new PngChunkObfuscator();
+        byte[] afterByte;
+        try {
+            afterByte = chunkObfuscator.obfuscate(orgByte, newRandom(rawPath));
+        } catch (IOException e) {
+            return null;
+        }
+        mapping.putImageMapping(rawPath, obfuscatedPath, -1, -1, chunkObfuscator.getWidth(), chunkObfuscator.getHeight(), null, DigestUtils.md5Hex(orgByte), DigestUtils.md5Hex(afterByte));
+        return afterByte;
+    }
+
+    /**
+     * 将BufferedImage转换为byte[]
+     */
+    private static byte[] encode(BufferedImage image, String extension) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, extension, os);
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,238 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of the obfuscated content, shared by the builds using the same directory.
+ * <p>
+ * An entry is keyed by the hash of the raw content and of the parameters which change the obfuscation, see
+ * {@link #newKey(byte[], String...)}, and holds the obfuscated content with the mapping record written for it. So
+ * the resources unchanged since a previous build are not decoded and encoded again. Every read touches the entry,
+ * and the least recently used entries are removed when the cache is closed until it fits in
+ * {@link #setMaxSizeBytes(long)}.
+ */
+public class ObfuscationCache implements Closeable {
+
+    public static final long DEFAULT_MAX_SIZE_BYTES = 512 * 1024 * 1024;
+    private static final int MAGIC = 0x41524743;
+    /**
+     * Bump it when the obfuscation of the content changes, to ignore the entries written by the previous versions.
+     */
+    private static final int VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    private static final int RECORD_NONE = 0;
+    private static final int RECORD_IMAGE = 1;
+    private static final int RECORD_XML = 2;
+
+    private final Path cacheDir;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private long maxSizeBytes = DEFAULT_MAX_SIZE_BYTES;
+
+    public ObfuscationCache(Path cacheDir) throws IOException {
+        this.cacheDir = cacheDir;
+        Files.createDirectories(cacheDir);
+        for (File file : listEntries()) {
+            size.addAndGet(file.length());
+        }
+    }
+
+    public void setMaxSizeBytes(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Returns the key of the content obfuscated with the given parameters, they must hold everything besides the
+     * content the result depends on.
+     */
+    public String newKey(byte[] content, String... parameters) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(Integer.toString(VERSION).getBytes(StandardCharsets.UTF_8));
+        for (String parameter : parameters) {
+            digest.update((byte) 0);
+            digest.update(String.valueOf(parameter).getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        digest.update(content);
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the cached entry, or null if there is none or it can not be read.
+     */
+    public Entry get(String key) {
+        Path path = getEntryPath(key);
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            byte[] content = null;
+            if (is.readBoolean()) {
+                content = new byte[is.readInt()];
+                is.readFully(content);
+            }
+            int recordType = is.readByte();
+            String record = recordType != RECORD_NONE ? is.readUTF() : null;
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            hitCount.incrementAndGet();
+            return new Entry(
+                    content,
+                    recordType == RECORD_IMAGE ? record : null,
+                    recordType == RECORD_XML ? record : null
+            );
+        } catch (IOException e) {
+            // missing, or broken and written again.
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, Entry entry) throws IOException {
+        Path path = getEntryPath(key);
+        Path tempPath = Files.createTempFile(cacheDir, key, ".tmp");
+        try {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeBoolean(entry.content != null);
+                if (entry.content != null) {
+                    os.writeInt(entry.content.length);
+                    os.write(entry.content);
+                }
+                if (entry.imageRecord != null) {
+                    os.writeByte(RECORD_IMAGE);
+                    os.writeUTF(entry.imageRecord);
+                } else if (entry.xmlRecord != null) {
+                    os.writeByte(RECORD_XML);
+                    os.writeUTF(entry.xmlRecord);
+                } else {
+                    os.writeByte(RECORD_NONE);
+                }
+            }
+            long newSize = Files.size(tempPath);
+            // the size of the replaced entry must be read with the move, two puts of the same key would add it twice.
+            synchronized (this) {
+                long oldSize = Files.exists(path) ? Files.size(path) : 0;
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                size.addAndGet(newSize - oldSize);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits in its max size.
+     */
+    public synchronized void trim() {
+        if (size.get() <= maxSizeBytes) {
+            return;
+        }
+        List<File> files = listEntries();
+        files.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size.get() <= maxSizeBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size.addAndGet(-length);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        trim();
+        System.out.println(String.format(
+                "obfuscation cache: %d hits, %d misses, size %d bytes",
+                getHitCount(),
+                getMissCount(),
+                getSize()
+        ));
+    }
+
+    private List<File> listEntries() {
+        File[] files = cacheDir.toFile().listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        return files != null ? new ArrayList<>(Arrays.asList(files)) : new ArrayList<>();
+    }
+
+    private Path getEntryPath(String key) {
+        return cacheDir.resolve(key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * The obfuscated content of an entry and the mapping record written for it.
+     */
+    public static class Entry {
+        private final byte[] content;
+        private final String imageRecord;
+        private final String xmlRecord;
+
+        /**
+         * @param content     the obfuscated content, or null if the content is left unchanged.
+         * @param imageRecord the value of the image mapping record, or null.
+         * @param xmlRecord   the value of the xml mapping record, or null.
+         */
+        public Entry(byte[] content, String imageRecord, String xmlRecord) {
+            this.content = content;
+            this.imageRecord = imageRecord;
+            this.xmlRecord = xmlRecord;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getImageRecord() {
+            return imageRecord;
+        }
+
+        public String getXmlRecord() {
+            return xmlRecord;
+        }
+    }
+}
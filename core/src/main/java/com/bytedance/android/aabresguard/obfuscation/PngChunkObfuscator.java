@@ -0,0 +1,102 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Obfuscates a png file at chunk level, without decoding its pixels.
+ * <p>
+ * A private ancillary chunk holding random bytes is inserted before IEND, the other chunks are copied as they are.
+ * Decoders skip the ancillary chunks they do not know, so the image is unchanged while the file hash is different,
+ * and the original compression of IDAT is kept. A chunk inserted by a previous obfuscation is replaced.
+ */
+public class PngChunkObfuscator {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    /**
+     * ancillary, private, reserved bit unset, safe to copy.
+     */
+    private static final byte[] CHUNK_TYPE = "obFs".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+    private static final int CHUNK_DATA_LENGTH = 8;
+
+    private int width = -1;
+    private int height = -1;
+
+    public static boolean isPng(byte[] content) {
+        return content.length >= SIGNATURE.length
+                && Arrays.equals(Arrays.copyOf(content, SIGNATURE.length), SIGNATURE);
+    }
+
+    /**
+     * Returns the png with the obfuscation chunk filled by {@code random}.
+     *
+     * @throws IOException if the content is not a well formed png, the caller can then fall back to a decoder.
+     */
+    public byte[] obfuscate(byte[] png, Random random) throws IOException {
+        if (!isPng(png)) {
+            throw new IOException("Missing png signature.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        buffer.position(SIGNATURE.length);
+        ByteArrayOutputStream os = new ByteArrayOutputStream(png.length + CHUNK_DATA_LENGTH + 12);
+        os.write(SIGNATURE);
+        while (buffer.remaining() >= 12) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            byte[] type = new byte[4];
+            buffer.get(type);
+            if (length < 0 || (long) length + 4 > buffer.remaining()) {
+                throw new IOException("Truncated png chunk.");
+            }
+            if (Arrays.equals(type, IHDR) && length >= 8) {
+                width = buffer.getInt(buffer.position());
+                height = buffer.getInt(buffer.position() + 4);
+            }
+            buffer.position(buffer.position() + length + 4);
+            if (Arrays.equals(type, CHUNK_TYPE)) {
+                continue;
+            }
+            if (Arrays.equals(type, IEND)) {
+                byte[] data = new byte[CHUNK_DATA_LENGTH];
+                random.nextBytes(data);
+                writeChunk(os, CHUNK_TYPE, data);
+                os.write(png, start, buffer.position() - start);
+                // the bytes after IEND are not part of the image.
+                return os.toByteArray();
+            }
+            os.write(png, start, buffer.position() - start);
+        }
+        throw new IOException("Missing png IEND chunk.");
+    }
+
+    /**
+     * Returns the width read from the IHDR chunk of the last obfuscated png, -1 if it was not found.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height read from the IHDR chunk of the last obfuscated png, -1 if it was not found.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    private static void writeChunk(ByteArrayOutputStream os, byte[] type, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        os.write(ByteBuffer.allocate(4).putInt(data.length).array(), 0, 4);
+        os.write(type, 0, type.length);
+        os.write(data, 0, data.length);
+        os.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array(), 0, 4);
+    }
+}
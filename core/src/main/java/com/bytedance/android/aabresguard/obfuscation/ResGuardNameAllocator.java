@@ -0,0 +1,177 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import com.bytedance.android.aabresguard.utils.Utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+/**
+ * 混淆名称分配器.
+ * <p>
+ * Enumerates the same names as {@link ResGuardStringBuilder} (a-z, then [a-z][0-9_a-z], then
+ * [a-z][0-9_a-z][0-9_a-z] ...) but computes them from an index instead of materialising a candidate list,
+ * the used names are tracked in a {@link BitSet}. So every allocation returns the smallest unused name in
+ * amortised O(1), and names longer than 3 characters are generated once the short ones run out.
+ * <p>
+ * Only the names up to {@link #BIT_SET_NAME_LENGTH} characters are tracked in the {@link BitSet}, a longer name
+ * read from a mapping file is kept in a {@link HashSet} so it does not grow the {@link BitSet} to its index.
+ */
+public class ResGuardNameAllocator {
+
+    private static final String A_TO_Z = "abcdefghijklmnopqrstuvwxyz";
+    private static final String A_TO_ALL = "0123456789_abcdefghijklmnopqrstuvwxyz";
+    private static final int MAX_NAME_LENGTH = 6;
+    private static final int BIT_SET_NAME_LENGTH = 4;
+    /**
+     * The index of the first name longer than {@link #BIT_SET_NAME_LENGTH}.
+     */
+    private static final long BIT_SET_SIZE = indexOf(A_TO_Z.charAt(0) + repeat(A_TO_ALL.charAt(0), BIT_SET_NAME_LENGTH));
+
+    /**
+     * 在window上面有些关键字是不能作为文件名的
+     * CON, PRN, AUX, CLOCK$, NUL
+     * COM1, COM2, COM3, COM4, COM5, COM6, COM7, COM8, COM9
+     * LPT1, LPT2, LPT3, LPT4, LPT5, LPT6, LPT7, LPT8, and LPT9.
+     */
+    private static final HashSet<String> FILE_NAME_BLACK_LIST = new HashSet<>();
+
+    static {
+        FILE_NAME_BLACK_LIST.add("con");
+        FILE_NAME_BLACK_LIST.add("prn");
+        FILE_NAME_BLACK_LIST.add("aux");
+        FILE_NAME_BLACK_LIST.add("nul");
+        for (int i = 1; i <= 9; i++) {
+            FILE_NAME_BLACK_LIST.add("com" + i);
+            FILE_NAME_BLACK_LIST.add("lpt" + i);
+        }
+    }
+
+    private final HashSet<Pattern> blacklistPatterns;
+    private final BitSet used = new BitSet();
+    private final HashSet<Long> farUsed = new HashSet<>();
+    /**
+     * All the indexes below the cursor are used.
+     */
+    private int cursor;
+
+    public ResGuardNameAllocator() {
+        this(null);
+    }
+
+    public ResGuardNameAllocator(HashSet<Pattern> blacklistPatterns) {
+        this.blacklistPatterns = blacklistPatterns;
+    }
+
+    /**
+     * Reserves a name, so it will never be returned by {@link #next()}.
+     * <p>
+     * Names which can not be generated by this allocator are ignored.
+     */
+    public void markUsed(String name) {
+        long index = indexOf(name);
+        if (index >= BIT_SET_SIZE) {
+            farUsed.add(index);
+        } else if (index >= 0) {
+            used.set((int) index);
+        }
+    }
+
+    public void markUsed(Collection<String> names) {
+        if (names == null) return;
+        for (String name : names) {
+            markUsed(name);
+        }
+    }
+
+    public boolean isUsed(String name) {
+        long index = indexOf(name);
+        if (index >= BIT_SET_SIZE && farUsed.contains(index)) {
+            return true;
+        }
+        // next() records the longer names it returns in the BitSet as well.
+        return index >= 0 && index <= Integer.MAX_VALUE && used.get((int) index);
+    }
+
+    /**
+     * Returns the smallest unused name and marks it as used.
+     */
+    public String next() {
+        while (true) {
+            int index = used.nextClearBit(cursor);
+            used.set(index);
+            cursor = index + 1;
+            String name = nameOf(index);
+            if (name == null) {
+                throw new IllegalArgumentException(String.format(
+                        "now can only obfuscation names shorter than %s in a single type\n", MAX_NAME_LENGTH + 1));
+            }
+            if (FILE_NAME_BLACK_LIST.contains(name) || Utils.match(name, blacklistPatterns) || farUsed.contains((long) index)) {
+                continue;
+            }
+            return name;
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the name of the index, or null if the index is out of range.
+     */
+    static String nameOf(long index) {
+        if (index < 0) {
+            return null;
+        }
+        int length = 1;
+        long count = A_TO_Z.length();
+        while (index >= count) {
+            index -= count;
+            length++;
+            if (length > MAX_NAME_LENGTH) {
+                return null;
+            }
+            count *= A_TO_ALL.length();
+        }
+        char[] chars = new char[length];
+        for (int i = length - 1; i > 0; i--) {
+            chars[i] = A_TO_ALL.charAt((int) (index % A_TO_ALL.length()));
+            index /= A_TO_ALL.length();
+        }
+        chars[0] = A_TO_Z.charAt((int) index);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the index of the name, or -1 if the name can not be generated by this allocator.
+     */
+    static long indexOf(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return -1;
+        }
+        int first = A_TO_Z.indexOf(name.charAt(0));
+        if (first < 0) {
+            return -1;
+        }
+        long offset = 0;
+        long count = A_TO_Z.length();
+        for (int i = 1; i < name.length(); i++) {
+            offset += count;
+            count *= A_TO_ALL.length();
+        }
+        long value = first;
+        for (int i = 1; i < name.length(); i++) {
+            int digit = A_TO_ALL.indexOf(name.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * A_TO_ALL.length() + digit;
+        }
+        return offset + value;
+    }
+}
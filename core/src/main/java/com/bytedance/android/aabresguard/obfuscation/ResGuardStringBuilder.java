@@ -13,7 +13,10 @@ import java.util.regex.Pattern;
  * 混淆字典.
  * <p>
  * Copied from: https://github.com/shwenzhang/AndResGuard
+ *
+ * @deprecated use {@link ResGuardNameAllocator}, which does not rebuild the candidate list on every reset.
  */
+@Deprecated
 public class ResGuardStringBuilder {
 
     private final List<String> mReplaceStringBuffer;
@@ -2,6 +2,7 @@ package com.bytedance.android.aabresguard.parser;
 
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 
+import com.bytedance.android.aabresguard.model.BinaryResourcesMapping;
 import com.bytedance.android.aabresguard.model.ResourcesMapping;
 
 import java.io.BufferedReader;
@@ -25,18 +26,41 @@ public class ResourcesMappingParser {
         this.mappingPath = mappingPath;
     }
 
+    /**
+     * Parses the mapping file, the binary and the text formats are told apart by the file header.
+     */
     public ResourcesMapping parse() throws IOException {
+        if (BinaryResourcesMapping.isBinaryMappingFile(mappingPath)) {
+            return BinaryResourcesMapping.read(mappingPath);
+        }
         ResourcesMapping mapping = new ResourcesMapping();
 
         FileReader fr = new FileReader(mappingPath.toFile());
         BufferedReader br = new BufferedReader(fr);
+        String section = null;
         String line = br.readLine();
         while (line != null) {
             if (line.length() <= 0) {
                 line = br.readLine();
                 continue;
             }
-            if (!line.contains(":")) {
+            if (line.startsWith("res ")) {
+                section = line;
+                line = br.readLine();
+                continue;
+            }
+            if (ResourcesMapping.HEADER_IMAGE_MAPPING.equals(section) || ResourcesMapping.HEADER_XML_MAPPING.equals(section)) {
+                int separatorPos = line.lastIndexOf(ResourcesMapping.RECORD_SEPARATOR);
+                if (separatorPos != -1) {
+                    String key = line.substring(0, separatorPos).trim();
+                    String value = line.substring(separatorPos + ResourcesMapping.RECORD_SEPARATOR.length()).trim();
+                    if (ResourcesMapping.HEADER_IMAGE_MAPPING.equals(section)) {
+                        mapping.putImageRecord(key, value);
+                    } else {
+                        mapping.putXmlRecord(key, value);
+                    }
+                }
+            } else if (!line.contains(":")) {
                 Matcher mat = MAP_DIR_PATTERN.matcher(line);
                 if (mat.find()) {
                     String rawName = mat.group(1).trim();
@@ -49,10 +73,14 @@ public class ResourcesMappingParser {
             } else {
                 Matcher mat = MAP_RES_PATTERN.matcher(line);
                 if (mat.find()) {
+                    String id = mat.group(1).trim();
                     String rawName = mat.group(2).trim();
                     String obfuscateName = mat.group(3).trim();
                     if (line.contains("/")) {
                         mapping.putEntryFileMapping(rawName, obfuscateName);
+                        if (!id.equals("null")) {
+                            mapping.addResourcePathAndId(rawName, id);
+                        }
                     } else {
                         int packagePos = rawName.indexOf(".R.");
                         if (packagePos == -1) {
@@ -62,6 +90,9 @@ public class ResourcesMappingParser {
                             ));
                         }
                         mapping.putResourceMapping(rawName, obfuscateName);
+                        if (!id.equals("null")) {
+                            mapping.addResourceNameAndId(rawName, id);
+                        }
                     }
                 }
             }
@@ -1,7 +1,6 @@
 package com.bytedance.android.aabresguard.utils;
 
 import com.android.tools.build.bundletool.model.ZipPath;
-import com.android.tools.build.bundletool.model.utils.files.BufferedIo;
 import com.android.tools.build.bundletool.model.utils.files.FileUtils;
 
 import java.io.BufferedInputStream;
@@ -10,7 +9,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
@@ -109,37 +107,20 @@ public class FileOperation {
     }
 
     public static long getFileSizes(File f) {
-        long size = 0;
         if (f.exists() && f.isFile()) {
-            FileInputStream fis = null;
-            try {
-                fis = new FileInputStream(f);
-                size = fis.available();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (fis != null) {
-                        fis.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            return f.length();
         }
-        return size;
+        return 0;
     }
 
+    /**
+     * Returns the uncompressed size of the entry recorded in the central directory, the entry is not opened.
+     */
     public static long getZipPathFileSize(ZipFile zipFile, ZipEntry zipEntry) {
-        long size = 0;
-        try {
-            InputStream is = BufferedIo.inputStream(zipFile, zipEntry);
-            size = is.available();
-            is.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (zipEntry == null) {
+            return 0;
         }
-        return size;
+        return Math.max(zipEntry.getSize(), 0);
     }
 
     public static void copyFileUsingStream(File source, File dest) throws IOException {
@@ -0,0 +1,130 @@
+package com.bytedance.android.aabresguard.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a string against a set of glob rules, the syntax is the one of {@link Utils#convertToPatternString(String)}.
+ * <p>
+ * The rules are compiled once: rules without any wildcard are looked up in a hash map, the literal prefix of the
+ * other rules is indexed in a trie, so only the rules whose prefix matches the input are checked. Rules ending with
+ * a single {@code *} do not need a regex at all. Rules using other regex syntax are always checked.
+ * <p>
+ * When several rules match, the first one in the iteration order of the given rules wins.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class RuleMatcher {
+
+    private static final String WILDCARDS = "?*+";
+    private static final String REGEX_CHARS = "\\[](){}|^$";
+
+    private final List<String> rules;
+    private final Map<String, Integer> exactRules = new HashMap<>();
+    private final TrieNode root = new TrieNode();
+    private final List<CompiledRule> fallbackRules = new ArrayList<>();
+
+    public RuleMatcher(Collection<String> rules) {
+        this.rules = rules == null ? Collections.emptyList() : new ArrayList<>(rules);
+        for (int i = 0; i < this.rules.size(); i++) {
+            addRule(i, this.rules.get(i));
+        }
+    }
+
+    private void addRule(int index, String rule) {
+        if (containsAny(rule, REGEX_CHARS)) {
+            fallbackRules.add(new CompiledRule(index, Pattern.compile(Utils.convertToPatternString(rule))));
+            return;
+        }
+        int wildcard = indexOfAny(rule, WILDCARDS);
+        if (wildcard < 0) {
+            exactRules.putIfAbsent(rule, index);
+            return;
+        }
+        TrieNode node = root;
+        for (int i = 0; i < wildcard; i++) {
+            node = node.children.computeIfAbsent(rule.charAt(i), c -> new TrieNode());
+        }
+        // "prefix*" matches any string starting with the prefix.
+        Pattern pattern = wildcard == rule.length() - 1 && rule.charAt(wildcard) == '*'
+                ? null
+                : Pattern.compile(Utils.convertToPatternString(rule));
+        node.rules.add(new CompiledRule(index, pattern));
+    }
+
+    /**
+     * Returns the first rule matching the input, or null if no rule matches.
+     */
+    public String getMatchedRule(String input) {
+        int matched = Integer.MAX_VALUE;
+        Integer exact = exactRules.get(input);
+        if (exact != null) {
+            matched = exact;
+        }
+        TrieNode node = root;
+        for (int i = 0; node != null; i++) {
+            // the rules of a node are sorted by index.
+            for (CompiledRule rule : node.rules) {
+                if (rule.index >= matched) {
+                    break;
+                }
+                if (rule.matches(input)) {
+                    matched = rule.index;
+                    break;
+                }
+            }
+            node = i < input.length() ? node.children.get(input.charAt(i)) : null;
+        }
+        for (CompiledRule rule : fallbackRules) {
+            if (rule.index >= matched) {
+                break;
+            }
+            if (rule.matches(input)) {
+                matched = rule.index;
+                break;
+            }
+        }
+        return matched == Integer.MAX_VALUE ? null : rules.get(matched);
+    }
+
+    public boolean matches(String input) {
+        return getMatchedRule(input) != null;
+    }
+
+    private static boolean containsAny(String str, String chars) {
+        return indexOfAny(str, chars) >= 0;
+    }
+
+    private static int indexOfAny(String str, String chars) {
+        for (int i = 0; i < str.length(); i++) {
+            if (chars.indexOf(str.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private final List<CompiledRule> rules = new ArrayList<>();
+    }
+
+    private static class CompiledRule {
+        private final int index;
+        private final Pattern pattern;
+
+        private CompiledRule(int index, Pattern pattern) {
+            this.index = index;
+            this.pattern = pattern;
+        }
+
+        private boolean matches(String input) {
+            return pattern == null || pattern.matcher(input).matches();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.bytedance.android.aabresguard.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for running independent bundle tasks on a bounded worker pool.
+ */
+public class ThreadUtils {
+
+    /**
+     * Returns the default worker count, which is the number of available processors.
+     */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Creates a pool whose parallelism is bounded by both {@code maxThreads} and {@code taskCount}.
+     */
+    public static ForkJoinPool newForkJoinPool(int maxThreads, int taskCount) {
+        int parallelism = Math.max(1, Math.min(maxThreads, taskCount));
+        return new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Executes all tasks and returns their results in the order of {@code tasks}.
+     * <p>
+     * The first failure is rethrown, {@link IOException} is kept as is so callers keep their checked contract.
+     */
+    public static <T> List<T> invokeAll(ForkJoinPool pool, List<? extends Callable<T>> tasks) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(get(future));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the result of the future, the failure of the task is rethrown the same way as
+     * {@link #invokeAll(ForkJoinPool, List)} does.
+     */
+    public static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Executes all tasks on a pool created for this call and shuts it down afterwards.
+     */
+    public static <T> List<T> invokeAll(int maxThreads, List<? extends Callable<T>> tasks) throws IOException {
+        ForkJoinPool pool = newForkJoinPool(maxThreads, tasks.size());
+        try {
+            return invokeAll(pool, tasks);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Executes all tasks like {@link #invokeAll(int, List)}, but never keeps more than {@code maxPendingTasks}
+     * tasks submitted and not yet collected.
+     * <p>
+     * The results are collected in the order of {@code tasks}, so the memory held by the finished tasks waiting for
+     * a slower one stays bounded, which matters when every task holds a decoded image.
+     */
+    public static <T> List<T> invokeBounded(int maxThreads, int maxPendingTasks, List<? extends Callable<T>> tasks) throws IOException {
+        ForkJoinPool pool = newForkJoinPool(maxThreads, tasks.size());
+        Deque<Future<T>> pending = new ArrayDeque<>();
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                if (pending.size() >= Math.max(1, maxPendingTasks)) {
+                    results.add(get(pending.removeFirst()));
+                }
+                pending.addLast(pool.submit(task));
+            }
+            while (!pending.isEmpty()) {
+                results.add(get(pending.removeFirst()));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            pending.forEach(future -> future.cancel(true));
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+}
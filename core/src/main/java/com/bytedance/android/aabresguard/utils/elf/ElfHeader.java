@@ -19,6 +19,7 @@ import com.bytedance.android.aabresguard.utils.elf.ElfRelocationTable.TableForma
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -66,6 +67,10 @@ public class ElfHeader implements  Writeable {
 
 	private boolean parsed = false;
 	private boolean parsedSectionHeaders = false;
+	private boolean parsedDynamicTable = false;
+	private boolean parsedStringTables = false;
+	private boolean parsedSymbolTables = false;
+	private boolean parsedRelocationTables = false;
 
 	private ElfSectionHeader[] sectionHeaders = new ElfSectionHeader[0];
 	private ElfProgramHeader[] programHeaders = new ElfProgramHeader[0];
@@ -192,6 +197,20 @@ public class ElfHeader implements  Writeable {
 	}
 
 	public void parse() throws IOException {
+		parse(false);
+	}
+
+	/**
+	 * Parses the ELF file.
+	 * <p>
+	 * In lazy mode only the program headers and the section headers, with their names,
+	 * are parsed. The dynamic table, string tables, symbol tables and relocation tables
+	 * are parsed on the first access to any of them, which is much cheaper when only
+	 * the sections are needed.
+	 * @param lazy true to parse the tables on demand
+	 * @throws IOException if an I/O error occurs while parsing
+	 */
+	public void parse(boolean lazy) throws IOException {
 
 		if (reader == null) {
 			throw new IOException("ELF binary reader is null!");
@@ -208,17 +227,70 @@ public class ElfHeader implements  Writeable {
 
 		parseSectionHeaders();
 
+		if (!lazy) {
+			parseRelocationTablesOnce();
+		}
+	}
+
+	private void parseDynamicTableOnce() throws IOException {
+		if (parsedDynamicTable) {
+			return;
+		}
+		parsedDynamicTable = true;
 		parseDynamicTable();
+	}
 
+	private void parseStringTablesOnce() throws IOException {
+		if (parsedStringTables) {
+			return;
+		}
+		parseDynamicTableOnce();
+		parsedStringTables = true;
 		parseStringTables();
 		parseDynamicLibraryNames();
+	}
+
+	private void parseSymbolTablesOnce() throws IOException {
+		if (parsedSymbolTables) {
+			return;
+		}
+		parseStringTablesOnce();
+		parsedSymbolTables = true;
 		parseSymbolTables();
+	}
+
+	private void parseRelocationTablesOnce() throws IOException {
+		if (parsedRelocationTables) {
+			return;
+		}
+		parseSymbolTablesOnce();
+		parsedRelocationTables = true;
 		parseRelocationTables();
 
 		parseGNU_d();
 		parseGNU_r();
 	}
 
+	/**
+	 * Parses the tables which were skipped by a lazy {@link #parse(boolean)}.
+	 * @throws IllegalStateException if the header itself has not been parsed yet
+	 */
+	private void parseOnDemand(TableParser parser) {
+		if (!parsed) {
+			throw new IllegalStateException("ELF header has not been parsed");
+		}
+		try {
+			parser.parse();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private interface TableParser {
+		void parse() throws IOException;
+	}
+
 	/**
 	 * Get the installed extension provider.  If the parse method has not yet been 
 	 * invoked, the default adapter will be returned.
@@ -1034,6 +1106,7 @@ public class ElfHeader implements  Writeable {
 		if (getPreLinkImageBase() != -1L) {
 			return true;
 		}
+		ElfDynamicTable dynamicTable = getDynamicTable();
 		if (dynamicTable != null) {
 			if (dynamicTable.containsDynamicValue(ElfDynamicType.DT_GNU_PRELINKED)) {
 				return true;
@@ -1465,6 +1538,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the dynamic table
 	 */
 	public ElfDynamicTable getDynamicTable() {
+		parseOnDemand(this::parseDynamicTableOnce);
 		return dynamicTable;
 	}
 
@@ -1544,6 +1618,7 @@ public class ElfHeader implements  Writeable {
 	 * @return array of dynamic library names
 	 */
 	public String[] getDynamicLibraryNames() {
+		parseOnDemand(this::parseStringTablesOnce);
 		return dynamicLibraryNames;
 	}
 
@@ -1552,6 +1627,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the dynamic string table as defined in this ELF file
 	 */
 	public ElfStringTable getDynamicStringTable() {
+		parseOnDemand(this::parseStringTablesOnce);
 		return dynamicStringTable;
 	}
 
@@ -1560,6 +1636,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the string tables as defined in this ELF file
 	 */
 	public ElfStringTable[] getStringTables() {
+		parseOnDemand(this::parseStringTablesOnce);
 		return stringTables;
 	}
 
@@ -1569,6 +1646,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the string table associated to the specified section header
 	 */
 	public ElfStringTable getStringTable(ElfSectionHeader section) {
+		parseOnDemand(this::parseStringTablesOnce);
 		for (ElfStringTable stringTable : stringTables) {
 			if (stringTable.getFileOffset() == section.getOffset()) {
 				return stringTable;
@@ -1582,6 +1660,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the dynamic symbol table as defined in this ELF file
 	 */
 	public ElfSymbolTable getDynamicSymbolTable() {
+		parseOnDemand(this::parseSymbolTablesOnce);
 		return dynamicSymbolTable;
 	}
 
@@ -1590,6 +1669,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the symbol tables as defined in this ELF file
 	 */
 	public ElfSymbolTable[] getSymbolTables() {
+		parseOnDemand(this::parseSymbolTablesOnce);
 		return symbolTables;
 	}
 
@@ -1602,6 +1682,7 @@ public class ElfHeader implements  Writeable {
 		if (symbolTableSection == null) {
 			return null;
 		}
+		parseOnDemand(this::parseSymbolTablesOnce);
 		for (ElfSymbolTable symbolTable : symbolTables) {
 			if (symbolTable.getFileOffset() == symbolTableSection.getOffset()) {
 				return symbolTable;
@@ -1615,6 +1696,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the relocation tables as defined in this ELF file
 	 */
 	public ElfRelocationTable[] getRelocationTables() {
+		parseOnDemand(this::parseRelocationTablesOnce);
 		return relocationTables;
 	}
 
@@ -1635,6 +1717,7 @@ public class ElfHeader implements  Writeable {
 	 * @return the relocation table located at the specified fileOffset or null
 	 */
 	public ElfRelocationTable getRelocationTableAtOffset(long fileOffset) {
+		parseOnDemand(this::parseRelocationTablesOnce);
 		for (ElfRelocationTable relocationTable : relocationTables) {
 			if (relocationTable.getFileOffset() == fileOffset) {
 				return relocationTable;
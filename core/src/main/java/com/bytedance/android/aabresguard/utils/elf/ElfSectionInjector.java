@@ -0,0 +1,238 @@
+package com.bytedance.android.aabresguard.utils.elf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends a non-loadable section to an ELF file.
+ * <p>
+ * The original bytes are kept as is. The new section data, a copy of the section name
+ * string table extended with the new name, and a copy of the section header table with
+ * the new section are appended to the end of the file, then the ELF header is patched
+ * to point to the new section header table. No program header or loaded content moves,
+ * so the result is equivalent to
+ * <pre>
+ * llvm-objcopy --add-section name=file --set-section-flags name=noload,readonly
+ * </pre>
+ * The result is streamed by {@link InjectedSection#writeTo(OutputStream)}: only the ELF
+ * header and the appended tables are built in memory, the rest of the original file is
+ * copied from the {@link ByteProvider} in chunks.
+ */
+public class ElfSectionInjector {
+
+	private static final int ELF32_SHOFF_OFFSET = 0x20;
+	private static final int ELF32_SHNUM_OFFSET = 0x30;
+	private static final int ELF32_HEADER_SIZE = 0x34;
+	private static final int ELF64_SHOFF_OFFSET = 0x28;
+	private static final int ELF64_SHNUM_OFFSET = 0x3C;
+	private static final int ELF64_HEADER_SIZE = 0x40;
+	private static final int COPY_CHUNK_SIZE = 64 * 1024;
+
+	private final ByteProvider provider;
+	private final ElfHeader elf;
+	private final DataConverter dc;
+
+	/**
+	 * Parses the ELF file.
+	 * @param bytes the bytes of the ELF file
+	 * @throws ElfException if the bytes are not a valid ELF file
+	 * @throws IOException if an I/O error occurs while parsing
+	 */
+	public ElfSectionInjector(byte[] bytes) throws ElfException, IOException {
+		this(new ByteArrayProvider(bytes));
+	}
+
+	/**
+	 * Parses the ELF file.
+	 * @param provider the provider of the ELF file bytes, for example a
+	 * {@link MappedByteProvider} so the original file is not copied onto the heap.
+	 * It must stay open until the section is written.
+	 * @throws ElfException if the bytes are not a valid ELF file
+	 * @throws IOException if an I/O error occurs while parsing
+	 */
+	public ElfSectionInjector(ByteProvider provider) throws ElfException, IOException {
+		this.provider = provider;
+		this.elf = ElfHeader.createElfHeader(RethrowContinuesFactory.INSTANCE, provider);
+		this.elf.parse(true);
+		this.dc = DataConverter.getInstance(elf.isBigEndian());
+	}
+
+	/**
+	 * Returns the parsed ELF header of the original file.
+	 * @return the ELF header
+	 */
+	public ElfHeader getElfHeader() {
+		return elf;
+	}
+
+	/**
+	 * Returns a copy of the ELF file with a new section holding the data.
+	 * @param name the name of the new section
+	 * @param data the content of the new section
+	 * @return the bytes of the new ELF file
+	 * @throws ElfException if the section can not be added, see {@link #prepareSection}
+	 * @throws IOException if an I/O error occurs while reading the sections
+	 */
+	public byte[] addSection(String name, byte[] data) throws ElfException, IOException {
+		InjectedSection section = prepareSection(name, data);
+		if (section.getLength() > Integer.MAX_VALUE) {
+			throw new ElfException("ELF file is too large");
+		}
+		ByteArrayOutputStream os = new ByteArrayOutputStream((int) section.getLength());
+		section.writeTo(os);
+		return os.toByteArray();
+	}
+
+	/**
+	 * Prepares a new section holding the data, the ELF file with the section is
+	 * written by {@link InjectedSection#writeTo(OutputStream)}.
+	 * The section is a {@code SHT_PROGBITS} section without any flag, so it is
+	 * neither loaded nor writable.
+	 * @param name the name of the new section
+	 * @param data the content of the new section
+	 * @return the new section
+	 * @throws ElfException if the file has no section name string table or
+	 * already has a section with the same name
+	 * @throws IOException if an I/O error occurs while reading the sections
+	 */
+	public InjectedSection prepareSection(String name, byte[] data) throws ElfException, IOException {
+		ElfSectionHeader[] sections = elf.getSections();
+		int shstrndx = elf.e_shstrndx() & 0xFFFF;
+		if (sections.length == 0 || shstrndx == ElfSectionHeaderConstants.SHN_UNDEF ||
+			shstrndx >= sections.length) {
+			throw new ElfException("Missing section name string table");
+		}
+		if (sections.length + 1 >= (ElfSectionHeaderConstants.SHN_LORESERVE & 0xFFFF)) {
+			throw new ElfException("Too many sections");
+		}
+		if (elf.getSection(name) != null) {
+			throw new ElfException("Section already exists: " + name);
+		}
+		int elfHeaderSize = elf.is32Bit() ? ELF32_HEADER_SIZE : ELF64_HEADER_SIZE;
+		long originalLength = provider.length();
+		if (originalLength < elfHeaderSize) {
+			throw new ElfException("Truncated ELF header");
+		}
+
+		ElfSectionHeader stringTable = sections[shstrndx];
+		byte[] oldNames = stringTable.getData();
+		byte[] newName = name.getBytes(StandardCharsets.UTF_8);
+		byte[] names = new byte[oldNames.length + newName.length + 1];
+		System.arraycopy(oldNames, 0, names, 0, oldNames.length);
+		System.arraycopy(newName, 0, names, oldNames.length, newName.length);
+
+		int wordSize = elf.is32Bit() ? 4 : 8;
+		int headerSize = elf.e_shentsize() & 0xFFFF;
+		long dataOffset = originalLength;
+		long namesOffset = dataOffset + data.length;
+		long tableOffset = align(namesOffset + names.length, wordSize);
+
+		// the padding before the section header table is left zeroed.
+		byte[] tail = new byte[(int) (tableOffset - namesOffset) + headerSize * (sections.length + 1)];
+		System.arraycopy(names, 0, tail, 0, names.length);
+		int position = (int) (tableOffset - namesOffset);
+		for (int i = 0; i < sections.length; i++) {
+			ElfSectionHeader section = sections[i];
+			if (i == shstrndx) {
+				writeSectionHeader(tail, position, section.getName(), section.getType(),
+					section.getFlags(), section.getAddress(), namesOffset, names.length,
+					section.getLink(), section.getInfo(), section.getAddressAlignment(),
+					section.getEntrySize());
+			}
+			else {
+				writeSectionHeader(tail, position, section.getName(), section.getType(),
+					section.getFlags(), section.getAddress(), section.getOffset(),
+					section.getSize(), section.getLink(), section.getInfo(),
+					section.getAddressAlignment(), section.getEntrySize());
+			}
+			position += headerSize;
+		}
+		writeSectionHeader(tail, position, oldNames.length, ElfSectionHeaderConstants.SHT_PROGBITS,
+			0, 0, dataOffset, data.length, 0, 0, 1, 0);
+
+		byte[] header = provider.readBytes(0, elfHeaderSize);
+		if (elf.is32Bit()) {
+			dc.getBytes((int) tableOffset, header, ELF32_SHOFF_OFFSET);
+			dc.getBytes((short) (sections.length + 1), header, ELF32_SHNUM_OFFSET);
+		}
+		else {
+			dc.getBytes(tableOffset, header, ELF64_SHOFF_OFFSET);
+			dc.getBytes((short) (sections.length + 1), header, ELF64_SHNUM_OFFSET);
+		}
+		return new InjectedSection(header, originalLength, data, tail);
+	}
+
+	private void writeSectionHeader(byte[] out, int position, int sh_name, int sh_type,
+			long sh_flags, long sh_addr, long sh_offset, long sh_size, int sh_link, int sh_info,
+			long sh_addralign, long sh_entsize) {
+		dc.getBytes(sh_name, out, position);
+		dc.getBytes(sh_type, out, position + 4);
+		if (elf.is32Bit()) {
+			dc.getBytes((int) sh_flags, out, position + 8);
+			dc.getBytes((int) sh_addr, out, position + 12);
+			dc.getBytes((int) sh_offset, out, position + 16);
+			dc.getBytes((int) sh_size, out, position + 20);
+			dc.getBytes(sh_link, out, position + 24);
+			dc.getBytes(sh_info, out, position + 28);
+			dc.getBytes((int) sh_addralign, out, position + 32);
+			dc.getBytes((int) sh_entsize, out, position + 36);
+		}
+		else {
+			dc.getBytes(sh_flags, out, position + 8);
+			dc.getBytes(sh_addr, out, position + 16);
+			dc.getBytes(sh_offset, out, position + 24);
+			dc.getBytes(sh_size, out, position + 32);
+			dc.getBytes(sh_link, out, position + 40);
+			dc.getBytes(sh_info, out, position + 44);
+			dc.getBytes(sh_addralign, out, position + 48);
+			dc.getBytes(sh_entsize, out, position + 56);
+		}
+	}
+
+	private static long align(long value, int alignment) {
+		return (value + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * A section prepared by {@link #prepareSection(String, byte[])}.
+	 */
+	public class InjectedSection {
+		private final byte[] header;
+		private final long originalLength;
+		private final byte[] data;
+		private final byte[] tail;
+
+		private InjectedSection(byte[] header, long originalLength, byte[] data, byte[] tail) {
+			this.header = header;
+			this.originalLength = originalLength;
+			this.data = data;
+			this.tail = tail;
+		}
+
+		/**
+		 * Returns the length of the ELF file with the new section.
+		 * @return the length in bytes
+		 */
+		public long getLength() {
+			return originalLength + data.length + tail.length;
+		}
+
+		/**
+		 * Writes the ELF file with the new section: the patched ELF header, the rest
+		 * of the original file, the section data, the section names and the section
+		 * header table.
+		 * @param os the stream to write to, it is not closed
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void writeTo(OutputStream os) throws IOException {
+			os.write(header);
+			for (long index = header.length; index < originalLength; index += COPY_CHUNK_SIZE) {
+				os.write(provider.readBytes(index, Math.min(COPY_CHUNK_SIZE, originalLength - index)));
+			}
+			os.write(data);
+			os.write(tail);
+		}
+	}
+}
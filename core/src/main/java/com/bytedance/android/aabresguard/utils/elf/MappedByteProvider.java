@@ -0,0 +1,124 @@
+package com.bytedance.android.aabresguard.utils.elf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An implementation of {@link ByteProvider} where the underlying bytes are supplied by a
+ * {@link ByteBuffer}, typically a memory mapped region of a file.
+ * <p>
+ * Reads go directly to the page cache, so large files are not copied onto the heap
+ * before being parsed.
+ * <p>
+ * NOTE: the mapping is released by the garbage collector, {@link #close()} only drops
+ * the reference to the buffer.
+ */
+public class MappedByteProvider implements ByteProvider {
+	private ByteBuffer buffer;
+	private final File file;
+	private final String name;
+
+	/**
+	 * Constructs a {@link MappedByteProvider} mapping the whole file read only.
+	 *
+	 * @param file the file to map
+	 * @throws IOException if the file can not be mapped or is larger than 2GB
+	 */
+	public MappedByteProvider(File file) throws IOException {
+		this(map(file), file, file.getName());
+	}
+
+	/**
+	 * Constructs a {@link MappedByteProvider} over the remaining bytes of the buffer,
+	 * for example the slice of a STORED entry in a memory mapped zip file.
+	 *
+	 * @param buffer the underlying buffer, it is not modified
+	 * @param name the name of the {@link ByteProvider}
+	 */
+	public MappedByteProvider(ByteBuffer buffer, String name) {
+		this(buffer.slice(), null, name);
+	}
+
+	private MappedByteProvider(ByteBuffer buffer, File file, String name) {
+		this.buffer = buffer.asReadOnlyBuffer();
+		this.file = file;
+		this.name = name;
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File is too large to be mapped: " + file);
+			}
+			// the mapping stays valid after the channel is closed.
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	@Override
+	public void close() {
+		buffer = ByteBuffer.allocate(0);
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getAbsolutePath() {
+		return file != null ? file.getAbsolutePath() : "";
+	}
+
+	@Override
+	public long length() {
+		return buffer.capacity();
+	}
+
+	@Override
+	public boolean isValidIndex(long index) {
+		return index >= 0 && index < length();
+	}
+
+	/**
+	 * Throws {@link IOException} if index is not a valid position in the buffer
+	 *
+	 * @param index position in buffer to test
+	 * @param inclusiveMax allow buffer.capacity() as index
+	 * @throws IOException if index is out of bounds
+	 */
+	private void assertValidIndex(long index, boolean inclusiveMax) throws IOException {
+		if (index < 0 || index > length() || (!inclusiveMax && index == length())) {
+			throw new IOException(
+				"Invalid position, index: " + index + ", max is: " + length());
+		}
+	}
+
+	@Override
+	public byte readByte(long index) throws IOException {
+		assertValidIndex(index, false);
+		return buffer.get((int) index);
+	}
+
+	@Override
+	public byte[] readBytes(long index, long length) throws IOException {
+		assertValidIndex(index, true);
+		if (length < 0 || index + length > length()) {
+			throw new IOException("Attempt to read beyond end of byte data");
+		}
+		byte[] destBytes = new byte[(int) length];
+		ByteBuffer source = buffer.duplicate();
+		source.position((int) index);
+		source.get(destBytes);
+		return destBytes;
+	}
+}
@@ -1,6 +1,7 @@
 package com.bytedance.android.aabresguard;
 
 
+import com.bytedance.android.aabresguard.android.JarSigner;
 import com.bytedance.android.aabresguard.testing.ProcessThread;
 
 import org.junit.After;
@@ -47,6 +48,13 @@ public class BaseTest {
         return TestData.resourcePath(path);
     }
 
+    /**
+     * Returns the signature of the test keystore, the tests do not depend on the debug keystore of the machine.
+     */
+    protected static JarSigner.Signature loadTestSignature() {
+        return new JarSigner.Signature(loadResourceFile("keystore/test.jks").toPath(), "android", "test", "android");
+    }
+
     protected static boolean executeCmd(String cmd, Object... objects) {
         return ProcessThread.execute(cmd, objects);
     }
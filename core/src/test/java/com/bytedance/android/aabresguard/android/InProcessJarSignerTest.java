@@ -0,0 +1,106 @@
+package com.bytedance.android.aabresguard.android;
+
+import com.bytedance.android.aabresguard.BaseTest;
+import com.bytedance.android.aabresguard.bundle.BundleZipWriter;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class InProcessJarSignerTest extends BaseTest {
+
+    @Test
+    public void testSignedBundleIsVerified() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("BundleConfig.pb", new byte[]{1, 2, 3});
+        entries.put("base/res/drawable/icon.png", "icon".getBytes(StandardCharsets.UTF_8));
+        entries.put("base/res/layout/" + String.join("", Collections.nCopies(12, "long_name_")) + ".xml",
+                "layout".getBytes(StandardCharsets.UTF_8));
+
+        InProcessJarSigner signer = new InProcessJarSigner(loadTestSignature());
+        File output = new File(getTempDirPath().toFile(), "signed.aab");
+        try (BundleZipWriter writer = new BundleZipWriter(output.toPath())) {
+            for (Map.Entry<String, Integer> entry : signer.getMaxSignatureFileSizes(entries.keySet()).entrySet()) {
+                writer.reserveEntry(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                writer.addEntry(entry.getKey(), entry.getValue(), true);
+                signer.addEntryDigest(entry.getKey(), signer.digest(new ByteArrayInputStream(entry.getValue())));
+            }
+            Map<String, byte[]> signatureFiles = signer.generateSignatureFiles();
+            assertEquals(InProcessJarSigner.MANIFEST_NAME, signatureFiles.keySet().iterator().next());
+            for (Map.Entry<String, byte[]> entry : signatureFiles.entrySet()) {
+                writer.fillReservedEntry(entry.getKey(), entry.getValue());
+            }
+        }
+
+        int signedCount = 0;
+        try (JarFile jarFile = new JarFile(output, true)) {
+            Enumeration<JarEntry> jarEntries = jarFile.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry entry = jarEntries.nextElement();
+                try (InputStream is = jarFile.getInputStream(entry)) {
+                    IOUtils.toByteArray(is);
+                }
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                assertNotNull(entry.getName(), entry.getCodeSigners());
+                signedCount++;
+            }
+        }
+        assertEquals(entries.size(), signedCount);
+
+        // the signature entries come first, so the bundle is verified when read as a stream too.
+        signedCount = 0;
+        try (JarInputStream jis = new JarInputStream(new FileInputStream(output), true)) {
+            assertNotNull(jis.getManifest());
+            JarEntry entry;
+            while ((entry = jis.getNextJarEntry()) != null) {
+                IOUtils.toByteArray(jis);
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                assertNotNull(entry.getName(), entry.getCodeSigners());
+                signedCount++;
+            }
+        }
+        assertEquals(entries.size(), signedCount);
+    }
+
+    @Test
+    public void testMaxSignatureFileSizes() throws IOException {
+        List<String> names = Arrays.asList("BundleConfig.pb", "base/res/drawable/icon.png", "base/res/raw/a.bin");
+        InProcessJarSigner signer = new InProcessJarSigner(loadTestSignature());
+        Map<String, Integer> sizes = signer.getMaxSignatureFileSizes(names);
+        for (String name : names) {
+            signer.addEntryDigest(name, signer.digest(new ByteArrayInputStream(name.getBytes(StandardCharsets.UTF_8))));
+        }
+        Map<String, byte[]> signatureFiles = signer.generateSignatureFiles();
+        assertEquals(new ArrayList<>(sizes.keySet()), new ArrayList<>(signatureFiles.keySet()));
+        assertEquals((int) sizes.get(InProcessJarSigner.MANIFEST_NAME), signatureFiles.get(InProcessJarSigner.MANIFEST_NAME).length);
+        for (Map.Entry<String, byte[]> entry : signatureFiles.entrySet()) {
+            assertTrue(entry.getKey(), entry.getValue().length <= sizes.get(entry.getKey()));
+        }
+    }
+}
@@ -1,12 +1,33 @@
 package com.bytedance.android.aabresguard.bundle;
 
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
 import com.bytedance.android.aabresguard.BaseTest;
+import com.bytedance.android.aabresguard.android.InProcessJarSigner;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
 import java.util.zip.ZipFile;
 
 /**
@@ -23,4 +44,128 @@ public class AppBundlePackagerTest extends BaseTest {
         packager.execute();
         assert output.exists();
     }
+
+    @Test
+    public void testPackageAppBundleInParallel() throws IOException {
+        File sequentialOutput = new File(getTempDirPath().toFile(), "sequential.aab");
+        File parallelOutput = new File(getTempDirPath().toFile(), "parallel.aab");
+        try (BundleSource bundleSource = BundleSource.open(loadResourceFile("demo/demo.aab").toPath())) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            new AppBundlePackager(bundleSource, appBundle, sequentialOutput.toPath()).execute();
+
+            AppBundlePackager packager = new AppBundlePackager(bundleSource, appBundle, parallelOutput.toPath());
+            packager.setMaxThreads(4);
+            packager.setMaxInFlightBytes(16 * 1024);
+            packager.execute();
+        }
+        assert sequentialOutput.exists();
+        assert Arrays.equals(Files.readAllBytes(sequentialOutput.toPath()), Files.readAllBytes(parallelOutput.toPath()));
+    }
+
+    @Test
+    public void testPackageChangedEntryOfUnknownType() throws IOException {
+        File output = new File(getTempDirPath().toFile(), "changed.aab");
+        byte[] content = "changed".getBytes(StandardCharsets.UTF_8);
+        String path;
+        try (BundleSource bundleSource = BundleSource.open(loadResourceFile("demo/demo.aab").toPath())) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            BundleModule baseModule = appBundle.getBaseModule();
+            List<ModuleEntry> entries = new ArrayList<>(baseModule.getEntries());
+            int index = 0;
+            while (entries.get(index).isDirectory()) {
+                index++;
+            }
+            ModuleEntry rawEntry = entries.get(index);
+            path = baseModule.getName().getName() + "/" + rawEntry.getPath().toString();
+            entries.set(index, new ChangedModuleEntry(rawEntry.getPath(), content));
+            BundleModule changedModule = baseModule.toBuilder().setRawEntries(entries).build();
+            appBundle = appBundle.toBuilder()
+                    .setModules(ImmutableMap.<BundleModuleName, BundleModule>builder()
+                            .putAll(Maps.filterKeys(appBundle.getModules(), name -> !name.equals(baseModule.getName())))
+                            .put(baseModule.getName(), changedModule)
+                            .build())
+                    .build();
+            new AppBundlePackager(bundleSource, appBundle, output.toPath()).execute();
+        }
+        try (ZipFile zipFile = new ZipFile(output)) {
+            try (InputStream is = zipFile.getInputStream(zipFile.getEntry(path))) {
+                assert Arrays.equals(content, IOUtils.toByteArray(is));
+            }
+        }
+    }
+
+    @Test
+    public void testSignAppBundleInParallel() throws IOException {
+        File sequentialOutput = new File(getTempDirPath().toFile(), "sequential-signed.aab");
+        File parallelOutput = new File(getTempDirPath().toFile(), "parallel-signed.aab");
+        try (BundleSource bundleSource = BundleSource.open(loadResourceFile("demo/demo.aab").toPath())) {
+            AppBundle appBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            AppBundlePackager packager = new AppBundlePackager(bundleSource, appBundle, sequentialOutput.toPath());
+            packager.setJarSigner(new InProcessJarSigner(loadTestSignature()));
+            packager.execute();
+
+            packager = new AppBundlePackager(bundleSource, appBundle, parallelOutput.toPath());
+            packager.setMaxThreads(4);
+            packager.setJarSigner(new InProcessJarSigner(loadTestSignature()));
+            packager.execute();
+        }
+        assert Arrays.equals(Files.readAllBytes(sequentialOutput.toPath()), Files.readAllBytes(parallelOutput.toPath()));
+        try (JarFile jarFile = new JarFile(parallelOutput, true)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                try (InputStream is = jarFile.getInputStream(entry)) {
+                    IOUtils.toByteArray(is);
+                }
+                assert entry.isDirectory() || entry.getName().startsWith("META-INF/") || entry.getCodeSigners() != null;
+            }
+        }
+        try (JarInputStream jis = new JarInputStream(new FileInputStream(parallelOutput), true)) {
+            // the manifest is read first, and the signed entries are verified as the stream is read.
+            assert jis.getManifest() != null;
+            JarEntry entry;
+            while ((entry = jis.getNextJarEntry()) != null) {
+                IOUtils.toByteArray(jis);
+                assert entry.isDirectory() || entry.getName().startsWith("META-INF/") || entry.getCodeSigners() != null;
+            }
+        }
+    }
+
+    /**
+     * An entry type unknown to the packager, holding a content which differs from the input bundle.
+     */
+    private static class ChangedModuleEntry implements ModuleEntry {
+        private final ZipPath path;
+        private final byte[] content;
+
+        private ChangedModuleEntry(ZipPath path, byte[] content) {
+            this.path = path;
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public ZipPath getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean shouldCompress() {
+            return true;
+        }
+
+        @Override
+        public ModuleEntry setCompression(boolean shouldCompress) {
+            return this;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class BundleSourceTest extends BaseTest {
+
+    private static final byte[] STORED_CONTENT = "stored content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DEFLATED_CONTENT = new byte[100 * 1024];
+
+    static {
+        for (int i = 0; i < DEFLATED_CONTENT.length; i++) {
+            DEFLATED_CONTENT[i] = (byte) (i % 7);
+        }
+    }
+
+    @Test
+    public void testReadEntries() throws IOException {
+        File bundleFile = createBundle();
+        try (BundleSource source = BundleSource.open(bundleFile.toPath())) {
+            assertEquals(2, source.getEntries().size());
+            assertNull(source.getEntry("base/missing"));
+
+            BundleSource.Entry stored = source.getEntry("base/res/raw/stored.txt");
+            assertEquals(BundleSource.METHOD_STORED, stored.getMethod());
+            assertEquals(STORED_CONTENT.length, stored.getSize());
+            assertTrue(Arrays.equals(STORED_CONTENT, source.readBytes(stored)));
+
+            BundleSource.Entry deflated = source.getEntry("base/res/raw/deflated.bin");
+            assertEquals(BundleSource.METHOD_DEFLATED, deflated.getMethod());
+            assertEquals(DEFLATED_CONTENT.length, deflated.getSize());
+            assertTrue(deflated.getCompressedSize() < deflated.getSize());
+            assertTrue(Arrays.equals(DEFLATED_CONTENT, source.readBytes(deflated)));
+            try (InputStream is = source.openStream(deflated)) {
+                assertTrue(Arrays.equals(DEFLATED_CONTENT, IOUtils.toByteArray(is)));
+            }
+            assertEquals(deflated.getCompressedSize(), source.getRawData(deflated).remaining());
+        }
+    }
+
+    private File createBundle() throws IOException {
+        File bundleFile = new File(getTempDirFilePath(), "test.aab");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(bundleFile))) {
+            ZipEntry stored = new ZipEntry("base/res/raw/stored.txt");
+            CRC32 crc = new CRC32();
+            crc.update(STORED_CONTENT);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(STORED_CONTENT.length);
+            stored.setCrc(crc.getValue());
+            zos.putNextEntry(stored);
+            zos.write(STORED_CONTENT);
+            zos.closeEntry();
+
+            zos.putNextEntry(new ZipEntry("base/res/raw/deflated.bin"));
+            zos.write(DEFLATED_CONTENT);
+            zos.closeEntry();
+        }
+        return bundleFile;
+    }
+}
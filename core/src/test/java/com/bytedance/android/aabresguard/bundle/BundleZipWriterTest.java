@@ -0,0 +1,109 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class BundleZipWriterTest extends BaseTest {
+
+    @Test
+    public void testRawCopy() throws IOException {
+        byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 13);
+        }
+        File input = new File(getTempDirFilePath(), "input.aab");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(input))) {
+            zos.putNextEntry(new ZipEntry("base/dex/classes.dex"));
+            zos.write(content);
+            zos.closeEntry();
+        }
+
+        File output = new File(getTempDirFilePath(), "output.aab");
+        byte[] newContent = "new content".getBytes(StandardCharsets.UTF_8);
+        try (BundleSource source = BundleSource.open(input.toPath());
+             BundleZipWriter writer = new BundleZipWriter(output.toPath())) {
+            BundleSource.Entry entry = source.getEntry("base/dex/classes.dex");
+            writer.addRawEntry(entry.getName(), source, entry);
+            writer.addEntry("base/res/raw/a.txt", newContent, true);
+            writer.addEntry("base/res/raw/b.txt", newContent, false);
+            writer.addDirectory("base/assets");
+        }
+
+        try (ZipFile zipFile = new ZipFile(output)) {
+            assertEquals(4, zipFile.size());
+            assertTrue(Arrays.equals(content, read(zipFile, "base/dex/classes.dex")));
+            assertTrue(Arrays.equals(newContent, read(zipFile, "base/res/raw/a.txt")));
+            assertTrue(Arrays.equals(newContent, read(zipFile, "base/res/raw/b.txt")));
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("base/res/raw/b.txt").getMethod());
+            assertTrue(zipFile.getEntry("base/assets/").isDirectory());
+        }
+    }
+
+    @Test
+    public void testReservedEntry() throws IOException {
+        byte[] manifest = "Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8);
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        File output = new File(getTempDirFilePath(), "output.aab");
+        try (BundleZipWriter writer = new BundleZipWriter(output.toPath())) {
+            writer.reserveEntry("META-INF/MANIFEST.MF", manifest.length + 10);
+            writer.addEntry("base/res/raw/a.txt", content, true);
+            writer.fillReservedEntry("META-INF/MANIFEST.MF", manifest);
+        }
+
+        // the reserved entry is the first one for the readers of the local headers too.
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(output))) {
+            ZipEntry entry = zis.getNextEntry();
+            assertEquals("META-INF/MANIFEST.MF", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertTrue(Arrays.equals(manifest, IOUtils.toByteArray(zis)));
+            assertEquals("base/res/raw/a.txt", zis.getNextEntry().getName());
+            assertTrue(Arrays.equals(content, IOUtils.toByteArray(zis)));
+            assertNull(zis.getNextEntry());
+        }
+        try (ZipFile zipFile = new ZipFile(output)) {
+            assertEquals(2, zipFile.size());
+            assertTrue(Arrays.equals(manifest, read(zipFile, "META-INF/MANIFEST.MF")));
+        }
+    }
+
+    @Test
+    public void testReservedEntryTooLarge() throws IOException {
+        File output = new File(getTempDirFilePath(), "output.aab");
+        try (BundleZipWriter writer = new BundleZipWriter(output.toPath())) {
+            writer.reserveEntry("META-INF/MANIFEST.MF", 4);
+            try {
+                writer.fillReservedEntry("META-INF/MANIFEST.MF", new byte[5]);
+                fail();
+            } catch (ZipException e) {
+                // expected
+            }
+            writer.fillReservedEntry("META-INF/MANIFEST.MF", new byte[4]);
+        }
+    }
+
+    private static byte[] read(ZipFile zipFile, String name) throws IOException {
+        try (InputStream is = zipFile.getInputStream(zipFile.getEntry(name))) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ModuleEntryStoreTest extends BaseTest {
+
+    @Test
+    public void testSpillLargeContent() throws IOException {
+        byte[] content = new byte[4096];
+        Arrays.fill(content, (byte) 7);
+        File spilledFile;
+        try (ModuleEntryStore store = new ModuleEntryStore()) {
+            store.setSpillThreshold(1024);
+            ModuleEntry entry = store.create("res/a/a.png", content);
+            assertTrue(entry instanceof FileModuleEntry);
+            assertEquals(1, store.getSpilledCount());
+            assertEquals(0, store.getMemoryBytes());
+            assertTrue(Arrays.equals(content, read(entry)));
+            spilledFile = ((FileModuleEntry) entry).getFile();
+            assertTrue(spilledFile.exists());
+        }
+        assertFalse(spilledFile.exists());
+    }
+
+    @Test
+    public void testSpillOverMemoryBudget() throws IOException {
+        byte[] content = new byte[100];
+        try (ModuleEntryStore store = new ModuleEntryStore()) {
+            store.setMaxMemoryBytes(250);
+            for (int i = 0; i < 4; i++) {
+                store.create("res/a/" + i + ".xml", content);
+            }
+            assertEquals(200, store.getMemoryBytes());
+            assertEquals(2, store.getSpilledCount());
+        }
+    }
+
+    @Test
+    public void testSpillWrittenContent() throws IOException {
+        byte[] content = new byte[4096];
+        Arrays.fill(content, (byte) 7);
+        try (ModuleEntryStore store = new ModuleEntryStore()) {
+            store.setSpillThreshold(1024);
+            ModuleEntry entry = store.create("lib/arm64-v8a/a.so", content.length, os -> os.write(content));
+            assertTrue(entry instanceof FileModuleEntry);
+            assertEquals(0, store.getMemoryBytes());
+            assertTrue(Arrays.equals(content, read(entry)));
+        }
+    }
+
+    private static byte[] read(ModuleEntry entry) throws IOException {
+        try (InputStream is = entry.getContent()) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.aapt.Resources;
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static com.bytedance.android.aabresguard.testing.ResourceTableFixtures.newEntry;
+import static com.bytedance.android.aabresguard.testing.ResourceTableFixtures.newFileValue;
+
+public class ResourceTableEditorTest extends BaseTest {
+
+    private static final Resources.Configuration DEFAULT = Resources.Configuration.getDefaultInstance();
+    private static final Resources.Configuration HDPI = Resources.Configuration.newBuilder().setDensity(240).build();
+    private static final Resources.Configuration XHDPI = Resources.Configuration.newBuilder().setDensity(320).build();
+
+    @Test
+    public void testUnchangedTable() {
+        Resources.ResourceTable table = newResourceTable();
+        ResourceTableEditor editor = new ResourceTableEditor(table)
+                .replaceFilePaths((entry, path) -> null)
+                .renameEntries(entry -> entry.getEntry().getName())
+                .removeConfigValues((entry, configValue) -> false);
+        assertEquals(0, editor.getUpdatedEntryCount());
+        assertSame(table, editor.build());
+    }
+
+    @Test
+    public void testOnlyChangedEntriesDiffer() {
+        Resources.ResourceTable table = newResourceTable();
+        ResourceTableEditor editor = new ResourceTableEditor(table)
+                .renameEntries(entry -> entry.getEntry().getName().equals("title") ? "a" : null)
+                .replaceFilePaths((entry, path) -> path.equals("res/drawable/banner.png") ? "res/drawable/b.png" : null);
+        Resources.ResourceTable editedTable = editor.build();
+        assertEquals(2, editor.getUpdatedEntryCount());
+
+        Resources.Package resPackage = table.getPackage(0);
+        Resources.Package editedPackage = editedTable.getPackage(0);
+        assertEquals(resPackage.getTypeCount(), editedPackage.getTypeCount());
+
+        // drawable: only the path of the banner default config value is replaced.
+        Resources.Type drawable = resPackage.getType(0);
+        Resources.Type editedDrawable = editedPackage.getType(0);
+        assertSame(drawable.getEntry(0), editedDrawable.getEntry(0));
+        Resources.Entry banner = drawable.getEntry(1);
+        Resources.Entry editedBanner = editedDrawable.getEntry(1);
+        assertEquals(banner.getName(), editedBanner.getName());
+        assertEquals(banner.getConfigValueCount(), editedBanner.getConfigValueCount());
+        assertEquals("res/drawable/b.png", editedBanner.getConfigValue(0).getValue().getItem().getFile().getPath());
+        assertEquals(DEFAULT, editedBanner.getConfigValue(0).getConfig());
+        assertSame(banner.getConfigValue(1), editedBanner.getConfigValue(1));
+        assertSame(banner.getConfigValue(2), editedBanner.getConfigValue(2));
+
+        // string: only the name of the title is replaced.
+        Resources.Type string = resPackage.getType(1);
+        Resources.Type editedString = editedPackage.getType(1);
+        Resources.Entry title = string.getEntry(0);
+        Resources.Entry editedTitle = editedString.getEntry(0);
+        assertNotSame(title, editedTitle);
+        assertEquals("a", editedTitle.getName());
+        assertEquals(title.getEntryId(), editedTitle.getEntryId());
+        assertEquals(title.getConfigValueList(), editedTitle.getConfigValueList());
+        assertSame(string.getEntry(1), editedString.getEntry(1));
+
+        // layout: no entry is changed, the type is kept.
+        assertSame(resPackage.getType(2), editedPackage.getType(2));
+    }
+
+    @Test
+    public void testRemoveConfigValues() {
+        Resources.ResourceTable table = newResourceTable();
+        Resources.ResourceTable editedTable = new ResourceTableEditor(table)
+                .removeConfigValues((entry, configValue) -> configValue.getConfig().equals(HDPI)
+                        || entry.getEntry().getName().equals("main"))
+                .build();
+
+        Resources.Entry banner = table.getPackage(0).getType(0).getEntry(1);
+        Resources.Entry editedBanner = editedTable.getPackage(0).getType(0).getEntry(1);
+        assertEquals(2, editedBanner.getConfigValueCount());
+        assertSame(banner.getConfigValue(0), editedBanner.getConfigValue(0));
+        assertSame(banner.getConfigValue(2), editedBanner.getConfigValue(1));
+
+        // an entry without any config value left is kept.
+        Resources.Entry editedMain = editedTable.getPackage(0).getType(2).getEntry(0);
+        assertEquals("main", editedMain.getName());
+        assertEquals(0, editedMain.getConfigValueCount());
+
+        assertSame(table.getPackage(0).getType(0).getEntry(0), editedTable.getPackage(0).getType(0).getEntry(0));
+        assertSame(table.getPackage(0).getType(1), editedTable.getPackage(0).getType(1));
+    }
+
+    private static Resources.ResourceTable newResourceTable() {
+        return Resources.ResourceTable.newBuilder()
+                .addPackage(Resources.Package.newBuilder()
+                        .setPackageId(Resources.PackageId.newBuilder().setId(0x7f))
+                        .setPackageName("com.bytedance.android.aabresguard.test")
+                        .addType(newType(1, "drawable",
+                                newEntry(0, "icon")
+                                        .addConfigValue(newFileValue(DEFAULT, "res/drawable/icon.png")),
+                                newEntry(1, "banner")
+                                        .addConfigValue(newFileValue(DEFAULT, "res/drawable/banner.png"))
+                                        .addConfigValue(newFileValue(HDPI, "res/drawable-hdpi/banner.png"))
+                                        .addConfigValue(newFileValue(XHDPI, "res/drawable-xhdpi/banner.png"))))
+                        .addType(newType(2, "string",
+                                newEntry(0, "title").addConfigValue(newStringValue("Title")),
+                                newEntry(1, "name").addConfigValue(newStringValue("Name"))))
+                        .addType(newType(3, "layout",
+                                newEntry(0, "main").addConfigValue(newFileValue(DEFAULT, "res/layout/main.xml")))))
+                .build();
+    }
+
+    private static Resources.Type.Builder newType(int typeId, String name, Resources.Entry.Builder... entries) {
+        Resources.Type.Builder builder = Resources.Type.newBuilder()
+                .setTypeId(Resources.TypeId.newBuilder().setId(typeId))
+                .setName(name);
+        for (Resources.Entry.Builder entry : entries) {
+            builder.addEntry(entry);
+        }
+        return builder;
+    }
+
+    private static Resources.ConfigValue newStringValue(String value) {
+        return Resources.ConfigValue.newBuilder()
+                .setConfig(DEFAULT)
+                .setValue(Resources.Value.newBuilder()
+                        .setItem(Resources.Item.newBuilder()
+                                .setStr(Resources.String.newBuilder().setValue(value))))
+                .build();
+    }
+}
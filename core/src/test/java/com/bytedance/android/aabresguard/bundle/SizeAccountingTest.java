@@ -0,0 +1,51 @@
+package com.bytedance.android.aabresguard.bundle;
+
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class SizeAccountingTest extends BaseTest {
+
+    @Test
+    public void testSizesOfDemoBundle() throws IOException {
+        File bundleFile = loadResourceFile("demo/demo.aab");
+        int count = 0;
+        long size = 0;
+        long compressedSize = 0;
+        try (BundleSource bundleSource = BundleSource.open(bundleFile.toPath());
+             ZipFile zipFile = new ZipFile(bundleFile)) {
+            SizeAccounting sizeAccounting = new SizeAccounting(bundleSource);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                if (zipEntry.isDirectory() || !zipEntry.getName().startsWith("base/res/")) {
+                    continue;
+                }
+                assertEquals(zipEntry.getSize(), sizeAccounting.remove(ZipPath.create(zipEntry.getName())));
+                count++;
+                size += zipEntry.getSize();
+                compressedSize += zipEntry.getCompressedSize();
+            }
+            assertTrue(count > 0);
+            assertEquals(count, sizeAccounting.getCount());
+            assertEquals(size, sizeAccounting.getSize());
+            assertEquals(compressedSize, sizeAccounting.getCompressedSize());
+
+            // a missing entry is counted without a size.
+            assertEquals(0, sizeAccounting.remove(ZipPath.create("base/res/missing.png")));
+            assertEquals(count + 1, sizeAccounting.getCount());
+            assertEquals(size, sizeAccounting.getSize());
+            assertEquals(compressedSize, sizeAccounting.getCompressedSize());
+        }
+    }
+}
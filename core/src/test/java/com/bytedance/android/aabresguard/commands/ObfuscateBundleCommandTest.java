@@ -3,6 +3,7 @@ package com.bytedance.android.aabresguard.commands;
 import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.FlagParser;
 import com.bytedance.android.aabresguard.BaseTest;
+import com.bytedance.android.aabresguard.executors.ResourcesObfuscator;
 import com.bytedance.android.aabresguard.testing.BundleToolOperation;
 import com.bytedance.android.aabresguard.utils.FileOperation;
 
@@ -11,6 +12,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -91,6 +93,54 @@ public class ObfuscateBundleCommandTest extends BaseTest {
         assert outputFile.exists();
     }
 
+    @Test
+    public void testMaxThreadsWithSeed() throws IOException, DocumentException, InterruptedException {
+        File rawAabFile = loadResourceFile("demo/demo.aab");
+        File sequentialFile = obfuscateWithSeed(rawAabFile, "sequential", 1);
+        File parallelFile = obfuscateWithSeed(rawAabFile, "parallel", 4);
+
+        assertThat(Files.readAllBytes(parallelFile.toPath())).isEqualTo(Files.readAllBytes(sequentialFile.toPath()));
+        assertThat(Files.readAllBytes(new File(parallelFile.getParentFile(), ResourcesObfuscator.FILE_MAPPING_NAME).toPath()))
+                .isEqualTo(Files.readAllBytes(new File(sequentialFile.getParentFile(), ResourcesObfuscator.FILE_MAPPING_NAME).toPath()));
+    }
+
+    @Test
+    public void testBinaryMapping() throws IOException, DocumentException, InterruptedException {
+        File rawAabFile = loadResourceFile("demo/demo.aab");
+        File textFile = obfuscateWithSeed(rawAabFile, "text", 1);
+        File binaryMapping = new File(textFile.getParentFile(), ResourcesObfuscator.FILE_BINARY_MAPPING_NAME);
+        assert binaryMapping.exists();
+
+        // the binary mapping of the previous run is accepted as the input of the incremental obfuscation.
+        File binaryFile = obfuscateWithSeed(rawAabFile, "binary", 1, binaryMapping.getAbsolutePath());
+        assertThat(Files.readAllBytes(new File(binaryFile.getParentFile(), ResourcesObfuscator.FILE_MAPPING_NAME).toPath()))
+                .isEqualTo(Files.readAllBytes(new File(textFile.getParentFile(), ResourcesObfuscator.FILE_MAPPING_NAME).toPath()));
+    }
+
+    private File obfuscateWithSeed(File rawAabFile, String dirName, int maxThreads) throws IOException, DocumentException, InterruptedException {
+        return obfuscateWithSeed(rawAabFile, dirName, maxThreads, loadResourcePath("demo/mapping.txt"));
+    }
+
+    private File obfuscateWithSeed(File rawAabFile, String dirName, int maxThreads, String mappingPath) throws IOException, DocumentException, InterruptedException {
+        File outputDir = new File(getTempDirPath().toFile(), dirName);
+        Files.createDirectories(outputDir.toPath());
+        File outputFile = new File(outputDir, "obfuscated.aab");
+        ObfuscateBundleCommand.fromFlags(
+                new FlagParser().parse(
+                        "--bundle=" + rawAabFile.getAbsolutePath(),
+                        "--output=" + outputFile.getAbsolutePath(),
+                        "--config=" + loadResourcePath("demo/config.xml"),
+                        "--merge-duplicated-res=true",
+                        "--mapping=" + mappingPath,
+                        "--max-threads=" + maxThreads,
+                        "--obfuscation-seed=1234",
+                        "--disable-sign=true"
+                )
+        ).execute();
+        assert outputFile.exists();
+        return outputFile;
+    }
+
     @Test
     public void testPass() throws IOException, DocumentException, InterruptedException {
         File rawAabFile = loadResourceFile("demo/demo.aab");
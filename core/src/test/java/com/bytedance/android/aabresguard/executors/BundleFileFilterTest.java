@@ -3,6 +3,7 @@ package com.bytedance.android.aabresguard.executors;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.bytedance.android.aabresguard.BaseTest;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
@@ -20,13 +21,15 @@ public class BundleFileFilterTest extends BaseTest {
     @Test
     public void test() throws IOException {
         Path bundlePath = loadResourceFile("demo/demo.aab").toPath();
-        AppBundleAnalyzer analyzer = new AppBundleAnalyzer(bundlePath);
-        AppBundle appBundle = analyzer.analyze();
         ImmutableSet<String> filterRules = ImmutableSet.of(
                 "*/arm64-v8a/*"
         );
-        BundleFileFilter fileFilter = new BundleFileFilter(loadResourceFile("demo/demo.aab").toPath(), appBundle, new HashSet<>(filterRules));
-        AppBundle filteredAppBundle = fileFilter.filter();
-        assert filteredAppBundle != null;
+        try (BundleSource bundleSource = BundleSource.open(bundlePath)) {
+            AppBundleAnalyzer analyzer = new AppBundleAnalyzer(bundleSource);
+            AppBundle appBundle = analyzer.analyze();
+            BundleFileFilter fileFilter = new BundleFileFilter(bundleSource, appBundle, new HashSet<>(filterRules));
+            AppBundle filteredAppBundle = fileFilter.filter();
+            assert filteredAppBundle != null;
+        }
     }
 }
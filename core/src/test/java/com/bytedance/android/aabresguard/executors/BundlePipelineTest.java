@@ -0,0 +1,61 @@
+package com.bytedance.android.aabresguard.executors;
+
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.bytedance.android.aabresguard.BaseTest;
+import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class BundlePipelineTest extends BaseTest {
+
+    @Test
+    public void testFusedPipeline() throws IOException {
+        Path bundlePath = loadResourceFile("demo/demo.aab").toPath();
+        File sequentialDir = new File(getTempDirFilePath(), "sequential");
+        File fusedDir = new File(getTempDirFilePath(), "fused");
+        sequentialDir.mkdirs();
+        fusedDir.mkdirs();
+
+        try (BundleSource bundleSource = BundleSource.open(bundlePath)) {
+            AppBundle rawAppBundle = new AppBundleAnalyzer(bundleSource).analyze();
+
+            AppBundle sequentialBundle = new DuplicatedResourcesMerger(bundleSource, rawAppBundle, sequentialDir.toPath()).merge();
+            sequentialBundle = new ResourcesObfuscator(bundleSource, sequentialBundle, whiteList(), new HashSet<>(), sequentialDir.toPath(), null).obfuscate();
+
+            AppBundle fusedBundle = new BundlePipeline(rawAppBundle)
+                    .addStage(new DuplicatedResourcesMerger(bundleSource, rawAppBundle, fusedDir.toPath()))
+                    .addStage(new ResourcesObfuscator(bundleSource, rawAppBundle, whiteList(), new HashSet<>(), fusedDir.toPath(), null))
+                    .execute();
+
+            assertEquals(sequentialBundle.getModules().keySet(), fusedBundle.getModules().keySet());
+            for (BundleModule module : sequentialBundle.getModules().values()) {
+                BundleModule fusedModule = fusedBundle.getModule(module.getName());
+                assertEquals(paths(module), paths(fusedModule));
+                assertEquals(module.getResourceTable(), fusedModule.getResourceTable());
+            }
+        }
+    }
+
+    private static Set<String> whiteList() {
+        return new HashSet<>(ImmutableSet.of("*.R.drawable.icon"));
+    }
+
+    private static List<String> paths(BundleModule module) {
+        return module.getEntries().stream()
+                .map(entry -> entry.getPath().toString())
+                .collect(Collectors.toList());
+    }
+}
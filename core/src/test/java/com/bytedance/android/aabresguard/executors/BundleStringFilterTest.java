@@ -3,6 +3,7 @@ package com.bytedance.android.aabresguard.executors;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.bytedance.android.aabresguard.BaseTest;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 
 import org.junit.Test;
 
@@ -18,11 +19,13 @@ public class BundleStringFilterTest extends BaseTest {
     @Test
     public void test() throws IOException {
         Path bundlePath = loadResourceFile("demo/demo.aab").toPath();
-        AppBundleAnalyzer analyzer = new AppBundleAnalyzer(bundlePath);
-        AppBundle appBundle = analyzer.analyze();
-        BundleStringFilter filter = new BundleStringFilter(loadResourceFile("demo/demo.aab").toPath(), appBundle,
-                loadResourceFile("demo/unused.txt").toPath().toString(), new HashSet<>());
-        AppBundle filteredAppBundle = filter.filter();
-        assert filteredAppBundle != null;
+        try (BundleSource bundleSource = BundleSource.open(bundlePath)) {
+            AppBundleAnalyzer analyzer = new AppBundleAnalyzer(bundleSource);
+            AppBundle appBundle = analyzer.analyze();
+            BundleStringFilter filter = new BundleStringFilter(bundleSource, appBundle,
+                    loadResourceFile("demo/unused.txt").toPath().toString(), new HashSet<>());
+            AppBundle filteredAppBundle = filter.filter();
+            assert filteredAppBundle != null;
+        }
     }
 }
@@ -1,13 +1,34 @@
 package com.bytedance.android.aabresguard.executors;
 
+import com.android.aapt.Resources;
+import com.android.bundle.Config;
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ZipPath;
 import com.bytedance.android.aabresguard.BaseTest;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static com.bytedance.android.aabresguard.testing.ResourceTableFixtures.newEntry;
+import static com.bytedance.android.aabresguard.testing.ResourceTableFixtures.newFileValue;
 
 /**
  * Created by YangJing on 2019/10/10 .
@@ -19,9 +40,176 @@ public class DuplicatedResourcesMergerTest extends BaseTest {
     public void test() throws IOException {
         Path outputDirPath = getTempDirPath();
         Path bundlePath = loadResourceFile("demo/demo.aab").toPath();
-        AppBundle rawAppBundle = new AppBundleAnalyzer(bundlePath).analyze();
-        DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(bundlePath, rawAppBundle, outputDirPath);
-        AppBundle appBundle = merger.merge();
-        assert appBundle != null;
+        try (BundleSource bundleSource = BundleSource.open(bundlePath)) {
+            AppBundle rawAppBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(bundleSource, rawAppBundle, outputDirPath);
+            AppBundle appBundle = merger.merge();
+            assert appBundle != null;
+        }
+    }
+
+    @Test
+    public void testMergeInParallel() throws IOException {
+        Path bundlePath = loadResourceFile("demo/demo.aab").toPath();
+        File sequentialDir = new File(getTempDirFilePath(), "sequential");
+        File parallelDir = new File(getTempDirFilePath(), "parallel");
+        sequentialDir.mkdirs();
+        parallelDir.mkdirs();
+
+        try (BundleSource bundleSource = BundleSource.open(bundlePath)) {
+            AppBundle rawAppBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            DuplicatedResourcesMerger sequentialMerger = newCrossModuleMerger(bundleSource, rawAppBundle, sequentialDir, 1);
+            AppBundle sequentialBundle = sequentialMerger.merge();
+            DuplicatedResourcesMerger parallelMerger = newCrossModuleMerger(bundleSource, rawAppBundle, parallelDir, 4);
+            AppBundle parallelBundle = parallelMerger.merge();
+
+            assertEquals(sequentialBundle.getModules().keySet(), parallelBundle.getModules().keySet());
+            for (BundleModule module : sequentialBundle.getModules().values()) {
+                BundleModule parallelModule = parallelBundle.getModule(module.getName());
+                assertEquals(paths(module), paths(parallelModule));
+                assertEquals(module.getResourceTable(), parallelModule.getResourceTable());
+            }
+            assertEquals(sequentialMerger.getSizeAccounting().getCount(), parallelMerger.getSizeAccounting().getCount());
+            assertEquals(sequentialMerger.getSizeAccounting().getSize(), parallelMerger.getSizeAccounting().getSize());
+
+            // the logs list the same files in the same order.
+            String[] logNames = sequentialDir.list();
+            assert logNames != null && logNames.length > 0;
+            Arrays.sort(logNames);
+            String[] parallelLogNames = parallelDir.list();
+            assert parallelLogNames != null;
+            Arrays.sort(parallelLogNames);
+            assertTrue(Arrays.equals(logNames, parallelLogNames));
+            for (String logName : logNames) {
+                assertTrue(Arrays.equals(
+                        Files.readAllBytes(new File(sequentialDir, logName).toPath()),
+                        Files.readAllBytes(new File(parallelDir, logName).toPath())));
+            }
+        }
+    }
+
+    @Test
+    public void testMergeCrossModuleResources() throws IOException {
+        File bundleFile = new File(getTempDirFilePath(), "cross-module.aab");
+        writeCrossModuleBundle(bundleFile);
+        File outputDir = new File(getTempDirFilePath(), "cross-module");
+        outputDir.mkdirs();
+
+        try (BundleSource bundleSource = BundleSource.open(bundleFile.toPath())) {
+            AppBundle rawAppBundle = new AppBundleAnalyzer(bundleSource).analyze();
+            AppBundle appBundle = newCrossModuleMerger(bundleSource, rawAppBundle, outputDir, 1).merge();
+
+            BundleModule rawFeature = rawAppBundle.getModule(BundleModuleName.create("feature"));
+            BundleModule feature = appBundle.getModule(BundleModuleName.create("feature"));
+            Resources.ResourceTable rawTable = rawFeature.getResourceTable().get();
+            Resources.ResourceTable table = feature.getResourceTable().get();
+
+            // the feature icon has the content of the base icon for every configuration, it points to it now.
+            Resources.Entry icon = getEntry(table, "feature_icon");
+            assertEquals(1, icon.getConfigValueCount());
+            Resources.Item item = icon.getConfigValue(0).getValue().getItem();
+            assertFalse(item.hasFile());
+            assertEquals(0x7f010000, item.getRef().getId());
+            assertFalse(feature.getEntry(ZipPath.create("res/drawable/feature_icon.png")).isPresent());
+
+            // the base banner has one more configuration, the feature banner is kept.
+            assertEquals(getEntry(rawTable, "feature_banner"), getEntry(table, "feature_banner"));
+            assertTrue(feature.getEntry(ZipPath.create("res/drawable/feature_banner.png")).isPresent());
+
+            assertEquals(rawAppBundle.getBaseModule().getResourceTable(), appBundle.getBaseModule().getResourceTable());
+            assertEquals(paths(rawAppBundle.getBaseModule()), paths(appBundle.getBaseModule()));
+            assertTrue(new File(outputDir, "feature" + DuplicatedResourcesMerger.SUFFIX_FILE_CROSS_MODULE_DUPLICATED_LOGGER).exists());
+        }
+    }
+
+    /**
+     * Writes a bundle whose feature module has a copy of the base icon, and a copy of the default configuration of the
+     * base banner, which also has a hdpi configuration.
+     */
+    private static void writeCrossModuleBundle(File bundleFile) throws IOException {
+        byte[] icon = "icon".getBytes(StandardCharsets.UTF_8);
+        byte[] banner = "banner".getBytes(StandardCharsets.UTF_8);
+        byte[] hdpiBanner = "hdpi banner".getBytes(StandardCharsets.UTF_8);
+        Resources.ResourceTable baseTable = newResourceTable(0x7f,
+                newEntry(0, "icon")
+                        .addConfigValue(newFileValue(Resources.Configuration.getDefaultInstance(), "res/drawable/icon.png"))
+                        .build(),
+                newEntry(1, "banner")
+                        .addConfigValue(newFileValue(Resources.Configuration.getDefaultInstance(), "res/drawable/banner.png"))
+                        .addConfigValue(newFileValue(Resources.Configuration.newBuilder().setDensity(240).build(), "res/drawable-hdpi/banner.png"))
+                        .build());
+        Resources.ResourceTable featureTable = newResourceTable(0x7e,
+                newEntry(0, "feature_icon")
+                        .addConfigValue(newFileValue(Resources.Configuration.getDefaultInstance(), "res/drawable/feature_icon.png"))
+                        .build(),
+                newEntry(1, "feature_banner")
+                        .addConfigValue(newFileValue(Resources.Configuration.getDefaultInstance(), "res/drawable/feature_banner.png"))
+                        .build());
+
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(bundleFile))) {
+            writeZipEntry(zos, "BundleConfig.pb", Config.BundleConfig.newBuilder()
+                    .setBundletool(Config.Bundletool.newBuilder().setVersion("0.10.0"))
+                    .build()
+                    .toByteArray());
+            writeZipEntry(zos, "base/manifest/AndroidManifest.xml", newManifest().toByteArray());
+            writeZipEntry(zos, "base/resources.pb", baseTable.toByteArray());
+            writeZipEntry(zos, "base/res/drawable/icon.png", icon);
+            writeZipEntry(zos, "base/res/drawable/banner.png", banner);
+            writeZipEntry(zos, "base/res/drawable-hdpi/banner.png", hdpiBanner);
+            writeZipEntry(zos, "feature/manifest/AndroidManifest.xml", newManifest().toByteArray());
+            writeZipEntry(zos, "feature/resources.pb", featureTable.toByteArray());
+            writeZipEntry(zos, "feature/res/drawable/feature_icon.png", icon);
+            writeZipEntry(zos, "feature/res/drawable/feature_banner.png", banner);
+        }
+    }
+
+    private static Resources.XmlNode newManifest() {
+        return Resources.XmlNode.newBuilder()
+                .setElement(Resources.XmlElement.newBuilder()
+                        .setName("manifest")
+                        .addAttribute(Resources.XmlAttribute.newBuilder()
+                                .setName("package")
+                                .setValue("com.bytedance.android.aabresguard.fixture")))
+                .build();
+    }
+
+    private static Resources.ResourceTable newResourceTable(int packageId, Resources.Entry... entries) {
+        return Resources.ResourceTable.newBuilder()
+                .addPackage(Resources.Package.newBuilder()
+                        .setPackageId(Resources.PackageId.newBuilder().setId(packageId))
+                        .setPackageName("com.bytedance.android.aabresguard.fixture")
+                        .addType(Resources.Type.newBuilder()
+                                .setTypeId(Resources.TypeId.newBuilder().setId(1))
+                                .setName("drawable")
+                                .addAllEntry(Arrays.asList(entries))))
+                .build();
+    }
+
+    private static void writeZipEntry(ZipOutputStream zos, String name, byte[] content) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(content);
+        zos.closeEntry();
+    }
+
+    private static Resources.Entry getEntry(Resources.ResourceTable table, String name) {
+        for (Resources.Entry entry : table.getPackage(0).getType(0).getEntryList()) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    private static DuplicatedResourcesMerger newCrossModuleMerger(BundleSource bundleSource, AppBundle appBundle, File outputDir, int maxThreads) {
+        DuplicatedResourcesMerger merger = new DuplicatedResourcesMerger(bundleSource, appBundle, outputDir.toPath());
+        merger.setMaxThreads(maxThreads);
+        merger.setCrossModule(true);
+        return merger;
+    }
+
+    private static List<String> paths(BundleModule module) {
+        return module.getEntries().stream()
+                .map(entry -> entry.getPath().toString())
+                .collect(Collectors.toList());
     }
 }
@@ -4,6 +4,7 @@ import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.bytedance.android.aabresguard.BaseTest;
 import com.bytedance.android.aabresguard.bundle.AppBundleAnalyzer;
+import com.bytedance.android.aabresguard.bundle.BundleSource;
 import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
@@ -30,15 +31,17 @@ public class ResourcesObfuscatorTest extends BaseTest {
         );
         Path bundlePath = loadResourceFile("demo/demo.aab").toPath();
         Path outputDir = getTempDirPath();
-        AppBundleAnalyzer analyzer = new AppBundleAnalyzer(bundlePath);
-        AppBundle appBundle = analyzer.analyze();
-        ResourcesObfuscator obfuscator = new ResourcesObfuscator(bundlePath, appBundle, whiteList, outputDir, loadResourceFile("demo/mapping.txt").toPath());
-        AppBundle obfuscateAppBundle = obfuscator.obfuscate();
-        assert obfuscateAppBundle != null;
-        assert obfuscateAppBundle.getModules().size() == appBundle.getModules().size();
-        appBundle.getModules().forEach((bundleModuleName, bundleModule) -> {
-            BundleModule obfuscatedModule = obfuscateAppBundle.getModule(bundleModuleName);
-            assert obfuscatedModule.getEntries().size() == bundleModule.getEntries().size();
-        });
+        try (BundleSource bundleSource = BundleSource.open(bundlePath)) {
+            AppBundleAnalyzer analyzer = new AppBundleAnalyzer(bundleSource);
+            AppBundle appBundle = analyzer.analyze();
+            ResourcesObfuscator obfuscator = new ResourcesObfuscator(bundleSource, appBundle, whiteList, new HashSet<>(), outputDir, loadResourceFile("demo/mapping.txt").toPath());
+            AppBundle obfuscateAppBundle = obfuscator.obfuscate();
+            assert obfuscateAppBundle != null;
+            assert obfuscateAppBundle.getModules().size() == appBundle.getModules().size();
+            appBundle.getModules().forEach((bundleModuleName, bundleModule) -> {
+                BundleModule obfuscatedModule = obfuscateAppBundle.getModule(bundleModuleName);
+                assert obfuscatedModule.getEntries().size() == bundleModule.getEntries().size();
+            });
+        }
     }
 }
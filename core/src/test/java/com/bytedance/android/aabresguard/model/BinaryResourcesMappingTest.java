@@ -0,0 +1,52 @@
+package com.bytedance.android.aabresguard.model;
+
+import com.bytedance.android.aabresguard.BaseTest;
+import com.bytedance.android.aabresguard.parser.ResourcesMappingParser;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class BinaryResourcesMappingTest extends BaseTest {
+
+    @Test
+    public void testConvert() throws IOException {
+        ResourcesMapping mapping = new ResourcesMapping();
+        mapping.putDirMapping("res/drawable", "res/a");
+        mapping.putDirMapping("res/layout-v21", "res/b");
+        mapping.putResourceMapping("com.demo.R.drawable.icon", "com.demo.R.drawable.a");
+        mapping.putResourceMapping("com.demo.R.layout.main", "com.demo.R.layout.a");
+        mapping.addResourceNameAndId("com.demo.R.drawable.icon", "0x7f010000");
+        mapping.putEntryFileMapping("base/res/drawable/icon.png", "res/a/a.png");
+        mapping.putEntryFileMapping("base/res/layout-v21/main.xml", "res/b/a.xml");
+        mapping.addResourcePathAndId("base/res/drawable/icon.png", "0x7f010000");
+        mapping.putImageMapping("base/res/drawable/icon.png", "res/a/a.png", 3, 4, 48, 48, Color.RED, "md5a", "md5b");
+        mapping.putXmlMapping("base/res/layout-v21/main.xml", "res/b/a.xml", "magic_minify1:ns", "md5c", "md5d");
+
+        File dir = getTempDirPath().toFile();
+        Path textPath = new File(dir, "mapping.txt").toPath();
+        Path binaryPath = new File(dir, "mapping" + BinaryResourcesMapping.FILE_EXTENSION).toPath();
+        Path convertedPath = new File(dir, "converted.txt").toPath();
+        mapping.writeMappingToFile(textPath);
+
+        // text -> binary -> text
+        new ResourcesMappingParser(textPath).parse().writeMappingToFile(binaryPath);
+        assertTrue(BinaryResourcesMapping.isBinaryMappingFile(binaryPath));
+        assertFalse(BinaryResourcesMapping.isBinaryMappingFile(textPath));
+        ResourcesMapping binaryMapping = new ResourcesMappingParser(binaryPath).parse();
+        binaryMapping.writeMappingToFile(convertedPath);
+
+        assertEquals(mapping.getDirMapping(), binaryMapping.getDirMapping());
+        assertEquals(mapping.getResourceMapping(), binaryMapping.getResourceMapping());
+        assertEquals(mapping.getEntryFilesMapping(), binaryMapping.getEntryFilesMapping());
+        assertEquals(new String(Files.readAllBytes(textPath)), new String(Files.readAllBytes(convertedPath)));
+    }
+}
@@ -0,0 +1,75 @@
+package com.bytedance.android.aabresguard.model;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.fail;
+
+public class ResourcesMappingTest extends BaseTest {
+
+    @Test
+    public void testResourceMappingCollision() {
+        ResourcesMapping mapping = new ResourcesMapping();
+        mapping.putResourceMapping("com.demo.R.string.a", "com.demo.R.string.x");
+        try {
+            mapping.putResourceMapping("com.demo.R.string.b", "com.demo.R.string.x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // the obfuscated name can be used again once its resource is removed
+        mapping.removeResourceMapping("com.demo.R.string.a");
+        mapping.putResourceMapping("com.demo.R.string.b", "com.demo.R.string.x");
+        assertEquals(1, mapping.getResourceMapping().size());
+        assertEquals("com.demo.R.string.x", mapping.getResourceMapping().get("com.demo.R.string.b"));
+
+        // replacing the obfuscated name of a resource releases the old one
+        mapping.putResourceMapping("com.demo.R.string.b", "com.demo.R.string.y");
+        mapping.putResourceMapping("com.demo.R.string.c", "com.demo.R.string.x");
+        assertEquals(2, mapping.getResourceMapping().size());
+    }
+
+    @Test
+    public void testWriteTextMapping() throws IOException {
+        ResourcesMapping mapping = new ResourcesMapping();
+        mapping.putDirMapping("base/res/drawable", "base/res/a");
+        mapping.putResourceMapping("com.demo.R.drawable.icon", "com.demo.R.drawable.a");
+        mapping.addResourceNameAndId("com.demo.R.drawable.icon", "0x7f010000");
+        mapping.putEntryFileMapping("base/res/drawable/icon.png", "base/res/a/a.png");
+        mapping.addResourcePathAndId("base/res/drawable/icon.png", "0x7f010000");
+        mapping.putResourceMapping("com.demo.R.string.app_name", "com.demo.R.string.a");
+
+        Path mappingPath = getTempDirPath().resolve("resources-mapping.txt");
+        mapping.writeMappingToFile(mappingPath);
+        assertEquals(Arrays.asList(
+                "res dir mapping:",
+                "\tbase/res/drawable -> base/res/a",
+                "",
+                "",
+                "res id mapping:",
+                "\t0x7f010000 : com.demo.R.drawable.icon -> com.demo.R.drawable.a",
+                "\tnull : com.demo.R.string.app_name -> com.demo.R.string.a",
+                "",
+                "",
+                "res entries path mapping:",
+                "\t0x7f010000 : base/res/drawable/icon.png -> base/res/a/a.png",
+                "",
+                "",
+                "res image mapping :",
+                "",
+                "",
+                "res xmlMapping mapping :",
+                "",
+                ""
+        ), Files.readAllLines(mappingPath, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,68 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import com.bytedance.android.aabresguard.BaseTest;
+import com.bytedance.android.aabresguard.model.ResourcesMapping;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ImagePixelObfuscatorTest extends BaseTest {
+
+    @Test
+    public void testSeedIsDeterministic() throws IOException {
+        byte[] image = createImage(64, 48);
+        byte[] first = new ImagePixelObfuscator(42L).obfuscate("res/drawable/a.png", "res/a/a.png", image, "png", new ResourcesMapping());
+        byte[] second = new ImagePixelObfuscator(42L).obfuscate("res/drawable/a.png", "res/a/a.png", image, "png", new ResourcesMapping());
+        assertFalse(Arrays.equals(image, first));
+        assertTrue(Arrays.equals(first, second));
+        assertEquals(
+                new ImagePixelObfuscator(7L).newRandom("res/drawable/a.png").nextInt(),
+                new ImagePixelObfuscator(7L).newRandom("res/drawable/a.png").nextInt()
+        );
+    }
+
+    @Test
+    public void testSeedIsDeterministicForDecodedImages() throws IOException {
+        // only png files are obfuscated at chunk level, the others get one pixel shifted with the seeded random.
+        byte[] image = createImage(64, 48, "bmp");
+        byte[] first = new ImagePixelObfuscator(42L).obfuscate("res/drawable/a.bmp", "res/a/a.bmp", image, "bmp", new ResourcesMapping());
+        byte[] second = new ImagePixelObfuscator(42L).obfuscate("res/drawable/a.bmp", "res/a/a.bmp", image, "bmp", new ResourcesMapping());
+        assertFalse(Arrays.equals(image, first));
+        assertTrue(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void testNinePatchIsNotObfuscated() throws IOException {
+        byte[] image = createImage(64, 48);
+        byte[] result = new ImagePixelObfuscator(42L).obfuscate("res/drawable/a.9.png", "res/a/a.png", image, "png", new ResourcesMapping());
+        assertTrue(result == image);
+    }
+
+    private static byte[] createImage(int width, int height) throws IOException {
+        return createImage(width, height, "png");
+    }
+
+    private static byte[] createImage(int width, int height, String format) throws IOException {
+        // only png is written with an alpha channel.
+        int type = format.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 4) << 16 | (y * 5) << 8 | 0x80);
+            }
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, format, os);
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class ObfuscationCacheTest extends BaseTest {
+
+    @Test
+    public void testCachedEntryIsReused() throws IOException {
+        Path cacheDir = new File(getTempDirPath().toFile(), "cache").toPath();
+        byte[] content = {1, 2, 3};
+        byte[] obfuscated = {4, 5, 6};
+        try (ObfuscationCache cache = new ObfuscationCache(cacheDir)) {
+            String key = cache.newKey(content, "png", "false", "");
+            assertNull(cache.get(key));
+            cache.put(key, new ObfuscationCache.Entry(obfuscated, "(1,2) of (w:8,h:8)", null));
+        }
+        try (ObfuscationCache cache = new ObfuscationCache(cacheDir)) {
+            ObfuscationCache.Entry entry = cache.get(cache.newKey(content, "png", "false", ""));
+            assertNotNull(entry);
+            assertTrue(Arrays.equals(obfuscated, entry.getContent()));
+            assertEquals("(1,2) of (w:8,h:8)", entry.getImageRecord());
+            assertNull(entry.getXmlRecord());
+            assertNull(cache.get(cache.newKey(content, "png", "false", "1:base/res/a.png")));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreRemoved() throws IOException {
+        Path cacheDir = new File(getTempDirPath().toFile(), "cache").toPath();
+        byte[] content = new byte[1000];
+        try (ObfuscationCache cache = new ObfuscationCache(cacheDir)) {
+            String oldKey = cache.newKey(new byte[]{0}, "xml");
+            String usedKey = cache.newKey(new byte[]{1}, "xml");
+            String newKey = cache.newKey(new byte[]{2}, "xml");
+            cache.put(oldKey, new ObfuscationCache.Entry(content, null, "ns"));
+            cache.put(usedKey, new ObfuscationCache.Entry(content, null, "ns"));
+            cacheDir.resolve(oldKey + ".entry").toFile().setLastModified(1000);
+            cacheDir.resolve(usedKey + ".entry").toFile().setLastModified(2000);
+            assertNotNull(cache.get(usedKey));
+            cache.put(newKey, new ObfuscationCache.Entry(null, null, null));
+
+            cache.setMaxSizeBytes(cache.getSize() - 1);
+            cache.trim();
+            assertNull(cache.get(oldKey));
+            assertNotNull(cache.get(usedKey));
+            assertNotNull(cache.get(newKey));
+            assertNull(cache.get(newKey).getContent());
+        }
+    }
+
+    @Test
+    public void testConcurrentPutsOfSameKey() throws Exception {
+        Path cacheDir = new File(getTempDirPath().toFile(), "cache").toPath();
+        int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try (ObfuscationCache cache = new ObfuscationCache(cacheDir)) {
+            long expectedSize = 0;
+            for (int i = 0; i < 100; i++) {
+                String key = cache.newKey(new byte[]{(byte) i}, "png");
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int j = 0; j < threadCount; j++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        cache.put(key, new ObfuscationCache.Entry(new byte[100], null, null));
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                expectedSize += cacheDir.resolve(key + ".entry").toFile().length();
+            }
+            // every key is left with a single entry, accounted once.
+            assertEquals(expectedSize, cache.getSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class PngChunkObfuscatorTest extends BaseTest {
+
+    @Test
+    public void testPixelsAreKept() throws IOException {
+        byte[] png = createPng(40, 30);
+        PngChunkObfuscator obfuscator = new PngChunkObfuscator();
+        byte[] obfuscated = obfuscator.obfuscate(png, new Random(1));
+        assertFalse(Arrays.equals(png, obfuscated));
+        assertEquals(png.length + 20, obfuscated.length);
+        assertEquals(40, obfuscator.getWidth());
+        assertEquals(30, obfuscator.getHeight());
+
+        BufferedImage raw = ImageIO.read(new ByteArrayInputStream(png));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(obfuscated));
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 30; y++) {
+                assertEquals(raw.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testChunkIsReplaced() throws IOException {
+        byte[] png = createPng(8, 8);
+        byte[] first = new PngChunkObfuscator().obfuscate(png, new Random(1));
+        byte[] second = new PngChunkObfuscator().obfuscate(first, new Random(2));
+        assertEquals(first.length, second.length);
+        assertFalse(Arrays.equals(first, second));
+        assertTrue(Arrays.equals(first, new PngChunkObfuscator().obfuscate(second, new Random(1))));
+    }
+
+    @Test
+    public void testMalformedPng() throws IOException {
+        byte[] png = createPng(8, 8);
+        try {
+            new PngChunkObfuscator().obfuscate(Arrays.copyOf(png, png.length - 6), new Random(1));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        // a chunk length close to Integer.MAX_VALUE must not overflow the bounds check.
+        byte[] hugeChunk = png.clone();
+        hugeChunk[8] = 0x7F;
+        hugeChunk[9] = (byte) 0xFF;
+        hugeChunk[10] = (byte) 0xFF;
+        hugeChunk[11] = (byte) 0xFE;
+        try {
+            new PngChunkObfuscator().obfuscate(hugeChunk, new Random(1));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] createPng(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 8) << 8 | 0x40);
+            }
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", os);
+        return os.toByteArray();
+    }
+}
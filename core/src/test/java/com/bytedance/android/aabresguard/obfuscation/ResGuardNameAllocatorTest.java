@@ -0,0 +1,81 @@
+package com.bytedance.android.aabresguard.obfuscation;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ResGuardNameAllocatorTest extends BaseTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSameNamesAsStringBuilder() {
+        ResGuardStringBuilder builder = new ResGuardStringBuilder();
+        ResGuardNameAllocator allocator = new ResGuardNameAllocator();
+        Set<String> names = new HashSet<>();
+        names.add("b");
+        names.add("a0");
+        allocator.markUsed(names);
+        for (int i = 0; i < 2000; i++) {
+            builder.reset(null);
+            String expected = builder.getReplaceString(names);
+            names.add(expected);
+            assertEquals(expected, allocator.next());
+        }
+    }
+
+    @Test
+    public void testSkipWindowsReservedNames() {
+        ResGuardNameAllocator allocator = new ResGuardNameAllocator();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 40000; i++) {
+            assertTrue(names.add(allocator.next()));
+        }
+        assertFalse(names.contains("con"));
+        assertFalse(names.contains("nul"));
+        assertTrue(names.contains("a000"));
+    }
+
+    @Test
+    public void testMarkLongNamesUsed() {
+        ResGuardNameAllocator allocator = new ResGuardNameAllocator();
+        allocator.markUsed("zzzzzz");
+        allocator.markUsed("a0000");
+        allocator.markUsed("zzzz");
+        assertTrue(allocator.isUsed("zzzzzz"));
+        assertTrue(allocator.isUsed("a0000"));
+        assertTrue(allocator.isUsed("zzzz"));
+        assertFalse(allocator.isUsed("zzzzz"));
+        assertEquals("a", allocator.next());
+    }
+
+    @Test
+    public void testAllocatedLongNamesAreUsed() {
+        ResGuardNameAllocator allocator = new ResGuardNameAllocator();
+        String name = allocator.next();
+        while (name.length() < 5) {
+            name = allocator.next();
+        }
+        assertEquals("a0000", name);
+        assertTrue(allocator.isUsed(name));
+        assertFalse(allocator.isUsed("a0001"));
+    }
+
+    @Test
+    public void testIndex() {
+        assertEquals("a", ResGuardNameAllocator.nameOf(0));
+        assertEquals("z", ResGuardNameAllocator.nameOf(25));
+        assertEquals("a0", ResGuardNameAllocator.nameOf(26));
+        assertEquals(-1, ResGuardNameAllocator.indexOf("0a"));
+        assertEquals(-1, ResGuardNameAllocator.indexOf("A"));
+        for (String name : new String[]{"a", "z9", "b_c", "zzzz", "a0_9z"}) {
+            assertEquals(name, ResGuardNameAllocator.nameOf(ResGuardNameAllocator.indexOf(name)));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.bytedance.android.aabresguard.testing;
+
+import com.android.aapt.Resources;
+
+/**
+ * Builds the resource table messages of the fixture bundles and tables.
+ */
+public class ResourceTableFixtures {
+
+    private ResourceTableFixtures() {
+    }
+
+    public static Resources.Entry.Builder newEntry(int entryId, String name) {
+        return Resources.Entry.newBuilder()
+                .setEntryId(Resources.EntryId.newBuilder().setId(entryId))
+                .setName(name);
+    }
+
+    public static Resources.ConfigValue newFileValue(Resources.Configuration config, String path) {
+        return Resources.ConfigValue.newBuilder()
+                .setConfig(config)
+                .setValue(Resources.Value.newBuilder()
+                        .setItem(Resources.Item.newBuilder()
+                                .setFile(Resources.FileReference.newBuilder().setPath(path))))
+                .build();
+    }
+}
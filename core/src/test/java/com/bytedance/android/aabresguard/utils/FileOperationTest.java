@@ -3,11 +3,15 @@ package com.bytedance.android.aabresguard.utils;
 
 import com.bytedance.android.aabresguard.BaseTest;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static junit.framework.TestCase.assertEquals;
 
@@ -27,6 +31,21 @@ public class FileOperationTest extends BaseTest {
         FileOperation.uncompress(aabFile.toPath(), unzipDirPath);
     }
 
+    @Test
+    public void testZipPathFileSize() throws IOException {
+        File aabFile = loadResourceFile("demo/demo.aab");
+        try (ZipFile zipFile = new ZipFile(aabFile)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                long expectedSize = zipEntry.isDirectory() ? 0 : IOUtils.toByteArray(zipFile.getInputStream(zipEntry)).length;
+                assertEquals(expectedSize, FileOperation.getZipPathFileSize(zipFile, zipEntry));
+            }
+        }
+        assertEquals(0, FileOperation.getZipPathFileSize(null, null));
+        assertEquals(aabFile.length(), FileOperation.getFileSizes(aabFile));
+    }
+
     @Test
     public void testDrawNinePatchName() {
         assertEquals(FileOperation.getParentFromZipFilePath("res/a/a.9.png"), "res/a");
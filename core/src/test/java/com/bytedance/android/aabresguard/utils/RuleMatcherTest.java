@@ -0,0 +1,84 @@
+package com.bytedance.android.aabresguard.utils;
+
+import com.bytedance.android.aabresguard.BaseTest;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class RuleMatcherTest extends BaseTest {
+
+    private static final List<String> RULES = ImmutableList.of(
+            "*.R.raw.*",
+            "com.bytedance.android.ugc.R.drawable.icon",
+            "com.bytedance.android.ugc.R.drawable.icon_*",
+            "com.bytedance.android.ugc.R.string.?_name",
+            "com.bytedance.android.ugc.R.string.a+",
+            "lib/*/libflutter.so",
+            "META-INF/*.RSA",
+            "com.bytedance.android.ugc.R.(color|dimen).*"
+    );
+
+    private static final List<String> INPUTS = ImmutableList.of(
+            "com.bytedance.android.ugc.R.raw.video",
+            "com.bytedance.android.ugc.R.drawable.icon",
+            "com.bytedance.android.ugc.R.drawable.icon_",
+            "com.bytedance.android.ugc.R.drawable.icon_back",
+            "com.bytedance.android.ugc.R.drawable.iconx",
+            "com.bytedance.android.ugc.R.string._name",
+            "com.bytedance.android.ugc.R.string.b_name",
+            "com.bytedance.android.ugc.R.string.bb_name",
+            "com.bytedance.android.ugc.R.string.a",
+            "com.bytedance.android.ugc.R.string.ab",
+            "lib/arm64-v8a/libflutter.so",
+            "lib/arm64-v8a/libapp.so",
+            "META-INF/CERT.RSA",
+            "META-INF/CERTxRSA",
+            "com.bytedance.android.ugc.R.color.white",
+            "com.bytedance.android.ugc.R.id.title",
+            ""
+    );
+
+    @Test
+    public void testSameResultAsPatterns() {
+        RuleMatcher matcher = new RuleMatcher(RULES);
+        for (String input : INPUTS) {
+            assertEquals(input, matchWithPatterns(input), matcher.getMatchedRule(input));
+        }
+    }
+
+    @Test
+    public void testFirstRuleWins() {
+        RuleMatcher matcher = new RuleMatcher(ImmutableList.of("res/*", "res/drawable/*", "res/drawable/a.png"));
+        assertEquals("res/*", matcher.getMatchedRule("res/drawable/a.png"));
+
+        matcher = new RuleMatcher(ImmutableList.of("res/drawable/a.png", "res/drawable/*", "res/*"));
+        assertEquals("res/drawable/a.png", matcher.getMatchedRule("res/drawable/a.png"));
+        assertEquals("res/drawable/*", matcher.getMatchedRule("res/drawable/b.png"));
+        assertEquals("res/*", matcher.getMatchedRule("res/raw/b.png"));
+    }
+
+    @Test
+    public void testEmptyRules() {
+        RuleMatcher matcher = new RuleMatcher(null);
+        assertNull(matcher.getMatchedRule("res/drawable/a.png"));
+        assertFalse(matcher.matches(""));
+        assertTrue(new RuleMatcher(ImmutableList.of("*")).matches(""));
+    }
+
+    private static String matchWithPatterns(String input) {
+        for (String rule : RULES) {
+            if (Pattern.compile(Utils.convertToPatternString(rule)).matcher(input).matches()) {
+                return rule;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+package com.bytedance.android.aabresguard.utils.elf;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * The fixtures are the shared libraries of {@link ElfSectionInjectorTest}.
+ */
+public class ElfHeaderTest extends BaseTest {
+
+    @Test
+    public void testLazyParse32() throws Exception {
+        checkLazyParse("elf/libfixture-x86.so");
+    }
+
+    @Test
+    public void testLazyParse64() throws Exception {
+        checkLazyParse("elf/libfixture-x86_64.so");
+    }
+
+    @Test
+    public void testTablesBeforeParse() throws Exception {
+        byte[] bytes = Files.readAllBytes(loadResourceFile("elf/libfixture-x86_64.so").toPath());
+        ElfHeader elf = ElfHeader.createElfHeader(RethrowContinuesFactory.INSTANCE, new ByteArrayProvider(bytes));
+        try {
+            elf.getDynamicTable();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private void checkLazyParse(String fixture) throws Exception {
+        byte[] bytes = Files.readAllBytes(loadResourceFile(fixture).toPath());
+        ElfHeader eager = parse(bytes, false);
+        ElfHeader lazy = parse(bytes, true);
+
+        ElfDynamicTable eagerDynamicTable = eager.getDynamicTable();
+        ElfDynamicTable lazyDynamicTable = lazy.getDynamicTable();
+        assertNotNull(eagerDynamicTable);
+        assertNotNull(lazyDynamicTable);
+        ElfDynamic[] eagerDynamics = eagerDynamicTable.getDynamics();
+        ElfDynamic[] lazyDynamics = lazyDynamicTable.getDynamics();
+        assertEquals(eagerDynamics.length, lazyDynamics.length);
+        for (int i = 0; i < eagerDynamics.length; i++) {
+            assertEquals(eagerDynamics[i].getTag(), lazyDynamics[i].getTag());
+            assertEquals(eagerDynamics[i].getValue(), lazyDynamics[i].getValue());
+        }
+
+        ElfSymbolTable[] eagerSymbolTables = eager.getSymbolTables();
+        ElfSymbolTable[] lazySymbolTables = lazy.getSymbolTables();
+        assertTrue(eagerSymbolTables.length > 0);
+        assertEquals(eagerSymbolTables.length, lazySymbolTables.length);
+        for (int i = 0; i < eagerSymbolTables.length; i++) {
+            assertEquals(eagerSymbolTables[i].getFileOffset(), lazySymbolTables[i].getFileOffset());
+            ElfSymbol[] eagerSymbols = eagerSymbolTables[i].getSymbols();
+            ElfSymbol[] lazySymbols = lazySymbolTables[i].getSymbols();
+            assertEquals(eagerSymbols.length, lazySymbols.length);
+            for (int j = 0; j < eagerSymbols.length; j++) {
+                assertEquals(eagerSymbols[j].getNameAsString(), lazySymbols[j].getNameAsString());
+                assertEquals(eagerSymbols[j].getValue(), lazySymbols[j].getValue());
+                assertEquals(eagerSymbols[j].getSize(), lazySymbols[j].getSize());
+                assertEquals(eagerSymbols[j].getInfo(), lazySymbols[j].getInfo());
+                assertEquals(eagerSymbols[j].getSectionHeaderIndex(), lazySymbols[j].getSectionHeaderIndex());
+            }
+        }
+        assertNotNull(lazy.getDynamicSymbolTable());
+        assertNotNull(lazy.getDynamicSymbolTable().getSymbols());
+
+        ElfRelocationTable[] eagerRelocationTables = eager.getRelocationTables();
+        ElfRelocationTable[] lazyRelocationTables = lazy.getRelocationTables();
+        assertTrue(eagerRelocationTables.length > 0);
+        assertEquals(eagerRelocationTables.length, lazyRelocationTables.length);
+        for (int i = 0; i < eagerRelocationTables.length; i++) {
+            assertEquals(eagerRelocationTables[i].getFileOffset(), lazyRelocationTables[i].getFileOffset());
+            ElfRelocation[] eagerRelocations = eagerRelocationTables[i].getRelocations();
+            ElfRelocation[] lazyRelocations = lazyRelocationTables[i].getRelocations();
+            assertEquals(eagerRelocations.length, lazyRelocations.length);
+            for (int j = 0; j < eagerRelocations.length; j++) {
+                assertEquals(eagerRelocations[j].getOffset(), lazyRelocations[j].getOffset());
+                assertEquals(eagerRelocations[j].getRelocationInfo(), lazyRelocations[j].getRelocationInfo());
+                assertEquals(eagerRelocations[j].getAddend(), lazyRelocations[j].getAddend());
+            }
+        }
+    }
+
+    private static ElfHeader parse(byte[] bytes, boolean lazy) throws ElfException, IOException {
+        ElfHeader elf = ElfHeader.createElfHeader(RethrowContinuesFactory.INSTANCE, new ByteArrayProvider(bytes));
+        elf.parse(lazy);
+        return elf;
+    }
+}
@@ -0,0 +1,125 @@
+package com.bytedance.android.aabresguard.utils.elf;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * The fixtures are little endian x86 shared libraries built with
+ * {@code gcc -shared -fPIC -nostdlib -s}, in 32 and 64 bit.
+ */
+public class ElfSectionInjectorTest extends BaseTest {
+
+    private static final String SECTION_NAME = ".mywaw";
+    private static final byte[] SECTION_DATA = "0123456789abcdef:1234".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testAddSection32() throws Exception {
+        ElfHeader elf = checkAddSection("elf/libfixture-x86.so");
+        assertTrue(elf.is32Bit());
+    }
+
+    @Test
+    public void testAddSection64() throws Exception {
+        ElfHeader elf = checkAddSection("elf/libfixture-x86_64.so");
+        assertTrue(elf.is64Bit());
+    }
+
+    @Test
+    public void testWriteFromMappedFile() throws Exception {
+        File file = loadResourceFile("elf/libfixture-x86_64.so");
+        byte[] expected = new ElfSectionInjector(Files.readAllBytes(file.toPath())).addSection(SECTION_NAME, SECTION_DATA);
+        try (MappedByteProvider provider = new MappedByteProvider(file)) {
+            ElfSectionInjector.InjectedSection section = new ElfSectionInjector(provider).prepareSection(SECTION_NAME, SECTION_DATA);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            section.writeTo(os);
+            assertEquals(expected.length, section.getLength());
+            assertTrue(Arrays.equals(expected, os.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testAddExistingSection() throws Exception {
+        byte[] original = Files.readAllBytes(loadResourceFile("elf/libfixture-x86_64.so").toPath());
+        byte[] injected = new ElfSectionInjector(original).addSection(SECTION_NAME, SECTION_DATA);
+        try {
+            new ElfSectionInjector(injected).addSection(SECTION_NAME, SECTION_DATA);
+            fail();
+        } catch (ElfException e) {
+            // expected
+        }
+    }
+
+    private ElfHeader checkAddSection(String fixture) throws Exception {
+        byte[] original = Files.readAllBytes(loadResourceFile(fixture).toPath());
+        ElfHeader originalElf = parse(original);
+        byte[] injected = new ElfSectionInjector(original).addSection(SECTION_NAME, SECTION_DATA);
+        ElfHeader elf = parse(injected);
+
+        // the original content is kept, only the section header table fields of the ELF header change.
+        int headerSize = elf.e_ehsize() & 0xFFFF;
+        assertTrue(Arrays.equals(
+                Arrays.copyOfRange(original, headerSize, original.length),
+                Arrays.copyOfRange(injected, headerSize, original.length)));
+        assertEquals(originalElf.e_phoff(), elf.e_phoff());
+        assertEquals(originalElf.e_phnum(), elf.e_phnum());
+        assertEquals(originalElf.e_entry(), elf.e_entry());
+        assertEquals(originalElf.e_shstrndx(), elf.e_shstrndx());
+        assertEquals(originalElf.e_shnum() + 1, elf.e_shnum());
+
+        ElfSectionHeader section = elf.getSection(SECTION_NAME);
+        assertNotNull(section);
+        assertEquals(ElfSectionHeaderConstants.SHT_PROGBITS, section.getType());
+        assertEquals(0, section.getFlags());
+        assertEquals(0, section.getAddress());
+        assertEquals(original.length, section.getOffset());
+        assertTrue(Arrays.equals(SECTION_DATA, section.getData()));
+
+        ElfSectionHeader[] originalSections = originalElf.getSections();
+        ElfSectionHeader[] sections = elf.getSections();
+        assertEquals(originalSections.length + 1, sections.length);
+        int shstrndx = elf.e_shstrndx() & 0xFFFF;
+        for (int i = 0; i < originalSections.length; i++) {
+            ElfSectionHeader originalSection = originalSections[i];
+            ElfSectionHeader copy = sections[i];
+            assertEquals(originalSection.getNameAsString(), copy.getNameAsString());
+            assertEquals(originalSection.getType(), copy.getType());
+            assertEquals(originalSection.getFlags(), copy.getFlags());
+            assertEquals(originalSection.getAddress(), copy.getAddress());
+            assertEquals(originalSection.getLink(), copy.getLink());
+            assertEquals(originalSection.getInfo(), copy.getInfo());
+            if (i == shstrndx) {
+                // the names are moved to the end of the file and extended with the new one.
+                byte[] names = copy.getData();
+                assertTrue(Arrays.equals(originalSection.getData(), Arrays.copyOf(names, (int) originalSection.getSize())));
+                continue;
+            }
+            assertEquals(originalSection.getOffset(), copy.getOffset());
+            assertEquals(originalSection.getSize(), copy.getSize());
+            if (originalSection.getType() != ElfSectionHeaderConstants.SHT_NOBITS) {
+                assertTrue(Arrays.equals(originalSection.getData(), copy.getData()));
+            }
+        }
+        assertNotNull(elf.getSection(".text"));
+        assertNotNull(elf.getDynamicTable());
+        return elf;
+    }
+
+    private static ElfHeader parse(byte[] bytes) throws ElfException, IOException {
+        ElfHeader elf = ElfHeader.createElfHeader(RethrowContinuesFactory.INSTANCE, new ByteArrayProvider(bytes));
+        elf.parse(false);
+        return elf;
+    }
+}
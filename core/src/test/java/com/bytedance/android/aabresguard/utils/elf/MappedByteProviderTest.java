@@ -0,0 +1,51 @@
+package com.bytedance.android.aabresguard.utils.elf;
+
+import com.bytedance.android.aabresguard.BaseTest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class MappedByteProviderTest extends BaseTest {
+
+    private static final byte[] CONTENT = {0x7f, 'E', 'L', 'F', 1, 2, 3, 4, 5, 6};
+
+    @Test
+    public void testMapFile() throws IOException {
+        File file = new File(getTempDirFilePath(), "lib.so");
+        Files.write(file.toPath(), CONTENT);
+        try (MappedByteProvider provider = new MappedByteProvider(file)) {
+            assertEquals(CONTENT.length, provider.length());
+            assertEquals("lib.so", provider.getName());
+            assertEquals('E', provider.readByte(1));
+            assertTrue(Arrays.equals(new byte[]{3, 4, 5}, provider.readBytes(6, 3)));
+            assertTrue(provider.isValidIndex(CONTENT.length - 1));
+            assertFalse(provider.isValidIndex(CONTENT.length));
+        }
+    }
+
+    @Test
+    public void testBufferSlice() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(CONTENT);
+        buffer.position(4);
+        MappedByteProvider provider = new MappedByteProvider(buffer, "slice");
+        assertEquals(CONTENT.length - 4, provider.length());
+        assertEquals(1, provider.readByte(0));
+        assertEquals(4, buffer.position());
+        try {
+            provider.readBytes(4, 3);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
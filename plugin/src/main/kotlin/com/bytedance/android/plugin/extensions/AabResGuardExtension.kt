@@ -12,11 +12,17 @@ open class AabResGuardExtension {
     var whiteList: Set<String>? = HashSet()
     lateinit var obfuscatedBundleFileName: String
     var mergeDuplicatedRes: Boolean = false
+    var mergeDuplicatedResCrossModule: Boolean = false
     var enableFilterFiles: Boolean = false
     var filterList: Set<String>? = HashSet()
     var enableFilterStrings: Boolean = false
     var unusedStringPath: String? = ""
     var languageWhiteList: Set<String>? = HashSet()
+    var maxThreads: Int? = null
+    var fusedPipeline: Boolean = false
+    var obfuscationSeed: Int? = null
+    var obfuscationCacheDir: String? = null
+    var obfuscationCacheMaxSize: Int? = null
 
     override fun toString(): String {
         return "AabResGuardExtension\n" +
@@ -25,10 +31,16 @@ open class AabResGuardExtension {
                 "\twhiteList=${if (whiteList == null) null else whiteList}\n" +
                 "\tobfuscatedBundleFileName=$obfuscatedBundleFileName\n" +
                 "\tmergeDuplicatedRes=$mergeDuplicatedRes\n" +
+                "\tmergeDuplicatedResCrossModule=$mergeDuplicatedResCrossModule\n" +
                 "\tenableFilterFiles=$enableFilterFiles\n" +
                 "\tfilterList=${if (filterList == null) null else filterList}" +
                 "\tenableFilterStrings=$enableFilterStrings\n" +
                 "\tunusedStringPath=$unusedStringPath\n" +
+                "\tmaxThreads=$maxThreads\n" +
+                "\tfusedPipeline=$fusedPipeline\n" +
+                "\tobfuscationSeed=$obfuscationSeed\n" +
+                "\tobfuscationCacheDir=$obfuscationCacheDir\n" +
+                "\tobfuscationCacheMaxSize=$obfuscationCacheMaxSize\n" +
                 "\tlanguageWhiteoolean`List=${if (languageWhiteList == null) null else languageWhiteList}"
     }
 }
\ No newline at end of file
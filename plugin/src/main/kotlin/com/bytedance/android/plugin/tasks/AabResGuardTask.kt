@@ -2,24 +2,43 @@ package com.bytedance.android.plugin.tasks
 
 import com.android.build.gradle.api.ApplicationVariant
 import com.android.build.gradle.internal.scope.VariantScope
+import com.bytedance.android.aabresguard.android.AndroidDebugKeyStoreHelper
 import com.bytedance.android.aabresguard.commands.ObfuscateBundleCommand
+import com.bytedance.android.aabresguard.executors.DuplicatedResourcesMerger
+import com.bytedance.android.aabresguard.executors.ResourcesObfuscator
 import com.bytedance.android.plugin.extensions.AabResGuardExtension
 import com.bytedance.android.plugin.internal.getBundleFilePath
 import com.bytedance.android.plugin.internal.getSigningConfig
 import com.bytedance.android.plugin.model.SigningConfig
 import org.gradle.api.DefaultTask
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.OutputFiles
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.TaskAction
 import java.io.File
 import java.nio.file.Path
+import java.security.MessageDigest
+import java.util.zip.ZipFile
 
 /**
  * Created by YangJing on 2019/10/15 .
  * Email: yangjing.yeoh@bytedance.com
+ *
+ * Everything the obfuscated bundle depends on is declared as an input, so the task is skipped when nothing changed,
+ * and its outputs can be loaded from the build cache. The passwords are only tracked through their hash.
  */
+@CacheableTask
 open class AabResGuardTask : DefaultTask() {
 
     private lateinit var variant: ApplicationVariant
-    lateinit var signingConfig: SigningConfig
+    private var resolvedSigningConfig: SigningConfig? = null
+    @get:Internal
     var aabResGuard: AabResGuardExtension = project.extensions.getByName("aabResGuard") as AabResGuardExtension
     private lateinit var bundlePath: Path
     private lateinit var obfuscatedBundlePath: Path
@@ -27,9 +46,123 @@ open class AabResGuardTask : DefaultTask() {
     init {
         description = "Assemble resource proguard for bundle file"
         group = "bundle"
-        outputs.upToDateWhen { false }
     }
 
+    @get:Internal
+    val signingConfig: SigningConfig
+        get() {
+            if (resolvedSigningConfig == null) {
+                resolvedSigningConfig = getSigningConfig(project, variant)
+            }
+            return resolvedSigningConfig!!
+        }
+
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.NONE)
+    val bundleFile: File
+        get() = bundlePath.toFile()
+
+    @get:Optional
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.NONE)
+    val mappingFile: File?
+        get() = aabResGuard.mappingFile?.toFile()?.takeIf { it.exists() }
+
+    @get:Optional
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.NONE)
+    val unusedStringFile: File?
+        get() = if (aabResGuard.enableFilterStrings) resolveUnusedStringFile()?.takeIf { it.exists() } else null
+
+    @get:Input
+    val obfuscationOptions: Map<String, String>
+        get() = mapOf(
+                "enableObfuscate" to aabResGuard.enableObfuscate.toString(),
+                "mergeDuplicatedRes" to aabResGuard.mergeDuplicatedRes.toString(),
+                "mergeDuplicatedResCrossModule" to aabResGuard.mergeDuplicatedResCrossModule.toString(),
+                "enableFilterFiles" to aabResGuard.enableFilterFiles.toString(),
+                "enableFilterStrings" to aabResGuard.enableFilterStrings.toString(),
+                "fusedPipeline" to aabResGuard.fusedPipeline.toString(),
+                "obfuscationSeed" to aabResGuard.obfuscationSeed.toString()
+        )
+
+    @get:Input
+    val whiteList: List<String>
+        get() = aabResGuard.whiteList.orEmpty().sorted()
+
+    @get:Input
+    val filterList: List<String>
+        get() = aabResGuard.filterList.orEmpty().sorted()
+
+    @get:Input
+    val languageWhiteList: List<String>
+        get() = aabResGuard.languageWhiteList.orEmpty().sorted()
+
+    @get:Optional
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.NONE)
+    val signingStoreFile: File?
+        get() = signingConfig.storeFile?.takeIf { it.exists() }
+
+    @get:Optional
+    @get:Input
+    val signingKeyAlias: String?
+        get() = signingStoreFile?.let { signingConfig.keyAlias }
+
+    /**
+     * The hash of the passwords, so that they are not written to the task history.
+     */
+    @get:Optional
+    @get:Input
+    val signingPasswordsHash: String?
+        get() = signingStoreFile?.let { sha256("${signingConfig.storePassword}\u0000${signingConfig.keyPassword}") }
+
+    /**
+     * The bundle is signed with the debug keystore of the machine when the variant has no signing config, its content
+     * is part of the cache key as well.
+     */
+    @get:Optional
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.NONE)
+    val debugKeystoreFile: File?
+        get() = if (signingStoreFile == null) AndroidDebugKeyStoreHelper.debugSigningConfig()?.storeFile?.toFile() else null
+
+    @get:OutputFile
+    val obfuscatedBundleFile: File
+        get() = obfuscatedBundlePath.toFile()
+
+    @get:Optional
+    @get:OutputFile
+    val resourcesMappingFile: File?
+        get() = if (aabResGuard.enableObfuscate) File(obfuscatedBundleFile.parentFile, ResourcesObfuscator.FILE_MAPPING_NAME) else null
+
+    @get:Optional
+    @get:OutputFile
+    val binaryResourcesMappingFile: File?
+        get() = if (aabResGuard.enableObfuscate) File(obfuscatedBundleFile.parentFile, ResourcesObfuscator.FILE_BINARY_MAPPING_NAME) else null
+
+    /**
+     * The duplicated resources logs written next to the obfuscated bundle, one per module of the bundle. They are
+     * named so that the task stays cacheable.
+     */
+    @get:OutputFiles
+    val duplicatedLogFiles: Map<String, File>
+        get() {
+            if (!aabResGuard.mergeDuplicatedRes) {
+                return emptyMap()
+            }
+            val logFiles = LinkedHashMap<String, File>()
+            for (moduleName in readModuleNames()) {
+                logFiles["$moduleName-duplicated"] = File(obfuscatedBundleFile.parentFile,
+                        moduleName + DuplicatedResourcesMerger.SUFFIX_FILE_DUPLICATED_LOGGER)
+                if (aabResGuard.mergeDuplicatedResCrossModule) {
+                    logFiles["$moduleName-cross-module-duplicated"] = File(obfuscatedBundleFile.parentFile,
+                            moduleName + DuplicatedResourcesMerger.SUFFIX_FILE_CROSS_MODULE_DUPLICATED_LOGGER)
+                }
+            }
+            return logFiles
+        }
+
     fun setVariantScope(variant:ApplicationVariant) {
         this.variant=variant;
         // init bundleFile, obfuscatedBundlePath must init before task action.
@@ -37,6 +170,7 @@ open class AabResGuardTask : DefaultTask() {
         obfuscatedBundlePath = File(bundlePath.toFile().parentFile, aabResGuard.obfuscatedBundleFileName).toPath()
     }
 
+    @Internal
     fun getObfuscatedBundlePath(): Path {
         return obfuscatedBundlePath
     }
@@ -44,26 +178,39 @@ open class AabResGuardTask : DefaultTask() {
     @TaskAction
     private fun execute() {
         println(aabResGuard.toString())
-        // init signing config
-        signingConfig = getSigningConfig(project, variant)
         printSignConfiguration()
 
         prepareUnusedFile()
+        deletePreviousOutputs()
 
         val command = ObfuscateBundleCommand.builder()
                 .setEnableObfuscate(aabResGuard.enableObfuscate)
                 .setBundlePath(bundlePath)
                 .setOutputPath(obfuscatedBundlePath)
                 .setMergeDuplicatedResources(aabResGuard.mergeDuplicatedRes)
+                .setMergeDuplicatedResourcesCrossModule(aabResGuard.mergeDuplicatedResCrossModule)
                 .setWhiteList(aabResGuard.whiteList)
                 .setFilterFile(aabResGuard.enableFilterFiles)
                 .setFileFilterRules(aabResGuard.filterList)
                 .setRemoveStr(aabResGuard.enableFilterStrings)
                 .setUnusedStrPath(aabResGuard.unusedStringPath)
                 .setLanguageWhiteList(aabResGuard.languageWhiteList)
+                .setFusedPipeline(aabResGuard.fusedPipeline)
         if (aabResGuard.mappingFile != null) {
             command.setMappingPath(aabResGuard.mappingFile)
         }
+        if (aabResGuard.maxThreads != null) {
+            command.setMaxThreads(aabResGuard.maxThreads)
+        }
+        if (aabResGuard.obfuscationSeed != null) {
+            command.setObfuscationSeed(aabResGuard.obfuscationSeed)
+        }
+        if (aabResGuard.obfuscationCacheDir != null) {
+            command.setObfuscationCacheDir(project.file(aabResGuard.obfuscationCacheDir!!).toPath())
+        }
+        if (aabResGuard.obfuscationCacheMaxSize != null) {
+            command.setObfuscationCacheMaxSize(aabResGuard.obfuscationCacheMaxSize)
+        }
 
         if (signingConfig.storeFile != null && signingConfig.storeFile!!.exists()) {
             command.setStoreFile(signingConfig.storeFile!!.toPath())
@@ -74,11 +221,55 @@ open class AabResGuardTask : DefaultTask() {
         command.build().execute()
     }
 
-    private fun prepareUnusedFile() {
+    /**
+     * The mapping and the duplicated resources logs of the previous run are not overwritten by the executors, they
+     * are deleted now that the task runs again on changed inputs.
+     */
+    private fun deletePreviousOutputs() {
+        resourcesMappingFile?.delete()
+        binaryResourcesMappingFile?.delete()
+        obfuscatedBundleFile.parentFile.listFiles { _, name ->
+            name.endsWith(DuplicatedResourcesMerger.SUFFIX_FILE_DUPLICATED_LOGGER)
+                    || name.endsWith(DuplicatedResourcesMerger.SUFFIX_FILE_CROSS_MODULE_DUPLICATED_LOGGER)
+        }?.forEach { it.delete() }
+    }
+
+    /**
+     * Returns the names of the modules of the input bundle, in the order of their manifests.
+     */
+    private fun readModuleNames(): List<String> {
+        if (!bundleFile.exists()) {
+            return emptyList()
+        }
+        return ZipFile(bundleFile).use { zipFile ->
+            zipFile.entries().asSequence()
+                    .map { it.name }
+                    .filter { it.endsWith("/manifest/AndroidManifest.xml") && it.count { c -> c == '/' } == 2 }
+                    .map { it.substringBefore('/') }
+                    .toList()
+        }
+    }
+
+    /**
+     * Returns the unused strings file used by the string filter: the one generated by R8 for the variant, unless
+     * [AabResGuardExtension.unusedStringPath] is set.
+     */
+    private fun resolveUnusedStringFile(): File? {
+        val usedFile = getDefaultUnusedStringFile()
+        if (usedFile.exists() && aabResGuard.unusedStringPath.isNullOrBlank()) {
+            return usedFile
+        }
+        return aabResGuard.unusedStringPath?.takeIf { it.isNotBlank() }?.let { File(it) }
+    }
+
+    private fun getDefaultUnusedStringFile(): File {
         val simpleName = variant.name.replace("Release", "")
         val name = simpleName[0].toLowerCase() + simpleName.substring(1)
-        val resourcePath = "${project.buildDir}/outputs/mapping/$name/release/unused.txt"
-        val usedFile = File(resourcePath)
+        return File("${project.buildDir}/outputs/mapping/$name/release/unused.txt")
+    }
+
+    private fun prepareUnusedFile() {
+        val usedFile = getDefaultUnusedStringFile()
         if (usedFile.exists()) {
             println("find unused.txt : ${usedFile.absolutePath}")
             if (aabResGuard.enableFilterStrings) {
@@ -102,6 +293,11 @@ open class AabResGuardTask : DefaultTask() {
         println("-------------- sign configuration --------------")
     }
 
+    private fun sha256(value: String): String {
+        return MessageDigest.getInstance("SHA-256").digest(value.toByteArray())
+                .joinToString("") { String.format("%02x", it) }
+    }
+
     private fun encrypt(value: String?): String {
         if (value == null) return "/"
         if (value.length > 2) {